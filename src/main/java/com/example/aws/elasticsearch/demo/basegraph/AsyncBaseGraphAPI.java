@@ -0,0 +1,83 @@
+package com.example.aws.elasticsearch.demo.basegraph;
+
+import com.example.aws.elasticsearch.demo.basegraph.BaseGraphAPI.Direction;
+import com.example.aws.elasticsearch.demo.basegraph.model.BaseEdge;
+import com.example.aws.elasticsearch.demo.basegraph.model.BaseVertex;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+// non-blocking counterpart of BaseGraphAPI
+public interface AsyncBaseGraphAPI {
+
+    //////////////////////////////////////////////////
+    //
+    // common access services about ElasticElement
+    //
+
+    CompletableFuture<Collection<BaseVertex>> vertices(String datasource);
+    CompletableFuture<Collection<BaseEdge>> edges(String datasource);
+
+    CompletableFuture<Boolean> existsVertex(String id);
+    CompletableFuture<Boolean> existsEdge(String id);
+
+    CompletableFuture<Optional<BaseVertex>> getVertexById(String id);
+    CompletableFuture<Optional<BaseEdge>> getEdgeById(String id);
+
+    CompletableFuture<Boolean> saveVertex(BaseVertex vertex);
+    CompletableFuture<Boolean> saveEdge(BaseEdge edge);
+
+    CompletableFuture<Boolean> saveVertex(BaseVertex vertex, long ifSeqNo, long ifPrimaryTerm);
+    CompletableFuture<Boolean> saveEdge(BaseEdge edge, long ifSeqNo, long ifPrimaryTerm);
+
+    CompletableFuture<Map<String, String>> saveVertices(Collection<BaseVertex> vertices);
+    CompletableFuture<Map<String, String>> saveEdges(Collection<BaseEdge> edges);
+
+    CompletableFuture<Void> dropVertex(String id);
+    CompletableFuture<Void> dropEdge(String id);
+
+    CompletableFuture<Long> countV(String datasource);
+    CompletableFuture<Long> countE(String datasource);
+
+    CompletableFuture<Map<String, Long>> listVertexLabels(String datasource);
+    CompletableFuture<Map<String, Long>> listEdgeLabels(String datasource);
+
+    CompletableFuture<Map<String, Long>> listVertexLabelKeys(String datasource, String label);
+    CompletableFuture<Map<String, Long>> listEdgeLabelKeys(String datasource, String label);
+
+    //////////////////////////////////////////////////
+    //
+    // access services of Vertex
+    //
+
+    CompletableFuture<Collection<BaseVertex>> findVertices(final String[] ids);
+    CompletableFuture<Collection<BaseVertex>> findVertices(String datasource, final String[] labels);
+    CompletableFuture<Collection<BaseVertex>> findVertices(String datasource, String key, String value);
+    CompletableFuture<Collection<BaseVertex>> findVertices(String datasource, String label, String key, String value);
+    CompletableFuture<Collection<BaseVertex>> findVertices(String datasource, String key, boolean hasNot);
+    CompletableFuture<Collection<BaseVertex>> findVerticesWithKeys(String datasource, final String[] keys);
+    CompletableFuture<Collection<BaseVertex>> findVerticesWithValues(String datasource, final String[] values);
+
+    CompletableFuture<BaseVertex> findOtherVertexOfEdge(String eid, String vid);
+    CompletableFuture<Collection<BaseVertex>> findNeighborVertices(String datasource, String vid, Direction direction, final String[] labels);
+
+    //////////////////////////////////////////////////
+    //
+    // access services of Edge
+    //
+
+    CompletableFuture<Collection<BaseEdge>> findEdges(final String[] ids);
+    CompletableFuture<Collection<BaseEdge>> findEdges(String datasource, final String[] labels);
+    CompletableFuture<Collection<BaseEdge>> findEdges(String datasource, String key, String value);
+    CompletableFuture<Collection<BaseEdge>> findEdges(String datasource, String label, String key, String value);
+    CompletableFuture<Collection<BaseEdge>> findEdges(String datasource, String key, boolean hasNot);
+    CompletableFuture<Collection<BaseEdge>> findEdgesWithKeys(String datasource, final String[] keys);
+    CompletableFuture<Collection<BaseEdge>> findEdgesWithValues(String datasource, final String[] values);
+
+    CompletableFuture<Collection<BaseEdge>> findEdgesByDirection(String datasource, String vid, Direction direction);
+    CompletableFuture<Collection<BaseEdge>> findEdgesOfVertex(String datasource, String vid, Direction direction, final String[] labels);
+    CompletableFuture<Collection<BaseEdge>> findEdgesOfVertex(String datasource, String vid, Direction direction, String label, String key, Object value);
+
+}
@@ -7,6 +7,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface BaseGraphAPI {
 
@@ -22,6 +23,14 @@ public interface BaseGraphAPI {
     Collection<BaseVertex> vertices(String datasource);
     Collection<BaseEdge> edges(String datasource);
 
+    // projection : fields of found elements (ids, labels or some property keys only)
+    Collection<BaseVertex> vertices(String datasource, BaseProjection projection);
+    Collection<BaseEdge> edges(String datasource, BaseProjection projection);
+
+    // lazy : every element of datasource, paged on demand (no size limit)
+    Stream<BaseVertex> streamVertices(String datasource);
+    Stream<BaseEdge> streamEdges(String datasource);
+
     boolean existsVertex(String id);
     boolean existsEdge(String id);
 
@@ -31,6 +40,14 @@ public interface BaseGraphAPI {
     boolean saveVertex(BaseVertex vertex);
     boolean saveEdge(BaseEdge edge);
 
+    // conditional write : fails if document was changed after (seqNo, primaryTerm)
+    boolean saveVertex(BaseVertex vertex, long ifSeqNo, long ifPrimaryTerm);
+    boolean saveEdge(BaseEdge edge, long ifSeqNo, long ifPrimaryTerm);
+
+    // bulk upsert : report of id => failure message (null if saved)
+    Map<String, String> saveVertices(Collection<BaseVertex> vertices);
+    Map<String, String> saveEdges(Collection<BaseEdge> edges);
+
     void dropVertex(String id);
     void dropEdge(String id);
 
@@ -73,6 +90,10 @@ public interface BaseGraphAPI {
     BaseVertex findOtherVertexOfEdge(String eid, String vid);
     Collection<BaseVertex> findNeighborVertices(String datasource, String vid, Direction direction, final String[] labels);
 
+    Collection<BaseVertex> findVertices(final String[] ids, BaseProjection projection);
+    Collection<BaseVertex> findVertices(String datasource, final String[] labels, BaseProjection projection);
+    Collection<BaseVertex> findNeighborVertices(String datasource, String vid, Direction direction, final String[] labels, BaseProjection projection);
+
 //    Collection<BaseVertex> findVertices(String datasource
 //            , List<String> ids, List<String> labels, List<String> keys, List<Object> values);
 
@@ -94,6 +115,10 @@ public interface BaseGraphAPI {
     Collection<BaseEdge> findEdgesOfVertex(String datasource, String vid, Direction direction, final String[] labels);
     Collection<BaseEdge> findEdgesOfVertex(String datasource, String vid, Direction direction, String label, String key, Object value);
 
+    Collection<BaseEdge> findEdges(final String[] ids, BaseProjection projection);
+    Collection<BaseEdge> findEdges(String datasource, final String[] labels, BaseProjection projection);
+    Collection<BaseEdge> findEdgesOfVertex(String datasource, String vid, Direction direction, final String[] labels, BaseProjection projection);
+
 //    Collection<BaseEdge> findEdges(String datasource
 //            , List<String> ids, List<String> labels, List<String> keys, List<Object> values);
 
@@ -0,0 +1,48 @@
+package com.example.aws.elasticsearch.demo.basegraph;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// shape of found elements : only these fields are read from store and bound
+//   FULL     : whole element
+//   ID       : id (edges : sid, tid too)
+//   ID_LABEL : id, label (edges : sid, tid too)
+//   KEYS     : id, label, properties of given keys only
+public final class BaseProjection {
+
+    public enum Shape { FULL, ID, ID_LABEL, KEYS };
+
+    public static final BaseProjection FULL = new BaseProjection(Shape.FULL, Collections.emptyList());
+    public static final BaseProjection ID = new BaseProjection(Shape.ID, Collections.emptyList());
+    public static final BaseProjection ID_LABEL = new BaseProjection(Shape.ID_LABEL, Collections.emptyList());
+
+    private final Shape shape;
+    private final List<String> keys;
+
+    private BaseProjection(Shape shape, List<String> keys){
+        this.shape = shape;
+        this.keys = keys;
+    }
+
+    public static BaseProjection keys(String... keys){
+        return new BaseProjection(Shape.KEYS, Arrays.asList(keys));
+    }
+
+    // request parameters : projection=full|id|label, keys=k1,k2 (keys win)
+    public static BaseProjection of(String projection, List<String> keys){
+        if( keys != null && !keys.isEmpty() ) return keys(keys.toArray(new String[0]));
+        if( projection == null ) return FULL;
+        switch( projection.toLowerCase() ){
+            case "id":      return ID;
+            case "label":   return ID_LABEL;
+            default:        return FULL;
+        }
+    }
+
+    public Shape getShape(){ return shape; }
+    public List<String> getKeys(){ return keys; }
+
+    public boolean isFull(){ return shape == Shape.FULL; }
+
+}
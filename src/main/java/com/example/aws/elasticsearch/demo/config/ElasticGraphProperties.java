@@ -0,0 +1,141 @@
+package com.example.aws.elasticsearch.demo.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "elasticgraph")
+public class ElasticGraphProperties {
+
+    private Bulk bulk = new Bulk();
+    private Async async = new Async();
+    private Scan scan = new Scan();
+    private Export export = new Export();
+    private Cache cache = new Cache();
+    private Schema schema = new Schema();
+    private Mget mget = new Mget();
+    private Expand expand = new Expand();
+    private Traversal traversal = new Traversal();
+    private Path path = new Path();
+    private Degree degree = new Degree();
+    private Batch batch = new Batch();
+    private Templates templates = new Templates();
+
+    // BulkProcessor : flush on count, size or interval (whichever comes first)
+    // https://www.elastic.co/guide/en/elasticsearch/client/java-rest/7.3/java-rest-high-document-bulk.html
+    @Data
+    public static class Bulk {
+        private int actions = 1000;             // flush every N actions
+        private long sizeMb = 5;                // flush every N MB
+        private long flushIntervalMs = 1000;    // flush every N ms (slow producer)
+        private int concurrentRequests = 2;     // in-flight bulks (0 = synchronous)
+        private long backoffDelayMs = 100;      // first retry delay of rejected items
+        private int backoffRetries = 5;         // retries of rejected items
+        private long awaitCloseSeconds = 600;   // max wait for pending bulks on close
+    }
+
+    // DeferredResult : default timeout of async handlers (overridden by ?timeout=)
+    @Data
+    public static class Async {
+        private long timeoutMs = 10000;
+    }
+
+    // search_after : page size of lazy iteration (streamVertices, streamEdges)
+    @Data
+    public static class Scan {
+        private int pageSize = 1000;
+    }
+
+    // sliced scroll export : slices per index run in parallel, merged into one NDJSON file
+    @Data
+    public static class Export {
+        private String dir = System.getProperty("java.io.tmpdir") + "/elasticgraph-export";
+        private int slices = 4;                 // default slices per index (best : number of shards)
+        private int maxSlices = 32;
+        private int threads = 8;                // slice workers shared by all export jobs
+        private int pageSize = 1000;            // hits per scroll round trip
+        private long keepAliveSeconds = 60;     // scroll context between round trips
+        private long ttlSeconds = 3600;         // finished jobs and their files are kept for
+    }
+
+    // findById, existsId : read-through cache (maxWeightMb = 0 => bounded by maxSize)
+    @Data
+    public static class Cache {
+        private boolean enabled = true;
+        private long maxWeightMb = 64;          // approximate heap of cached documents
+        private long maxSize = 100000;
+        private long ttlSeconds = 300;
+        private long negativeTtlSeconds = 30;   // not found
+    }
+
+    // listLabels, listLabelKeys : aggregation results by datasource (refresh-ahead)
+    @Data
+    public static class Schema {
+        private boolean enabled = true;
+        private long maxSize = 10000;
+        private long refreshSeconds = 10;       // older entry is reloaded in background on read
+        private long ttlSeconds = 300;          // max staleness without reads
+    }
+
+    // findByIds : multi-get split into chunks, sent concurrently
+    @Data
+    public static class Mget {
+        private int chunkSize = 500;            // ids per mget request
+        private int maxInFlight = 25;           // mget requests sent at once by all callers (below elasticsearch.pool.max-per-route)
+    }
+
+    // k-hop expansion : defaults and upper bounds of request limits
+    @Data
+    public static class Expand {
+        private int maxDepth = 3;
+        private int maxVertices = 10000;
+        private int maxEdges = 50000;
+        private int termsChunk = 10000;         // frontier ids per terms query (index.max_terms_count)
+    }
+
+    // traversal pipeline : elements pulled from previous step per batch (one terms query per batch)
+    @Data
+    public static class Traversal {
+        private int batchSize = 500;
+        private int maxEdgesPerBatch = 50000;   // edges read for adjacent step of one batch
+        private int termsChunk = 1000;          // ids per terms query of filtered adjacent step
+    }
+
+    // shortest path : bidirectional breadth first
+    @Data
+    public static class Path {
+        private int maxDepth = 6;               // edges of path (default and upper bound)
+        private int maxVertices = 100000;       // visited per side
+        private int maxEdgesPerRound = 50000;   // edges read for one frontier expansion
+    }
+
+    // degree statistics : aggregations on sid/tid, cached by datasource
+    @Data
+    public static class Degree {
+        private boolean enabled = true;
+        private long maxSize = 10000;
+        private long ttlSeconds = 300;
+        private int maxBuckets = 10000;         // search.max_buckets of cluster : buckets of one search stay below
+        private int termsChunk = 3000;          // ids per search of degrees (3 terms aggs : up to max-buckets / 3)
+        private int maxTop = 1000;              // hubs per label (upper bound of n)
+        private int maxLabels = 100;            // edge labels of hubs (fewer if labels x n exceeds max-buckets)
+        private int pageSize = 10000;           // composite buckets per round trip (histogram, up to max-buckets)
+        private long maxVertices = 10000000;    // histogram stops after (truncated)
+    }
+
+    // batch endpoint : queries per request (one _msearch)
+    @Data
+    public static class Batch {
+        private int maxQueries = 100;
+    }
+
+    // hasContainers : stored search template per shape of conditions
+    @Data
+    public static class Templates {
+        private boolean enabled = true;
+        private int maxTerms = 16;              // keys, values, kvPairs of one template (more : inline query)
+    }
+
+}
@@ -0,0 +1,205 @@
+package com.example.aws.elasticsearch.demo.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.core.CountResponse;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// per operation metrics of elasticsearch calls (tags : operation, index)
+//   elasticgraph.requests       : client wall time (p50, p99, p999), outcome=success|error
+//   elasticgraph.took           : server reported time of search, bulk, delete_by_query
+//   elasticgraph.hits           : returned hits (count for count, items for bulk, found for mget)
+//   elasticgraph.errors         : failed calls by exception
+//   elasticgraph.request.bytes  : http body sizes (by interceptors of ElasticsearchConfig)
+//   elasticgraph.response.bytes
+@Component
+public class ElasticMetrics {
+
+    // operation name travels with request : http interceptors, slowlog and tasks API
+    public static final String OPERATION_HEADER = "X-Opaque-Id";
+
+    static final String REQUESTS = "elasticgraph.requests";
+    static final String TOOK = "elasticgraph.took";
+    static final String HITS = "elasticgraph.hits";
+    static final String ERRORS = "elasticgraph.errors";
+    static final String REQUEST_BYTES = "elasticgraph.request.bytes";
+    static final String RESPONSE_BYTES = "elasticgraph.response.bytes";
+
+    @FunctionalInterface
+    public interface Call<R> {
+        R call(RequestOptions options) throws Exception;
+    }
+    @FunctionalInterface
+    public interface AsyncCall<R> {
+        void call(RequestOptions options, ActionListener<R> listener);
+    }
+
+    private final MeterRegistry registry;
+    private final Map<String, RequestOptions> options = new ConcurrentHashMap<>();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> summaries = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ElasticMetrics(MeterRegistry registry){
+        this.registry = registry;
+    }
+
+    public MeterRegistry registry(){ return registry; }
+
+    public RequestOptions options(String operation){
+        return options.computeIfAbsent(operation, k -> {
+            RequestOptions.Builder builder = RequestOptions.DEFAULT.toBuilder();
+            builder.addHeader(OPERATION_HEADER, k);
+            return builder.build();
+        });
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    public <R> R record(String operation, String index, Call<R> call) throws Exception {
+        final long started = System.nanoTime();
+        try{
+            R response = call.call(options(operation));
+            success(operation, index, started, response);
+            return response;
+        }
+        catch (Exception e){
+            failure(operation, index, started, e);
+            throw e;
+        }
+    }
+
+    public <R> void recordAsync(String operation, String index, AsyncCall<R> call, ActionListener<R> listener){
+        final long started = System.nanoTime();
+        call.call(options(operation), new ActionListener<R>() {
+            @Override
+            public void onResponse(R response) {
+                success(operation, index, started, response);
+                listener.onResponse(response);
+            }
+            @Override
+            public void onFailure(Exception e) {
+                failure(operation, index, started, e);
+                listener.onFailure(e);
+            }
+        });
+    }
+
+    private void success(String operation, String index, long started, Object response){
+        timer(REQUESTS, operation, index, "success").record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        if( response instanceof SearchResponse ){
+            SearchResponse r = (SearchResponse) response;
+            timer(TOOK, operation, index, null).record(r.getTook().millis(), TimeUnit.MILLISECONDS);
+            summary(HITS, operation, index).record(r.getHits().getHits().length);
+        }
+        else if( response instanceof CountResponse ){
+            summary(HITS, operation, index).record(((CountResponse) response).getCount());
+        }
+        else if( response instanceof GetResponse ){
+            summary(HITS, operation, index).record(((GetResponse) response).isExists() ? 1 : 0);
+        }
+        else if( response instanceof MultiGetResponse ){
+            long found = 0;
+            for( MultiGetItemResponse item : ((MultiGetResponse) response).getResponses() ){
+                if( !item.isFailed() && item.getResponse().isExists() ) found += 1;
+            }
+            summary(HITS, operation, index).record(found);
+        }
+        else if( response instanceof BulkResponse ){
+            BulkResponse r = (BulkResponse) response;
+            timer(TOOK, operation, index, null).record(r.getTook().millis(), TimeUnit.MILLISECONDS);
+            summary(HITS, operation, index).record(r.getItems().length);
+        }
+        else if( response instanceof BulkByScrollResponse ){
+            BulkByScrollResponse r = (BulkByScrollResponse) response;
+            timer(TOOK, operation, index, null).record(r.getTook().millis(), TimeUnit.MILLISECONDS);
+            summary(HITS, operation, index).record(r.getTotal());
+        }
+    }
+
+    // searches read by low-level client : took and hits are known after the body is parsed
+    public void recordSearch(String operation, String index, long tookMillis, int hits){
+        timer(TOOK, operation, index, null).record(tookMillis, TimeUnit.MILLISECONDS);
+        summary(HITS, operation, index).record(hits);
+    }
+
+    private void failure(String operation, String index, long started, Exception e){
+        timer(REQUESTS, operation, index, "error").record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        Counter.builder(ERRORS)
+                .tags("operation", operation, "index", index, "exception", e.getClass().getSimpleName())
+                .register(registry).increment();
+    }
+
+    ///////////////////////////////////////////////////////////////
+    // http layer : bytes on the wire (operation from header, index from path)
+
+    public void recordRequest(HttpRequest request){
+        if( !(request instanceof HttpEntityEnclosingRequest) ) return;
+        HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+        if( entity == null || entity.getContentLength() < 0 ) return;
+        summary(REQUEST_BYTES, operationOf(request), indexOf(request)).record(entity.getContentLength());
+    }
+
+    public void recordResponse(HttpRequest request, HttpResponse response){
+        Header length = response.getFirstHeader("Content-Length");
+        if( request == null || length == null ) return;
+        try{
+            summary(RESPONSE_BYTES, operationOf(request), indexOf(request)).record(Long.parseLong(length.getValue()));
+        }
+        catch (NumberFormatException ignored){ }
+    }
+
+    private static String operationOf(HttpRequest request){
+        Header header = request.getFirstHeader(OPERATION_HEADER);
+        return header == null ? "unknown" : header.getValue();
+    }
+
+    // "/elasticvertex/_search?..." => elasticvertex, "/_tasks/.." => _tasks
+    private static String indexOf(HttpRequest request){
+        String uri = request.getRequestLine().getUri();
+        int start = uri.startsWith("/") ? 1 : 0;
+        int end = start;
+        while( end < uri.length() && uri.charAt(end) != '/' && uri.charAt(end) != '?' ) end += 1;
+        return end > start ? uri.substring(start, end) : "_all";
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    private Timer timer(String name, String operation, String index, String outcome){
+        return timers.computeIfAbsent(name+"|"+operation+"|"+index+"|"+outcome, k -> {
+            Timer.Builder builder = Timer.builder(name)
+                    .tags("operation", operation, "index", index)
+                    .publishPercentiles(0.5, 0.99, 0.999);
+            if( outcome != null ) builder.tag("outcome", outcome);
+            return builder.register(registry);
+        });
+    }
+
+    private DistributionSummary summary(String name, String operation, String index){
+        return summaries.computeIfAbsent(name+"|"+operation+"|"+index, k ->
+                DistributionSummary.builder(name)
+                        .tags("operation", operation, "index", index)
+                        .register(registry));
+    }
+
+}
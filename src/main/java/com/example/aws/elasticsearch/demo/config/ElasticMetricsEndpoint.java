@@ -0,0 +1,84 @@
+package com.example.aws.elasticsearch.demo.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.search.Search;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.aws.elasticsearch.demo.config.ElasticMetrics.*;
+
+// summary of ElasticMetrics by operation and index, heaviest (total time) first
+//   ==> curl -X GET "localhost:8080/actuator/elasticgraph"
+@Component
+@Endpoint(id = "elasticgraph")
+public class ElasticMetricsEndpoint {
+
+    private final MeterRegistry registry;
+
+    @Autowired
+    public ElasticMetricsEndpoint(ElasticMetrics metrics){
+        this.registry = metrics.registry();
+    }
+
+    @ReadOperation
+    public List<Map<String, Object>> operations(){
+        Map<String, Map<String, Object>> rows = new HashMap<>();
+        for( Timer timer : Search.in(registry).name(REQUESTS).timers() ){
+            String operation = timer.getId().getTag("operation");
+            String index = timer.getId().getTag("index");
+            Map<String, Object> row = rows.computeIfAbsent(operation+"|"+index, k -> {
+                Map<String, Object> r = new LinkedHashMap<>();
+                r.put("operation", operation);
+                r.put("index", index);
+                r.put("count", 0L);
+                r.put("totalMs", 0.0);
+                return r;
+            });
+            row.put("count", (Long)row.get("count") + timer.count());
+            row.put("totalMs", (Double)row.get("totalMs") + timer.totalTime(TimeUnit.MILLISECONDS));
+            if( !"success".equals(timer.getId().getTag("outcome")) ) continue;
+
+            row.put("meanMs", timer.mean(TimeUnit.MILLISECONDS));
+            row.put("maxMs", timer.max(TimeUnit.MILLISECONDS));
+            for( ValueAtPercentile p : timer.takeSnapshot().percentileValues() ){
+                row.put(percentileKey(p.percentile()), p.value(TimeUnit.MILLISECONDS));
+            }
+            Timer took = Search.in(registry).name(TOOK).tag("operation", operation).tag("index", index).timer();
+            if( took != null ) row.put("tookMeanMs", took.mean(TimeUnit.MILLISECONDS));
+            DistributionSummary hits = Search.in(registry).name(HITS).tag("operation", operation).tag("index", index).summary();
+            if( hits != null ) row.put("hitsMean", hits.mean());
+        }
+
+        for( Map<String, Object> row : rows.values() ){
+            String operation = (String)row.get("operation");
+            String index = (String)row.get("index");
+            double errors = Search.in(registry).name(ERRORS).tag("operation", operation).tag("index", index)
+                    .counters().stream().mapToDouble(Counter::count).sum();
+            row.put("errors", (long)errors);
+            DistributionSummary sent = Search.in(registry).name(REQUEST_BYTES).tag("operation", operation).tag("index", index).summary();
+            if( sent != null ) row.put("requestBytes", (long)sent.totalAmount());
+            DistributionSummary received = Search.in(registry).name(RESPONSE_BYTES).tag("operation", operation).tag("index", index).summary();
+            if( received != null ) row.put("responseBytes", (long)received.totalAmount());
+        }
+
+        List<Map<String, Object>> result = new ArrayList<>(rows.values());
+        result.sort((a, b) -> Double.compare((Double)b.get("totalMs"), (Double)a.get("totalMs")));
+        return result;
+    }
+
+    // 0.5 => p50, 0.99 => p99, 0.999 => p999
+    private static String percentileKey(double percentile){
+        String digits = String.valueOf(percentile).substring(2);
+        return "p" + (digits.length() < 2 ? digits + "0" : digits);
+    }
+
+}
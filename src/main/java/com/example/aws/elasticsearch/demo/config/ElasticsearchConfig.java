@@ -1,6 +1,8 @@
 package com.example.aws.elasticsearch.demo.config;
 
 import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
 
 
 import org.apache.http.auth.AuthScope;
@@ -8,14 +10,23 @@ import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.protocol.HttpCoreContext;
 import org.elasticsearch.client.RestClient;
 
 import org.elasticsearch.client.RestClientBuilder;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.sniff.ElasticsearchNodesSniffer;
+import org.elasticsearch.client.sniff.SniffOnFailureListener;
+import org.elasticsearch.client.sniff.Sniffer;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
 @Configuration
 public class ElasticsearchConfig {
 
@@ -25,26 +36,93 @@ public class ElasticsearchConfig {
     @Value("${elasticsearch.port}")
     private int port;
 
+    // comma separated urls (ex. http://es01:9200,http://es02:9200), overrides host and port
+    @Value("${elasticsearch.hosts:}")
+    private String hosts;
+
     @Value("${elasticsearch.username}")
     private String userName;
 
     @Value("${elasticsearch.password}")
     private String password;
 
+    // connection pool : apache async client defaults are too small for concurrent searches
+    @Value("${elasticsearch.pool.max-total:100}")
+    private int maxConnTotal;
+
+    @Value("${elasticsearch.pool.max-per-route:50}")
+    private int maxConnPerRoute;
+
+    @Value("${elasticsearch.pool.io-thread-count:0}")
+    private int ioThreadCount;          // 0 = number of processors
+
+    @Value("${elasticsearch.pool.keep-alive-ms:60000}")
+    private long keepAliveMs;
+
+    // sniffing : off for proxied clusters (ex. AWS Elasticsearch Service)
+    @Value("${elasticsearch.sniff.interval-ms:300000}")
+    private int sniffIntervalMs;
+
+    @Value("${elasticsearch.sniff.after-failure-delay-ms:60000}")
+    private int sniffAfterFailureDelayMs;
+
+    @Value("${elasticsearch.sniff.enabled:false}")
+    private boolean sniffEnabled;
+
+    private final SniffOnFailureListener sniffOnFailureListener = new SniffOnFailureListener();
+
+    private HttpHost[] httpHosts() {
+        if( hosts == null || hosts.trim().isEmpty() ) return new HttpHost[]{ new HttpHost(host, port) };
+        return Arrays.stream(hosts.split(","))
+                .map(String::trim).filter(r->!r.isEmpty())
+                .map(HttpHost::create).toArray(HttpHost[]::new);
+    }
+
     @Bean(destroyMethod = "close")
-    public RestHighLevelClient restClient() {
+    public RestHighLevelClient restClient(ElasticMetrics metrics) {
 
         final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
         credentialsProvider.setCredentials(AuthScope.ANY,
                 new UsernamePasswordCredentials(userName, password));
 
-        RestClientBuilder builder = RestClient.builder(new HttpHost(host, port))
-                .setHttpClientConfigCallback(httpClientBuilder -> 
-                    httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider));
+        final IOReactorConfig.Builder ioReactorConfig = IOReactorConfig.custom();
+        if( ioThreadCount > 0 ) ioReactorConfig.setIoThreadCount(ioThreadCount);
+
+        RestClientBuilder builder = RestClient.builder(httpHosts())
+                .setHttpClientConfigCallback(httpClientBuilder ->
+                    httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider)
+                            .setMaxConnTotal(maxConnTotal)
+                            .setMaxConnPerRoute(maxConnPerRoute)
+                            .setDefaultIOReactorConfig(ioReactorConfig.build())
+                            .setKeepAliveStrategy((response, context) -> keepAliveMs)
+                            // request and response bytes by operation (ElasticMetrics.OPERATION_HEADER)
+                            .addInterceptorLast((HttpRequestInterceptor) (request, context) ->
+                                    metrics.recordRequest(request))
+                            .addInterceptorLast((HttpResponseInterceptor) (response, context) ->
+                                    metrics.recordResponse(HttpCoreContext.adapt(context).getRequest(), response)));
+        if( sniffEnabled ) builder.setFailureListener(sniffOnFailureListener);
 
         RestHighLevelClient client = new RestHighLevelClient(builder);
 
         return client;
     }
 
+    // closed before restClient (depends on it)
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "elasticsearch.sniff.enabled", havingValue = "true")
+    public Sniffer sniffer(RestHighLevelClient restClient) {
+        HttpHost first = httpHosts()[0];
+        ElasticsearchNodesSniffer.Scheme scheme = "https".equals(first.getSchemeName())
+                ? ElasticsearchNodesSniffer.Scheme.HTTPS : ElasticsearchNodesSniffer.Scheme.HTTP;
+
+        Sniffer sniffer = Sniffer.builder(restClient.getLowLevelClient())
+                .setSniffIntervalMillis(sniffIntervalMs)
+                .setSniffAfterFailureDelayMillis(sniffAfterFailureDelayMs)
+                .setNodesSniffer(new ElasticsearchNodesSniffer(restClient.getLowLevelClient()
+                        , TimeUnit.SECONDS.toMillis(1), scheme))
+                .build();
+        sniffOnFailureListener.setSniffer(sniffer);
+        return sniffer;
+    }
+
 }
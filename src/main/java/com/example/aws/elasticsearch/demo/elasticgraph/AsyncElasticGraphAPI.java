@@ -0,0 +1,319 @@
+package com.example.aws.elasticsearch.demo.elasticgraph;
+
+import com.example.aws.elasticsearch.demo.basegraph.AsyncBaseGraphAPI;
+import com.example.aws.elasticsearch.demo.basegraph.BaseGraphAPI.Direction;
+import com.example.aws.elasticsearch.demo.basegraph.model.BaseEdge;
+import com.example.aws.elasticsearch.demo.basegraph.model.BaseVertex;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticEdge;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticVertex;
+import com.example.aws.elasticsearch.demo.elasticgraph.repository.ElasticEdgeService;
+import com.example.aws.elasticsearch.demo.elasticgraph.repository.ElasticElementService;
+import com.example.aws.elasticsearch.demo.elasticgraph.repository.ElasticGraphService;
+import com.example.aws.elasticsearch.demo.elasticgraph.repository.ElasticVertexService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
+import static com.example.aws.elasticsearch.demo.elasticgraph.ElasticGraphAPI.DEFAULT_SIZE;
+
+// async client (searchAsync, getAsync, ...) : no thread is parked while waiting elasticsearch
+//   ==> shares services of ElasticGraphAPI
+//   ==> failures complete futures exceptionally (not empty results), except version conflicts of conditional saves
+@Service
+@Slf4j
+public class AsyncElasticGraphAPI implements AsyncBaseGraphAPI {
+
+    private final ElasticVertexService vertices;
+    private final ElasticEdgeService edges;
+    private final ElasticGraphService graph;
+
+    @Autowired
+    public AsyncElasticGraphAPI(ElasticGraphAPI base) {
+        this.vertices = base.vertexService();
+        this.edges = base.edgeService();
+        this.graph = base.graphService();
+    }
+
+    private static Collection<BaseVertex> asVertices(Collection<? extends BaseVertex> list){
+        return new ArrayList<>(list);
+    }
+    private static Collection<BaseEdge> asEdges(Collection<? extends BaseEdge> list){
+        return new ArrayList<>(list);
+    }
+
+    // single round trip : upsert (CREATED, UPDATED or NOOP)
+    private static boolean isWritten(String result){
+        return result.equals("CREATED") || result.equals("UPDATED") || result.equals("NOOP");
+    }
+
+    // version conflict : false, other failures complete the future exceptionally (500)
+    private static boolean conflicted(Throwable e){
+        if( ElasticElementService.isVersionConflict(e) ) return false;
+        throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+    }
+
+    //////////////////////////////////////////////////
+    //
+    // schema services
+    //
+
+    @Override
+    public CompletableFuture<Map<String, Long>> listVertexLabels(String datasource) {
+        return graph.listLabelsAsync(ElasticGraphService.INDEX_VERTEX, datasource);
+    }
+    @Override
+    public CompletableFuture<Map<String, Long>> listEdgeLabels(String datasource) {
+        return graph.listLabelsAsync(ElasticGraphService.INDEX_EDGE, datasource);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Long>> listVertexLabelKeys(String datasource, String label) {
+        return graph.listLabelKeysAsync(ElasticGraphService.INDEX_VERTEX, datasource, label);
+    }
+    @Override
+    public CompletableFuture<Map<String, Long>> listEdgeLabelKeys(String datasource, String label) {
+        return graph.listLabelKeysAsync(ElasticGraphService.INDEX_EDGE, datasource, label);
+    }
+
+    @Override
+    public CompletableFuture<Long> countV(String datasource) {
+        return vertices.countAsync(datasource);
+    }
+    @Override
+    public CompletableFuture<Long> countE(String datasource) {
+        return edges.countAsync(datasource);
+    }
+
+    //////////////////////////////////////////////////
+    //
+    // common access services about ElasticElement
+    //
+
+    @Override
+    public CompletableFuture<Collection<BaseVertex>> vertices(String datasource) {
+        return findVertices(datasource, null, null, null, null, null, null, null);
+    }
+    @Override
+    public CompletableFuture<Collection<BaseEdge>> edges(String datasource) {
+        return findEdges(datasource, null, null, null, null, null, null, null);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> existsVertex(String id) {
+        return vertices.existsIdAsync(id);
+    }
+    @Override
+    public CompletableFuture<Boolean> existsEdge(String id) {
+        return edges.existsIdAsync(id);
+    }
+
+    @Override
+    public CompletableFuture<Optional<BaseVertex>> getVertexById(String id) {
+        return vertices.findByIdAsync(id)
+                .thenApply(r -> Optional.<BaseVertex>ofNullable(r));
+    }
+    @Override
+    public CompletableFuture<Optional<BaseEdge>> getEdgeById(String id) {
+        return edges.findByIdAsync(id)
+                .thenApply(r -> Optional.<BaseEdge>ofNullable(r));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> saveVertex(BaseVertex vertex) {
+        return vertices.upsertDocumentAsync((ElasticVertex) vertex, null, null)
+                .thenApply(AsyncElasticGraphAPI::isWritten);
+    }
+    @Override
+    public CompletableFuture<Boolean> saveEdge(BaseEdge edge) {
+        return edges.upsertDocumentAsync((ElasticEdge) edge, null, null)
+                .thenApply(AsyncElasticGraphAPI::isWritten);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> saveVertex(BaseVertex vertex, long ifSeqNo, long ifPrimaryTerm) {
+        return vertices.upsertDocumentAsync((ElasticVertex) vertex, ifSeqNo, ifPrimaryTerm)
+                .thenApply(AsyncElasticGraphAPI::isWritten)
+                .exceptionally(AsyncElasticGraphAPI::conflicted);
+    }
+    @Override
+    public CompletableFuture<Boolean> saveEdge(BaseEdge edge, long ifSeqNo, long ifPrimaryTerm) {
+        return edges.upsertDocumentAsync((ElasticEdge) edge, ifSeqNo, ifPrimaryTerm)
+                .thenApply(AsyncElasticGraphAPI::isWritten)
+                .exceptionally(AsyncElasticGraphAPI::conflicted);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, String>> saveVertices(Collection<BaseVertex> vertices) {
+        return this.vertices.bulkDocumentsAsync(vertices.stream()
+                    .map(r->(ElasticVertex)r).collect(Collectors.toList()));
+    }
+    @Override
+    public CompletableFuture<Map<String, String>> saveEdges(Collection<BaseEdge> edges) {
+        return this.edges.bulkDocumentsAsync(edges.stream()
+                    .map(r->(ElasticEdge)r).collect(Collectors.toList()));
+    }
+
+    @Override
+    public CompletableFuture<Void> dropVertex(String id) {
+        return vertices.deleteDocumentAsync(id)
+                .<Void>thenApply(r -> null);
+    }
+    @Override
+    public CompletableFuture<Void> dropEdge(String id) {
+        return edges.deleteDocumentAsync(id)
+                .<Void>thenApply(r -> null);
+    }
+
+    ///////////////////////////////////////////////////////////////
+    // find vertices for baseAPI
+
+    @Override
+    public CompletableFuture<Collection<BaseVertex>> findVertices(final String[] ids) {
+        return vertices.findByIdsAsync(ids)
+                .thenApply(AsyncElasticGraphAPI::asVertices);
+    }
+    @Override
+    public CompletableFuture<Collection<BaseVertex>> findVertices(String datasource, final String[] labels) {
+        return findVertices(datasource, null, labels, null, null, null, null, null);
+    }
+    @Override
+    public CompletableFuture<Collection<BaseVertex>> findVertices(String datasource, String key, String value) {
+        return findVertices(datasource, null, null, null, null, null, null, Collections.singletonMap(key, value));
+    }
+    @Override
+    public CompletableFuture<Collection<BaseVertex>> findVertices(String datasource, String label, String key, String value) {
+        return findVertices(datasource, label, null, null, null, null, null, Collections.singletonMap(key, value));
+    }
+    @Override
+    public CompletableFuture<Collection<BaseVertex>> findVertices(String datasource, String key, boolean hasNot) {
+        return !hasNot
+                ? findVertices(datasource, null, null, key, null, null, null, null)
+                : findVertices(datasource, null, null, null, key, null, null, null);
+    }
+    @Override
+    public CompletableFuture<Collection<BaseVertex>> findVerticesWithKeys(String datasource, final String[] keys) {
+        return findVertices(datasource, null, null, null, null, keys, null, null);
+    }
+    @Override
+    public CompletableFuture<Collection<BaseVertex>> findVerticesWithValues(String datasource, final String[] values) {
+        return findVertices(datasource, null, null, null, null, null, values, null);
+    }
+
+    // V : hasContainers
+    public CompletableFuture<Collection<BaseVertex>> findVertices(String datasource
+            , String label, String[] labels
+            , String key, String keyNot, String[] keys
+            , String[] values, Map<String,String> kvPairs) {
+        return vertices.findByHasContainersAsync(DEFAULT_SIZE, datasource, label, labels, key, keyNot, keys, values, kvPairs)
+                .thenApply(AsyncElasticGraphAPI::asVertices);
+    }
+
+    @Override
+    public CompletableFuture<BaseVertex> findOtherVertexOfEdge(String eid, String vid) {
+        return edges.findByIdAsync(eid)
+                .thenCompose(edge -> {
+                    if( edge == null ) return CompletableFuture.<ElasticVertex>completedFuture(null);
+                    String otherVid = vid.equals(edge.getSid()) ? edge.getTid() : edge.getSid();
+                    return vertices.findByIdAsync(otherVid);
+                })
+                .<BaseVertex>thenApply(r -> r);
+    }
+
+    @Override
+    public CompletableFuture<Collection<BaseVertex>> findNeighborVertices(String datasource, String vid, Direction direction, final String[] labels) {
+        return edges.findByDatasourceAndDirectionAsync(DEFAULT_SIZE, datasource, vid, direction)
+                .thenCompose(links -> {
+                    String[] neighborIds = links.stream()
+                            .map(r->r.getSid().equals(vid) ? r.getTid() : r.getSid())
+                            .distinct().toArray(String[]::new);
+                    return vertices.findByIdsAsync(neighborIds);
+                })
+                .thenApply(list -> {
+                    if( labels.length > 0 ){
+                        List<String> filterLabels = Arrays.asList(labels);
+                        return asVertices(list.stream()
+                                .filter(r->filterLabels.contains(r.getLabel())).collect(Collectors.toList()));
+                    }
+                    return asVertices(list);
+                });
+    }
+
+    ///////////////////////////////////////////////////////////////
+    // find edges for baseAPI
+
+    @Override
+    public CompletableFuture<Collection<BaseEdge>> findEdges(final String[] ids) {
+        return edges.findByIdsAsync(ids)
+                .thenApply(AsyncElasticGraphAPI::asEdges);
+    }
+    @Override
+    public CompletableFuture<Collection<BaseEdge>> findEdges(String datasource, final String[] labels) {
+        return findEdges(datasource, null, labels, null, null, null, null, null);
+    }
+    @Override
+    public CompletableFuture<Collection<BaseEdge>> findEdges(String datasource, String key, String value) {
+        return findEdges(datasource, null, null, null, null, null, null, Collections.singletonMap(key, value));
+    }
+    @Override
+    public CompletableFuture<Collection<BaseEdge>> findEdges(String datasource, String label, String key, String value) {
+        return findEdges(datasource, label, null, null, null, null, null, Collections.singletonMap(key, value));
+    }
+    @Override
+    public CompletableFuture<Collection<BaseEdge>> findEdges(String datasource, String key, boolean hasNot) {
+        return !hasNot
+                ? findEdges(datasource, null, null, key, null, null, null, null)
+                : findEdges(datasource, null, null, null, key, null, null, null);
+    }
+    @Override
+    public CompletableFuture<Collection<BaseEdge>> findEdgesWithKeys(String datasource, final String[] keys) {
+        return findEdges(datasource, null, null, null, null, keys, null, null);
+    }
+    @Override
+    public CompletableFuture<Collection<BaseEdge>> findEdgesWithValues(String datasource, final String[] values) {
+        return findEdges(datasource, null, null, null, null, null, values, null);
+    }
+
+    // E : hasContainers
+    public CompletableFuture<Collection<BaseEdge>> findEdges(String datasource
+            , String label, String[] labels
+            , String key, String keyNot, String[] keys
+            , String[] values, Map<String,String> kvPairs) {
+        return edges.findByHasContainersAsync(DEFAULT_SIZE, datasource, label, labels, key, keyNot, keys, values, kvPairs)
+                .thenApply(AsyncElasticGraphAPI::asEdges);
+    }
+
+    @Override
+    public CompletableFuture<Collection<BaseEdge>> findEdgesByDirection(String datasource, String vid, Direction direction) {
+        return edges.findByDatasourceAndDirectionAsync(DEFAULT_SIZE, datasource, vid, direction)
+                .thenApply(AsyncElasticGraphAPI::asEdges);
+    }
+
+    @Override
+    public CompletableFuture<Collection<BaseEdge>> findEdgesOfVertex(String datasource, String vid, Direction direction, final String[] labels) {
+        if( labels.length > 0 ){
+            List<String> filterLabels = Arrays.asList(labels);
+            return findEdgesByDirection(datasource, vid, direction).thenApply(list -> asEdges(list.stream()
+                    .filter(r->filterLabels.contains(r.getLabel())).collect(Collectors.toList())));
+        }
+        return findEdgesByDirection(datasource, vid, direction);
+    }
+
+    @Override
+    public CompletableFuture<Collection<BaseEdge>> findEdgesOfVertex(String datasource, String vid, Direction direction, String label, String key, Object value) {
+        return findEdgesByDirection(datasource, vid, direction).thenApply(list -> asEdges(list.stream()
+                .filter(r->{
+                    if( label != null && !label.equals(r.getLabel()) ) return false;
+                    if( key != null ){
+                        if( !r.exists(key) ) return false;
+                        if( value != null && !r.getProperty(key).value().equals(value) ) return false;
+                    }
+                    return true;
+                }).collect(Collectors.toList())));
+    }
+
+}
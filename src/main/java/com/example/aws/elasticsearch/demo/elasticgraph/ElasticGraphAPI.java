@@ -1,16 +1,41 @@
 package com.example.aws.elasticsearch.demo.elasticgraph;
 
 import com.example.aws.elasticsearch.demo.basegraph.BaseGraphAPI;
+import com.example.aws.elasticsearch.demo.basegraph.BaseProjection;
 import com.example.aws.elasticsearch.demo.basegraph.BaseTx;
 import com.example.aws.elasticsearch.demo.basegraph.model.BaseEdge;
 import com.example.aws.elasticsearch.demo.basegraph.model.BaseVertex;
+import com.example.aws.elasticsearch.demo.config.ElasticGraphProperties;
+import com.example.aws.elasticsearch.demo.config.ElasticMetrics;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticBatchQuery;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticBatchResult;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticDegree;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticDegreeHistogram;
 import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticEdge;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticElement;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticPath;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticSubgraph;
 import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticVertex;
+import com.example.aws.elasticsearch.demo.elasticgraph.repository.ElasticAdjacencyIndex;
+import com.example.aws.elasticsearch.demo.elasticgraph.repository.ElasticBatchSearch;
+import com.example.aws.elasticsearch.demo.elasticgraph.repository.ElasticBulkWriter;
+import com.example.aws.elasticsearch.demo.elasticgraph.repository.ElasticDegreeStats;
 import com.example.aws.elasticsearch.demo.elasticgraph.repository.ElasticEdgeService;
+import com.example.aws.elasticsearch.demo.elasticgraph.repository.ElasticElementService;
+import com.example.aws.elasticsearch.demo.elasticgraph.repository.ElasticElementCache;
+import com.example.aws.elasticsearch.demo.elasticgraph.repository.ElasticExportJob;
 import com.example.aws.elasticsearch.demo.elasticgraph.repository.ElasticGraphService;
 import com.example.aws.elasticsearch.demo.elasticgraph.repository.ElasticVertexService;
+import com.example.aws.elasticsearch.demo.elasticgraph.util.AsyncPermits;
+import com.example.aws.elasticsearch.demo.elasticgraph.util.BidirectionalSearch;
+import com.example.aws.elasticsearch.demo.elasticgraph.util.IdOrdinalMap;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import lombok.extern.slf4j.Slf4j;
@@ -19,33 +44,72 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @Slf4j
 public class ElasticGraphAPI implements BaseGraphAPI {
 
-    private final static int DEFAULT_SIZE = 2500;
+    final static int DEFAULT_SIZE = 2500;
+    private final static int MAX_FAILED_LINES = 1000;       // import report
 
     private final RestHighLevelClient client;
     private final ObjectMapper mapper;
+    private final ElasticGraphProperties properties;
 
     private final ElasticVertexService vertices;
     private final ElasticEdgeService edges;
     private final ElasticGraphService graph;
+    private final ElasticElementCache cache;
+    private final ElasticBatchSearch batch;
+    private final ElasticDegreeStats degrees;
+
+    private final Map<String, ElasticExportJob> exportJobs = new ConcurrentHashMap<>();
+    private final ExecutorService exporter;         // slices of all export jobs (queued over threads)
 
     @Autowired
     public ElasticGraphAPI(
             RestHighLevelClient client,     // elasticsearch config
-            ObjectMapper mapper             // spring boot web starter
+            ObjectMapper mapper,            // spring boot web starter
+            ElasticGraphProperties properties,
+            ElasticMetrics metrics
     ) {
         this.client = client;
         this.mapper = mapper;
+        this.properties = properties;
+
+        this.cache = new ElasticElementCache(properties.getCache(), mapper);
+        this.cache.bindTo(metrics.registry());
+
+        this.graph = new ElasticGraphService(client, mapper, properties, metrics);
+        AsyncPermits mgets = new AsyncPermits(properties.getMget().getMaxInFlight());
+        this.vertices = new ElasticVertexService(client, mapper, properties, metrics, cache, graph.schemaCache(), mgets);
+        this.edges = new ElasticEdgeService(client, mapper, properties, metrics, cache, graph.schemaCache(), mgets);
+        this.batch = new ElasticBatchSearch(client, mapper, properties, metrics, vertices, edges, graph.schemaCache());
+        this.degrees = new ElasticDegreeStats(client, properties, metrics, vertices);
+        this.degrees.bindTo(metrics.registry());
 
-        this.vertices = new ElasticVertexService(client, mapper);
-        this.edges = new ElasticEdgeService(client, mapper);
-        this.graph = new ElasticGraphService(client, mapper);
+        this.exporter = Executors.newFixedThreadPool(Math.max(1, properties.getExport().getThreads()), r -> {
+            Thread thread = new Thread(r, "elasticgraph-export");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     @Override
@@ -60,23 +124,254 @@ public class ElasticGraphAPI implements BaseGraphAPI {
         };
     }
 
+    // shared with AsyncElasticGraphAPI
+    ElasticVertexService vertexService(){ return vertices; }
+    ElasticEdgeService edgeService(){ return edges; }
+    ElasticGraphService graphService(){ return graph; }
+
     @PostConstruct
     private void ready() throws Exception {
         graph.ready();      // if not exists index, create index
     }
 
     public boolean reset() throws Exception {
+        cache.invalidateAll();
+        degrees.invalidateAll();
+        edges.dropAllAdjacency();
         return graph.resetIndex();
     }
 
+    public String cacheStats() {
+        return cache.stats();
+    }
+
+    // background delete_by_query : task ids of V and E, progress by task()
     public String remove(String datasource) throws Exception {
         Gson gson = new Gson();
         JsonObject object = new JsonObject();
-        object.addProperty("V", vertices.deleteDocuments(datasource));
-        object.addProperty("E", edges.deleteDocuments(datasource));
+        object.addProperty("V", vertices.submitDeleteDocuments(datasource));
+        object.addProperty("E", edges.submitDeleteDocuments(datasource));
+        degrees.invalidate(datasource);
+        return gson.toJson(object);
+    }
+
+    // in-memory adjacency of datasource (neighbor lookups without search) : stats while loading
+    public String loadAdjacency(String datasource) {
+        return edges.loadAdjacency(datasource).stats();
+    }
+    public Optional<String> adjacencyStats(String datasource) {
+        ElasticAdjacencyIndex adjacency = edges.adjacencyIfLoaded(datasource);
+        return adjacency == null ? Optional.empty() : Optional.of(adjacency.stats());
+    }
+    public boolean dropAdjacency(String datasource) {
+        return edges.dropAdjacency(datasource);
+    }
+
+    public Optional<String> task(String taskId) throws Exception {
+        return Optional.ofNullable(graph.getTask(taskId));
+    }
+    public boolean cancelTask(String taskId) throws Exception {
+        return graph.cancelTask(taskId);
+    }
+
+    // NDJSON : one vertex or edge per line (edge if it has sid or tid)
+    //   ==> parsed one record at a time and fed to bulk processor (memory stays flat)
+    //   ==> lines not answered before await-close-seconds are failed
+    public String importGraph(String datasource, InputStream in) throws Exception {
+        // in-flight only : id => lines (same id on many lines : answered in order of lines)
+        final Map<String, Deque<Long>> pending = new ConcurrentHashMap<>();
+        final List<Long> failedLines = Collections.synchronizedList(new ArrayList<>());
+        final AtomicLong succeeded = new AtomicLong(), failed = new AtomicLong();
+        final long started = System.currentTimeMillis();
+
+        ElasticBulkWriter writer = vertices.bulkWriter((id, success, failure) -> {
+            Long line = nextPending(pending, id);
+            if( line == null ) return;          // answered after close timed out (already failed)
+            if( success ) succeeded.incrementAndGet();
+            else{
+                failed.incrementAndGet();
+                if( failedLines.size() < MAX_FAILED_LINES ) failedLines.add(line);
+            }
+        });
+
+        long countV = 0L, countE = 0L, parseErrors = 0L, bytes = 0L;
+        String aborted = null;
+        try( JsonParser parser = mapper.getFactory().createParser(in) ){
+            JsonToken token;
+            while( (token = parser.nextToken()) != null ){
+                long line = parser.getTokenLocation().getLineNr();
+                if( token != JsonToken.START_OBJECT ){
+                    parser.skipChildren();
+                    parseErrors += 1;
+                    if( failedLines.size() < MAX_FAILED_LINES ) failedLines.add(line);
+                    continue;
+                }
+
+                JsonNode node = mapper.readTree(parser);
+                ((ObjectNode)node).put("datasource", datasource);
+                try {
+                    boolean isEdge = node.has("sid") || node.has("tid");
+                    ElasticElement document = isEdge
+                            ? mapper.treeToValue(node, ElasticEdge.class)
+                            : mapper.treeToValue(node, ElasticVertex.class);
+                    if( document.getId() == null || document.getId().isEmpty() )
+                        document.setId(UUID.randomUUID().toString());
+
+                    // compute : deque is changed under lock of entry only (answers of same id run concurrently)
+                    pending.compute(document.getId(), (k, lines) -> {
+                        Deque<Long> queued = lines != null ? lines : new ArrayDeque<>();
+                        queued.addLast(line);
+                        return queued;
+                    });
+                    writer.add(isEdge ? ElasticGraphService.INDEX_EDGE : ElasticGraphService.INDEX_VERTEX, document);
+                    if( isEdge ) countE += 1; else countV += 1;
+                }
+                catch (Exception e){
+                    parseErrors += 1;
+                    if( failedLines.size() < MAX_FAILED_LINES ) failedLines.add(line);
+                }
+            }
+            bytes = parser.getCurrentLocation().getByteOffset();
+        }
+        catch (Exception e){
+            // malformed JSON : stream can not be resynchronized
+            aborted = e.getMessage();
+        }
+        finally {
+            // false : timed out with bulks in flight
+            if( !writer.close() ) log.warn("import["+datasource+"] bulks not answered within await-close-seconds");
+        }
+        long unanswered = 0L;
+        for( String id : pending.keySet() ){
+            Long line;
+            while( (line = nextPending(pending, id)) != null ){
+                unanswered += 1;
+                if( failedLines.size() < MAX_FAILED_LINES ) failedLines.add(line);
+            }
+        }
+        graph.invalidateSchema(datasource);
+        degrees.invalidate(datasource);
+        // edges of import bypass edge service : rebuild if loaded
+        if( countE > 0 && edges.adjacencyIfLoaded(datasource) != null ) loadAdjacency(datasource);
+
+        long elapsed = Math.max(1L, System.currentTimeMillis() - started);
+        JsonArray lines = new JsonArray();
+        synchronized (failedLines){
+            failedLines.stream().sorted().forEach(lines::add);
+        }
+
+        Gson gson = new Gson();
+        JsonObject object = new JsonObject();
+        object.addProperty("V", countV);
+        object.addProperty("E", countE);
+        object.addProperty("succeeded", succeeded.get());
+        object.addProperty("failed", failed.get() + unanswered + parseErrors);
+        if( unanswered > 0 ) object.addProperty("unanswered", unanswered);
+        object.add("failedLines", lines);
+        object.addProperty("bytes", bytes);
+        object.addProperty("elapsedMs", elapsed);
+        object.addProperty("docsPerSec", (countV + countE) * 1000.0 / elapsed);
+        object.addProperty("bytesPerSec", bytes * 1000.0 / elapsed);
+        if( aborted != null ) object.addProperty("aborted", aborted);
         return gson.toJson(object);
     }
 
+    // first pending line of id (each line is taken once : by its bulk item or as unanswered)
+    private static Long nextPending(Map<String, Deque<Long>> pending, String id) {
+        Long[] line = new Long[1];
+        pending.computeIfPresent(id, (k, lines) -> {
+            line[0] = lines.pollFirst();
+            return lines.isEmpty() ? null : lines;
+        });
+        return line[0];
+    }
+
+    // sliced scroll : every slice of both indices is read by its own worker into a part file
+    //   ==> workers of all jobs share export.threads (slices over it wait in queue)
+    //   ==> parts are merged (vertices first) when all slices are done, progress by exportJob()
+    public ElasticExportJob exportGraph(String datasource, int slices) throws Exception {
+        ElasticGraphProperties.Export config = properties.getExport();
+        int n = Math.max(1, Math.min(slices, config.getMaxSlices()));
+        Path dir = Files.createDirectories(Paths.get(config.getDir()));
+        evictExportJobs(dir);
+
+        ElasticExportJob job = new ElasticExportJob(datasource, n
+                , vertices.count(datasource) + edges.count(datasource), dir);
+        exportJobs.put(job.getId(), job);
+
+        List<Path> parts = new ArrayList<>();
+        List<CompletableFuture<Long>> workers = new ArrayList<>();
+        for( int i = 0; i < n; i+=1 ){
+            final int sliceId = i;
+            parts.add(job.getPartFile(vertices.index(), sliceId));
+            workers.add(CompletableFuture.supplyAsync(() -> {
+                try{ return vertices.exportSlice(job, sliceId); }
+                catch (Exception e){ throw new CompletionException(e); }
+            }, exporter));
+        }
+        for( int i = 0; i < n; i+=1 ){
+            final int sliceId = i;
+            parts.add(job.getPartFile(edges.index(), sliceId));
+            workers.add(CompletableFuture.supplyAsync(() -> {
+                try{ return edges.exportSlice(job, sliceId); }
+                catch (Exception e){ throw new CompletionException(e); }
+            }, exporter));
+        }
+
+        CompletableFuture.allOf(workers.toArray(new CompletableFuture[0])).whenComplete((r, e) -> {
+            try{
+                if( e != null ) throw e;
+                try( OutputStream out = Files.newOutputStream(job.getFile()) ){
+                    for(Path part : parts) Files.copy(part, out);
+                }
+                job.done();
+            }
+            catch (Throwable t){
+                log.error("export["+job.getId()+"] failed: "+t.getMessage());
+                job.failed(t);
+            }
+            finally {
+                for(Path part : parts){
+                    try{ Files.deleteIfExists(part); } catch (IOException ignored){ }
+                }
+            }
+        });
+        return job;
+    }
+
+    public Optional<ElasticExportJob> exportJob(String id){
+        evictExportJobs(Paths.get(properties.getExport().getDir()));
+        return Optional.ofNullable(exportJobs.get(id));
+    }
+
+    // finished jobs older than ttl are dropped with their files (checked by export calls, no timer)
+    //   ==> files of unknown jobs (ex: before restart) older than ttl are deleted too
+    private void evictExportJobs(Path dir) {
+        long now = System.currentTimeMillis();
+        long ttlMillis = properties.getExport().getTtlSeconds() * 1000L;
+        for( ElasticExportJob job : exportJobs.values() ){
+            if( !job.isExpired(now, ttlMillis) || !exportJobs.remove(job.getId(), job) ) continue;
+            try{ job.deleteFiles(); }
+            catch (IOException e){ log.warn("export["+job.getId()+"] files not deleted: "+e.getMessage()); }
+        }
+        if( !Files.isDirectory(dir) ) return;
+        try( DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.{ndjson,part}") ){
+            for( Path file : files ){
+                String name = file.getFileName().toString();
+                String id = name.substring(0, name.indexOf('.'));
+                if( !isJobId(id) || exportJobs.containsKey(id) ) continue;
+                if( now - Files.getLastModifiedTime(file).toMillis() >= ttlMillis ) Files.deleteIfExists(file);
+            }
+        }
+        catch (IOException e){ log.warn("export dir not cleaned: "+e.getMessage()); }
+    }
+
+    // files of other tools in export dir are kept
+    private static boolean isJobId(String id) {
+        try{ return UUID.fromString(id).toString().equals(id); }
+        catch (IllegalArgumentException e){ return false; }
+    }
+
     public String count() throws Exception {
         Gson gson = new Gson();
         JsonObject object = new JsonObject();
@@ -165,21 +460,40 @@ public class ElasticGraphAPI implements BaseGraphAPI {
 
     @Override
     public Collection<BaseVertex> vertices(String datasource){
+        return vertices(datasource, BaseProjection.FULL);
+    }
+    @Override
+    public Collection<BaseEdge> edges(String datasource){
+        return edges(datasource, BaseProjection.FULL);
+    }
+
+    @Override
+    public Collection<BaseVertex> vertices(String datasource, BaseProjection projection){
         try{
-            return vertices.findByDatasource(DEFAULT_SIZE, datasource)
+            return vertices.findByDatasource(DEFAULT_SIZE, datasource, projection)
                     .stream().map(r->(BaseVertex)r).collect(Collectors.toList());
         }
         catch(Exception e){ return Collections.EMPTY_LIST; }
     }
     @Override
-    public Collection<BaseEdge> edges(String datasource){
+    public Collection<BaseEdge> edges(String datasource, BaseProjection projection){
         try {
-            return edges.findByDatasource(DEFAULT_SIZE, datasource)
+            return edges.findByDatasource(DEFAULT_SIZE, datasource, projection)
                     .stream().map(r->(BaseEdge)r).collect(Collectors.toList());
         }
         catch (Exception e){ return Collections.EMPTY_LIST; }
     }
 
+    // errors are thrown while consuming (no size limit, so no partial result)
+    @Override
+    public Stream<BaseVertex> streamVertices(String datasource){
+        return vertices.streamByDatasource(datasource).map(r->(BaseVertex)r);
+    }
+    @Override
+    public Stream<BaseEdge> streamEdges(String datasource){
+        return edges.streamByDatasource(datasource).map(r->(BaseEdge)r);
+    }
+
     @Override
     public boolean existsVertex(String id){
         try{ return vertices.existsId(id); }
@@ -202,25 +516,55 @@ public class ElasticGraphAPI implements BaseGraphAPI {
         catch(Exception e){ return Optional.empty(); }
     }
 
+    // single round trip : upsert (CREATED, UPDATED or NOOP)
+    private static boolean isWritten(String result){
+        return result.equals("CREATED") || result.equals("UPDATED") || result.equals("NOOP");
+    }
+
     @Override
     public boolean saveVertex(BaseVertex vertex){
-        try{
-            if( existsVertex(vertex.getId()) )
-                return vertices.updateDocument((ElasticVertex) vertex).equals("UPDATED") ? true : false;
-            else
-                return vertices.createDocument((ElasticVertex) vertex).equals("CREATED") ? true : false;
-        }
+        try{ return isWritten(vertices.upsertDocument((ElasticVertex) vertex, null, null)); }
         catch(Exception e){ return false; }
     }
     @Override
     public boolean saveEdge(BaseEdge edge){
+        try{ return isWritten(edges.upsertDocument((ElasticEdge) edge, null, null)); }
+        catch(Exception e){ return false; }
+    }
+
+    @Override
+    public boolean saveVertex(BaseVertex vertex, long ifSeqNo, long ifPrimaryTerm){
+        try{ return isWritten(vertices.upsertDocument((ElasticVertex) vertex, ifSeqNo, ifPrimaryTerm)); }
+        catch(Exception e){ return conflicted(e); }
+    }
+    @Override
+    public boolean saveEdge(BaseEdge edge, long ifSeqNo, long ifPrimaryTerm){
+        try{ return isWritten(edges.upsertDocument((ElasticEdge) edge, ifSeqNo, ifPrimaryTerm)); }
+        catch(Exception e){ return conflicted(e); }
+    }
+
+    // version conflict : false, other failures go to caller (500)
+    private static boolean conflicted(Exception e){
+        if( ElasticElementService.isVersionConflict(e) ) return false;
+        if( e instanceof RuntimeException ) throw (RuntimeException) e;
+        throw new CompletionException(e);
+    }
+
+    @Override
+    public Map<String, String> saveVertices(Collection<BaseVertex> vertices){
         try{
-            if( existsEdge(edge.getId()) )
-                return edges.updateDocument((ElasticEdge) edge).equals("UPDATED") ? true : false;
-            else
-                return edges.createDocument((ElasticEdge) edge).equals("CREATED") ? true : false;
+            return this.vertices.bulkDocuments(vertices.stream()
+                    .map(r->(ElasticVertex)r).collect(Collectors.toList()));
         }
-        catch(Exception e){ return false; }
+        catch(Exception e){ return Collections.EMPTY_MAP; }
+    }
+    @Override
+    public Map<String, String> saveEdges(Collection<BaseEdge> edges){
+        try{
+            return this.edges.bulkDocuments(edges.stream()
+                    .map(r->(ElasticEdge)r).collect(Collectors.toList()));
+        }
+        catch(Exception e){ return Collections.EMPTY_MAP; }
     }
 
     @Override
@@ -253,16 +597,24 @@ public class ElasticGraphAPI implements BaseGraphAPI {
 
     @Override
     public Collection<BaseVertex> findVertices(final String[] ids){
+        return findVertices(ids, BaseProjection.FULL);
+    }
+    @Override
+    public Collection<BaseVertex> findVertices(String datasource, final String[] labels){
+        return findVertices(datasource, labels, BaseProjection.FULL);
+    }
+    @Override
+    public Collection<BaseVertex> findVertices(final String[] ids, BaseProjection projection){
         try{
-            return vertices.findByIds(ids)
+            return vertices.findByIds(ids, projection)
                     .stream().map(r->(BaseVertex)r).collect(Collectors.toList());
         }
         catch(Exception e){ return Collections.EMPTY_LIST; }
     }
     @Override
-    public Collection<BaseVertex> findVertices(String datasource, final String[] labels){
+    public Collection<BaseVertex> findVertices(String datasource, final String[] labels, BaseProjection projection){
         try{
-            return vertices.findByDatasourceAndLabels(DEFAULT_SIZE, datasource, labels)
+            return vertices.findByDatasourceAndLabels(DEFAULT_SIZE, datasource, labels, projection)
                     .stream().map(r->(BaseVertex)r).collect(Collectors.toList());
         }
         catch(Exception e){ return Collections.EMPTY_LIST; }
@@ -321,6 +673,13 @@ public class ElasticGraphAPI implements BaseGraphAPI {
         }
         catch(Exception e){ return Collections.EMPTY_LIST; }
     }
+    public Stream<BaseVertex> streamVertices(String datasource
+            , String label, String[] labels
+            , String key, String keyNot, String[] keys
+            , String[] values, Map<String,String> kvPairs){
+        return vertices.streamByHasContainers(datasource, label, labels, key, keyNot, keys, values, kvPairs)
+                .map(r->(BaseVertex)r);
+    }
 
     @Override
     public BaseVertex findOtherVertexOfEdge(String eid, String vid){
@@ -335,25 +694,242 @@ public class ElasticGraphAPI implements BaseGraphAPI {
 
     @Override
     public Collection<BaseVertex> findNeighborVertices(String datasource, String vid, Direction direction, String[] labels){
+        return findNeighborVertices(datasource, vid, direction, labels, BaseProjection.FULL);
+    }
+
+    // labels : vertex labels (filtered after fetch, so label is always fetched)
+    @Override
+    public Collection<BaseVertex> findNeighborVertices(String datasource, String vid, Direction direction, String[] labels
+            , BaseProjection projection){
+        if( labels.length > 0 && projection.getShape() == BaseProjection.Shape.ID ) projection = BaseProjection.ID_LABEL;
         try{
-            Collection<ElasticEdge> links = edges.findByDatasourceAndDirection(DEFAULT_SIZE, datasource, vid, direction);
-            Set<String> neighborIds = links.stream()
-                    .map(r->r.getSid().equals(vid) ? r.getTid() : r.getSid()).collect(Collectors.toSet());
+            // in memory if adjacency is loaded, elasticsearch hydrates vertices only
+            ElasticAdjacencyIndex adjacency = edges.adjacency(datasource);
+            Collection<String> neighborIds;
+            if( adjacency != null )
+                neighborIds = adjacency.neighborIds(vid, direction, null, DEFAULT_SIZE);
+            else
+                neighborIds = edges.findByDatasourceAndDirection(DEFAULT_SIZE, datasource, vid, direction, null, BaseProjection.ID).stream()
+                        .map(r->r.getSid().equals(vid) ? r.getTid() : r.getSid()).collect(Collectors.toSet());
 
             String[] arrayIds = new String[neighborIds.size()];
             if( labels.length > 0 ){
                 List<String> filterLabels = Arrays.asList(labels);
-                return vertices.findByIds(neighborIds.toArray(arrayIds)).stream()
+                return vertices.findByIds(neighborIds.toArray(arrayIds), projection).stream()
                         .filter(r->filterLabels.contains(r.getLabel()))
                         .map(r->(BaseVertex)r).collect(Collectors.toList());
             }
             else
-                return vertices.findByIds(neighborIds.toArray(arrayIds))
+                return vertices.findByIds(neighborIds.toArray(arrayIds), projection)
                         .stream().map(r->(BaseVertex)r).collect(Collectors.toList());
         }
         catch(Exception e){ return Collections.EMPTY_LIST; }
     }
 
+    ///////////////////////////////////////////////////////////////
+    // k-hop expansion
+
+    // breadth first from seeds : one batched edge lookup per hop for whole frontier
+    //   (adjacency if loaded, else terms query on sid/tid), vertices of hop are fetched by mget
+    //   while next hop is searched (labels : edge labels)
+    public ElasticSubgraph expand(String datasource, String[] seedIds, Direction direction, String[] labels
+            , int depth, int maxVertices, int maxEdges) throws Exception {
+        ElasticGraphProperties.Expand config = properties.getExpand();
+        depth = Math.max(0, Math.min(depth, config.getMaxDepth()));
+        maxVertices = Math.max(1, Math.min(maxVertices, config.getMaxVertices()));
+        maxEdges = Math.max(0, Math.min(maxEdges, config.getMaxEdges()));
+
+        ElasticSubgraph subgraph = new ElasticSubgraph();
+        subgraph.setDatasource(datasource);
+
+        IdOrdinalMap visited = new IdOrdinalMap();
+        IdOrdinalMap visitedEdges = new IdOrdinalMap();
+        List<String> frontier = new ArrayList<>();
+        for( String id : seedIds ){
+            if( !visit(id, visited, frontier, maxVertices) ) subgraph.setTruncated(true);
+        }
+        List<CompletableFuture<List<ElasticVertex>>> hops = new ArrayList<>();
+        hops.add(vertices.findByIdsAsync(frontier.toArray(new String[0])));
+
+        ElasticAdjacencyIndex adjacency = edges.adjacency(datasource);
+        for( int hop = 1; hop <= depth && !frontier.isEmpty(); hop += 1 ){
+            int budget = maxEdges - subgraph.getEdges().size();
+            if( budget <= 0 ){
+                subgraph.setTruncated(true);
+                break;
+            }
+
+            // new edges only (edges back to visited vertices are known) : one more than budget tells if truncated
+            IdOrdinalMap seen = new IdOrdinalMap();
+            Predicate<String> unseen = id -> {
+                if( id == null || visitedEdges.get(id) >= 0 || seen.get(id) >= 0 ) return false;
+                seen.add(id);
+                return true;
+            };
+            List<ElasticEdge> links = adjacency != null
+                    ? findEdgesOfFrontier(adjacency, frontier, direction, labels, budget + 1, unseen)
+                    : edges.findByDatasourceAndFrontier(budget + 1, datasource, frontier, direction, labels
+                            , null, edge -> unseen.test(edge.getId()));
+            if( links.size() > budget ){
+                subgraph.setTruncated(true);
+                links = links.subList(0, budget);
+            }
+
+            List<String> next = new ArrayList<>();
+            for( ElasticEdge edge : links ){
+                visitedEdges.add(edge.getId());
+                // edge is kept only if both ends are in subgraph
+                if( !visitEnds(edge, visited, next, maxVertices) ){
+                    subgraph.setTruncated(true);
+                    continue;
+                }
+                subgraph.getEdges().add(edge);
+            }
+            subgraph.setDepth(hop);
+            if( !next.isEmpty() ) hops.add(vertices.findByIdsAsync(next.toArray(new String[0])));
+            frontier = next;
+        }
+
+        for( CompletableFuture<List<ElasticVertex>> hop : hops ){
+            subgraph.getVertices().addAll(hop.get());
+        }
+        return subgraph;
+    }
+
+    // false if not visited by budget
+    private static boolean visit(String vid, IdOrdinalMap visited, List<String> frontier, int maxVertices){
+        if( vid == null ) return false;
+        if( visited.get(vid) >= 0 ) return true;
+        if( visited.size() >= maxVertices ) return false;
+        visited.add(vid);
+        frontier.add(vid);
+        return true;
+    }
+
+    // both ends or none : no vertex is visited without its edge
+    private static boolean visitEnds(ElasticEdge edge, IdOrdinalMap visited, List<String> frontier, int maxVertices){
+        String sid = edge.getSid(), tid = edge.getTid();
+        if( sid == null || tid == null ) return false;
+        int unvisited = (visited.get(sid) < 0 ? 1 : 0) + (!tid.equals(sid) && visited.get(tid) < 0 ? 1 : 0);
+        if( visited.size() + unvisited > maxVertices ) return false;
+        visit(sid, visited, frontier, maxVertices);
+        visit(tid, visited, frontier, maxVertices);
+        return true;
+    }
+
+    // accept : edge ids not accepted are skipped and do not count to size
+    private List<ElasticEdge> findEdgesOfFrontier(ElasticAdjacencyIndex adjacency, List<String> frontier
+            , Direction direction, String[] labels, int size, Predicate<String> accept) throws Exception {
+        List<String> ids = new ArrayList<>();
+        for( int i = 0; i < frontier.size() && ids.size() < size; i += 1 ){
+            for( String id : adjacency.edgeIds(frontier.get(i), direction, labels) ){
+                if( ids.size() >= size ) break;
+                if( accept.test(id) ) ids.add(id);
+            }
+        }
+        return edges.findByIds(ids.toArray(new String[0]));
+    }
+
+    ///////////////////////////////////////////////////////////////
+    // shortest path
+
+    private static final String[] EDGE_ENDS = new String[]{ "id", "sid", "tid" };
+
+    // bidirectional breadth first (labels : edge labels, direction : from source to target)
+    //   - each round expands smaller frontier by one batched edge lookup
+    //     (adjacency if loaded : edge id and other end from memory, else terms query on sid/tid with id, sid, tid only)
+    //   - visited : ids, parents and edge ids only (see BidirectionalSearch)
+    //   - vertices and edges of path are fetched by mget at end
+    public ElasticPath shortestPath(String datasource, String fromId, String toId, Direction direction, String[] labels
+            , int maxDepth) throws Exception {
+        ElasticGraphProperties.Path config = properties.getPath();
+        maxDepth = Math.max(0, Math.min(maxDepth, config.getMaxDepth()));
+        int maxVertices = Math.max(1, config.getMaxVertices());
+        int maxEdges = Math.max(1, config.getMaxEdgesPerRound());
+
+        ElasticPath path = new ElasticPath();
+        path.setDatasource(datasource);
+
+        BidirectionalSearch search = new BidirectionalSearch(fromId, toId, direction, maxVertices);
+        ElasticAdjacencyIndex adjacency = edges.adjacency(datasource);
+        while( search.hasNext() && path.getRounds() < maxDepth ){
+            List<String> frontier = search.beginRound();
+            Direction side = search.direction();
+            path.setRounds(path.getRounds() + 1);
+
+            // one more than budget : tells if truncated
+            int[] links = new int[]{ 0 };
+            if( adjacency != null ){
+                for( int i = 0; i < frontier.size() && links[0] <= maxEdges; i += 1 ){
+                    String from = frontier.get(i);
+                    adjacency.forEachEdge(from, side, labels, (eid, to) -> {
+                        if( ++links[0] <= maxEdges ) search.reach(from, eid, to);
+                    });
+                }
+            }
+            else{
+                Set<String> vids = new HashSet<>(frontier);
+                for( ElasticEdge edge : edges.findByDatasourceAndFrontier(maxEdges + 1, datasource, frontier, side, labels, EDGE_ENDS) ){
+                    if( ++links[0] > maxEdges ) break;
+                    if( side != Direction.IN && vids.contains(edge.getSid()) ) search.reach(edge.getSid(), edge.getId(), edge.getTid());
+                    if( side != Direction.OUT && vids.contains(edge.getTid()) ) search.reach(edge.getTid(), edge.getId(), edge.getSid());
+                }
+            }
+            if( links[0] > maxEdges ) path.setTruncated(true);
+            search.endRound();
+        }
+        if( search.isTruncated() ) path.setTruncated(true);
+        if( !search.isFound() ) return path;
+
+        List<String> vids = search.vertexIds();
+        List<String> eids = search.edgeIds();
+        CompletableFuture<List<ElasticVertex>> found = vertices.findByIdsAsync(vids.toArray(new String[0]));
+        Map<String, ElasticEdge> pathEdges = new HashMap<>();
+        for( ElasticEdge edge : edges.findByIds(eids.toArray(new String[0])) ) pathEdges.put(edge.getId(), edge);
+        Map<String, ElasticVertex> pathVertices = new HashMap<>();
+        for( ElasticVertex vertex : found.get() ) pathVertices.put(vertex.getId(), vertex);
+        for( String vid : vids ){
+            if( pathVertices.containsKey(vid) ) path.getVertices().add(pathVertices.get(vid));
+        }
+        for( String eid : eids ){
+            if( pathEdges.containsKey(eid) ) path.getEdges().add(pathEdges.get(eid));
+        }
+        path.setFound(true);
+        path.setLength(eids.size());
+        return path;
+    }
+
+    ///////////////////////////////////////////////////////////////
+    // degree statistics : aggregations on sid/tid of edges, cached by datasource (labels : edge labels)
+
+    public List<ElasticDegree> degrees(String datasource, String[] ids, String[] labels) throws Exception {
+        return degrees.degrees(datasource, ids, labels);
+    }
+
+    // top-n vertices by degree of direction : "_all" and per edge label
+    public Map<String, List<ElasticDegree>> hubs(String datasource, Direction direction, String[] labels, int n) throws Exception {
+        return degrees.hubs(datasource, direction, labels, n);
+    }
+
+    public ElasticDegreeHistogram degreeHistogram(String datasource, Direction direction, String[] labels) throws Exception {
+        return degrees.histogram(datasource, direction, labels);
+    }
+
+    ///////////////////////////////////////////////////////////////
+    // batch of independent queries (ex: graph view) : searches by one _msearch, results keyed by query id
+
+    public Map<String, ElasticBatchResult> batch(String datasource, List<ElasticBatchQuery> queries){
+        return batch.search(datasource, queries, DEFAULT_SIZE);
+    }
+
+    ///////////////////////////////////////////////////////////////
+    // traversal pipeline : V(ds).hasLabel(..).has(k,v).out(label).has(..).limit(n)
+    //   ==> round trips per step and batch, not per element (see ElasticTraversal)
+
+    public ElasticTraversal V(String datasource, String... ids){
+        return new ElasticTraversal(vertices, edges, properties, datasource, ids);
+    }
+
     ///////////////////////////////////////////////////////////////
     // find vertices for native
 
@@ -403,16 +979,24 @@ public class ElasticGraphAPI implements BaseGraphAPI {
 
     @Override
     public Collection<BaseEdge> findEdges(final String[] ids){
+        return findEdges(ids, BaseProjection.FULL);
+    }
+    @Override
+    public Collection<BaseEdge> findEdges(String datasource, final String[] labels){
+        return findEdges(datasource, labels, BaseProjection.FULL);
+    }
+    @Override
+    public Collection<BaseEdge> findEdges(final String[] ids, BaseProjection projection){
         try{
-            return edges.findByIds(ids)
+            return edges.findByIds(ids, projection)
                     .stream().map(r->(BaseEdge)r).collect(Collectors.toList());
         }
         catch(Exception e){ return Collections.EMPTY_LIST; }
     }
     @Override
-    public Collection<BaseEdge> findEdges(String datasource, final String[] labels){
+    public Collection<BaseEdge> findEdges(String datasource, final String[] labels, BaseProjection projection){
         try{
-            return edges.findByDatasourceAndLabels(DEFAULT_SIZE, datasource, labels)
+            return edges.findByDatasourceAndLabels(DEFAULT_SIZE, datasource, labels, projection)
                     .stream().map(r->(BaseEdge)r).collect(Collectors.toList());
         }
         catch(Exception e){ return Collections.EMPTY_LIST; }
@@ -471,24 +1055,39 @@ public class ElasticGraphAPI implements BaseGraphAPI {
         }
         catch(Exception e){ return Collections.EMPTY_LIST; }
     }
+    public Stream<BaseEdge> streamEdges(String datasource
+            , String label, String[] labels
+            , String key, String keyNot, String[] keys
+            , String[] values, Map<String,String> kvPairs){
+        return edges.streamByHasContainers(datasource, label, labels, key, keyNot, keys, values, kvPairs)
+                .map(r->(BaseEdge)r);
+    }
 
     @Override
     public Collection<BaseEdge> findEdgesByDirection(String datasource, String vid, Direction direction){
-        try{
-            return edges.findByDatasourceAndDirection(DEFAULT_SIZE, datasource, vid, direction)
-                    .stream().map(r->(BaseEdge)r).collect(Collectors.toList());
-        }
-        catch(Exception e){ return Collections.EMPTY_LIST; }
+        return findEdgesOfVertex(datasource, vid, direction, new String[0], BaseProjection.FULL);
     }
 
     @Override
     public Collection<BaseEdge> findEdgesOfVertex(String datasource, String vid, Direction direction, final String[] labels){
-        if( labels.length > 0 ){
-            List<String> filterLabels = Arrays.asList(labels);
-            return findEdgesByDirection(datasource, vid, direction).stream()
-                    .filter(r->filterLabels.contains(r.getLabel())).collect(Collectors.toList());
+        return findEdgesOfVertex(datasource, vid, direction, labels, BaseProjection.FULL);
+    }
+
+    // labels : edge labels, filtered in memory by adjacency if loaded (else by elasticsearch)
+    @Override
+    public Collection<BaseEdge> findEdgesOfVertex(String datasource, String vid, Direction direction, final String[] labels
+            , BaseProjection projection){
+        try{
+            ElasticAdjacencyIndex adjacency = edges.adjacency(datasource);
+            if( adjacency != null ){
+                List<String> ids = adjacency.edgeIds(vid, direction, labels, DEFAULT_SIZE);
+                return edges.findByIds(ids.toArray(new String[0]), projection)
+                        .stream().map(r->(BaseEdge)r).collect(Collectors.toList());
+            }
+            return edges.findByDatasourceAndDirection(DEFAULT_SIZE, datasource, vid, direction, labels, projection)
+                    .stream().map(r->(BaseEdge)r).collect(Collectors.toList());
         }
-        return findEdgesByDirection(datasource, vid, direction);
+        catch(Exception e){ return Collections.EMPTY_LIST; }
     }
 
     @Override
@@ -497,7 +1096,7 @@ public class ElasticGraphAPI implements BaseGraphAPI {
                 .filter(r->{
                     if( label != null && !label.equals(r.getLabel()) ) return false;
                     if( key != null ){
-                        if( !r.keys().contains(key) ) return false;
+                        if( !r.exists(key) ) return false;
                         if( value != null && !r.getProperty(key).value().equals(value) ) return false;
                     }
                     return true;
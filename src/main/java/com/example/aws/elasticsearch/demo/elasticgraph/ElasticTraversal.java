@@ -0,0 +1,283 @@
+package com.example.aws.elasticsearch.demo.elasticgraph;
+
+import com.example.aws.elasticsearch.demo.basegraph.BaseGraphAPI.Direction;
+import com.example.aws.elasticsearch.demo.config.ElasticGraphProperties;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticEdge;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticVertex;
+import com.example.aws.elasticsearch.demo.elasticgraph.repository.ElasticAdjacencyIndex;
+import com.example.aws.elasticsearch.demo.elasticgraph.repository.ElasticEdgeService;
+import com.example.aws.elasticsearch.demo.elasticgraph.repository.ElasticVertexService;
+import com.example.aws.elasticsearch.demo.elasticgraph.util.ElasticHelper;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+
+import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static org.elasticsearch.index.query.QueryBuilders.termsQuery;
+
+// lazy traversal over vertices of datasource (TinkerPop like steps)
+//   ex) api.V("sample").hasLabel("person").has("technology", "java").out("knows").has("gpa").limit(10).toList()
+//   - has-steps are folded into one BoolQueryBuilder (ElasticHelper) with the step before them
+//   - start : search_after pages of folded query (pages are cut to limit of start step)
+//   - out, in, both (edge labels) : vertices pulled per batch from previous step, one terms query of edges
+//     per batch (or adjacency if loaded), neighbors by mget (or ids + folded has-steps query)
+//   - limit : stops pulling, so no more batches are requested (start : no page over limit is requested)
+//   - out, in, both emit each vertex once per step (as dedup())
+public final class ElasticTraversal {
+
+    private static final String[] EDGE_ENDS = new String[]{ "id", "sid", "tid" };
+
+    // FILTER : has-steps after limit (limited vertices are filtered, not folded into limited query)
+    private enum Kind { START, ADJACENT, FILTER }
+
+    private static final class Step {
+        final Kind kind;
+        final Direction direction;
+        final String[] labels;
+        final BoolQueryBuilder filters = QueryBuilders.boolQuery();
+        boolean filtered = false;
+        long limit = -1;
+
+        Step(Kind kind, Direction direction, String[] labels) {
+            this.kind = kind;
+            this.direction = direction;
+            this.labels = labels;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Batch {
+        List<ElasticVertex> apply(List<ElasticVertex> batch) throws Exception;
+    }
+
+    private final ElasticVertexService vertices;
+    private final ElasticEdgeService edges;
+    private final ElasticGraphProperties properties;
+    private final String datasource;
+    private final String[] ids;
+    private final List<Step> steps = new ArrayList<>();
+
+    ElasticTraversal(ElasticVertexService vertices, ElasticEdgeService edges, ElasticGraphProperties properties
+            , String datasource, String[] ids) {
+        this.vertices = vertices;
+        this.edges = edges;
+        this.properties = properties;
+        this.datasource = datasource;
+        this.ids = ids;
+        this.steps.add(new Step(Kind.START, null, null));
+    }
+
+    ///////////////////////////////////////////////////////////////
+    // has-steps
+
+    public ElasticTraversal hasLabel(String... labels) {
+        return fold(qb -> ElasticHelper.addQueryLabels(qb, labels));
+    }
+
+    public ElasticTraversal has(String key) {
+        return fold(qb -> ElasticHelper.addQueryKey(qb, key));
+    }
+
+    // value : full match with lowercase
+    public ElasticTraversal has(String key, String value) {
+        return fold(qb -> ElasticHelper.addQueryKeyValue(qb, key, value));
+    }
+
+    public ElasticTraversal hasNot(String key) {
+        return fold(qb -> ElasticHelper.addQueryKeyNot(qb, key));
+    }
+
+    public ElasticTraversal hasValue(String... values) {
+        return fold(qb -> ElasticHelper.addQueryValues(qb, values));
+    }
+
+    private ElasticTraversal fold(UnaryOperator<BoolQueryBuilder> condition) {
+        Step last = steps.get(steps.size() - 1);
+        if( last.limit >= 0 ){
+            last = new Step(Kind.FILTER, null, null);
+            steps.add(last);
+        }
+        condition.apply(last.filters);
+        last.filtered = true;
+        return this;
+    }
+
+    ///////////////////////////////////////////////////////////////
+    // adjacent steps (labels : edge labels)
+
+    public ElasticTraversal out(String... labels) {
+        return adjacent(Direction.OUT, labels);
+    }
+
+    public ElasticTraversal in(String... labels) {
+        return adjacent(Direction.IN, labels);
+    }
+
+    public ElasticTraversal both(String... labels) {
+        return adjacent(Direction.BOTH, labels);
+    }
+
+    private ElasticTraversal adjacent(Direction direction, String[] labels) {
+        steps.add(new Step(Kind.ADJACENT, direction, labels));
+        return this;
+    }
+
+    public ElasticTraversal limit(long n) {
+        Step last = steps.get(steps.size() - 1);
+        last.limit = last.limit < 0 ? Math.max(0, n) : Math.min(last.limit, Math.max(0, n));
+        return this;
+    }
+
+    ///////////////////////////////////////////////////////////////
+    // terminal : nothing is requested before first pull (first page is fetched by first hasNext)
+
+    public Iterator<ElasticVertex> iterator() {
+        int batchSize = Math.max(1, properties.getTraversal().getBatchSize());
+        Iterator<ElasticVertex> it = Collections.emptyIterator();
+        for( Step step : steps ){
+            if( step.kind == Kind.START ) it = start(step);
+            else if( step.kind == Kind.ADJACENT ){
+                Set<String> seen = new HashSet<>();
+                it = new BatchIterator(it, batchSize, batch -> adjacent(step, batch, seen));
+            }
+            else it = new BatchIterator(it, batchSize, batch -> findByIds(ids(batch), step));
+            if( step.limit >= 0 ) it = new LimitIterator(it, step.limit);
+        }
+        return it;
+    }
+
+    public Stream<ElasticVertex> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                iterator(), Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    public List<ElasticVertex> toList() {
+        return stream().collect(Collectors.toList());
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    private Iterator<ElasticVertex> start(Step step) {
+        BoolQueryBuilder queryBuilder = ElasticHelper.addQueryDs(QueryBuilders.boolQuery(), datasource);
+        if( ids != null && ids.length > 0 ) queryBuilder.filter(termsQuery("id", ids));
+        if( step.filtered ) queryBuilder.filter(step.filters);
+        return vertices.streamByQuery(queryBuilder, step.limit).iterator();
+    }
+
+    // neighbors of batch not emitted yet by this step
+    private List<ElasticVertex> adjacent(Step step, List<ElasticVertex> batch, Set<String> seen) throws Exception {
+        List<String> vids = ids(batch);
+        List<String> next = new ArrayList<>();
+        ElasticAdjacencyIndex adjacency = edges.adjacency(datasource);
+        if( adjacency != null ){
+            for( String vid : vids ){
+                for( String other : adjacency.neighborIds(vid, step.direction, step.labels) ){
+                    if( seen.add(other) ) next.add(other);
+                }
+            }
+        }
+        else{
+            Set<String> frontier = new HashSet<>(vids);
+            int size = properties.getTraversal().getMaxEdgesPerBatch();
+            for( ElasticEdge edge : edges.findByDatasourceAndFrontier(size, datasource, vids, step.direction, step.labels, EDGE_ENDS) ){
+                if( step.direction != Direction.IN && frontier.contains(edge.getSid()) && seen.add(edge.getTid()) )
+                    next.add(edge.getTid());
+                if( step.direction != Direction.OUT && frontier.contains(edge.getTid()) && seen.add(edge.getSid()) )
+                    next.add(edge.getSid());
+            }
+        }
+        if( next.isEmpty() ) return Collections.emptyList();
+        if( !step.filtered ) return vertices.findByIds(next.toArray(new String[0]));
+        return findByIds(next, step);
+    }
+
+    // ids + folded has-steps : one search per terms chunk, in order of ids
+    private List<ElasticVertex> findByIds(List<String> vids, Step step) throws Exception {
+        int chunk = Math.max(1, properties.getTraversal().getTermsChunk());
+        Map<String, ElasticVertex> found = new HashMap<>();
+        for( int from = 0; from < vids.size(); from += chunk ){
+            List<String> part = vids.subList(from, Math.min(from + chunk, vids.size()));
+            BoolQueryBuilder queryBuilder = ElasticHelper.addQueryDs(QueryBuilders.boolQuery(), datasource)
+                    .filter(termsQuery("id", part))
+                    .filter(step.filters);
+            for( ElasticVertex vertex : vertices.findByQuery(part.size(), queryBuilder) ){
+                found.put(vertex.getId(), vertex);
+            }
+        }
+        List<ElasticVertex> result = new ArrayList<>(found.size());
+        for( String vid : vids ){
+            ElasticVertex vertex = found.get(vid);
+            if( vertex != null ) result.add(vertex);
+        }
+        return result;
+    }
+
+    private static List<String> ids(List<ElasticVertex> batch) {
+        List<String> vids = new ArrayList<>(batch.size());
+        for( ElasticVertex vertex : batch ) vids.add(vertex.getId());
+        return vids;
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    private static final class BatchIterator implements Iterator<ElasticVertex> {
+        private final Iterator<ElasticVertex> upstream;
+        private final int batchSize;
+        private final Batch batch;
+        private Iterator<ElasticVertex> current = Collections.emptyIterator();
+
+        BatchIterator(Iterator<ElasticVertex> upstream, int batchSize, Batch batch) {
+            this.upstream = upstream;
+            this.batchSize = batchSize;
+            this.batch = batch;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while( !current.hasNext() ){
+                if( !upstream.hasNext() ) return false;
+                List<ElasticVertex> pulled = new ArrayList<>(batchSize);
+                while( pulled.size() < batchSize && upstream.hasNext() ) pulled.add(upstream.next());
+                try{
+                    current = batch.apply(pulled).iterator();
+                }
+                catch (Exception e){ throw new CompletionException(e); }
+            }
+            return true;
+        }
+
+        @Override
+        public ElasticVertex next() {
+            if( !hasNext() ) throw new NoSuchElementException("ElasticTraversal::next");
+            return current.next();
+        }
+    }
+
+    private static final class LimitIterator implements Iterator<ElasticVertex> {
+        private final Iterator<ElasticVertex> upstream;
+        private long remaining;
+
+        LimitIterator(Iterator<ElasticVertex> upstream, long limit) {
+            this.upstream = upstream;
+            this.remaining = limit;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0 && upstream.hasNext();
+        }
+
+        @Override
+        public ElasticVertex next() {
+            if( !hasNext() ) throw new NoSuchElementException("ElasticTraversal::next");
+            remaining -= 1;
+            return upstream.next();
+        }
+    }
+
+}
@@ -0,0 +1,35 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.model;
+
+import com.example.aws.elasticsearch.demo.basegraph.BaseGraphAPI;
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+// one query of batch (id : key of its result, target : v | e)
+//   count          : elements matching has-conditions (label, labels, key, keyNot, keys, values, kvPairs)
+//   hasContainers  : elements matching has-conditions (up to size)
+//   labels         : label counts of datasource
+//   keys           : property key counts of label
+//   edges          : edges of vertex vid by direction (labels : edge labels)
+//   neighbors      : vertices adjacent to vid by direction (labels : vertex labels)
+@Data
+public class ElasticBatchQuery {
+
+    private String id;
+    private String type;
+    private String target = "v";
+    private Integer size;
+
+    private String label;
+    private List<String> labels;
+    private String key;
+    private String keyNot;
+    private List<String> keys;
+    private List<String> values;
+    private Map<String, String> kvPairs;
+
+    private String vid;
+    private BaseGraphAPI.Direction direction = BaseGraphAPI.Direction.BOTH;
+
+}
@@ -0,0 +1,21 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+// result of one batch query : count, counts (labels, keys) or elements, else error of this query only
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ElasticBatchResult {
+
+    private String id;
+    private String type;
+    private Long count;
+    private Map<String, Long> counts;
+    private List<ElasticElement> elements;
+    private String error;
+
+}
@@ -0,0 +1,16 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+
+// degree of vertex by edges of datasource (hubs : count of ranked direction only)
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ElasticDegree {
+
+    private String id;
+    private Long in;                    // edges with tid = id
+    private Long out;                   // edges with sid = id
+    private Long total;                 // edges with sid = id or tid = id (self loop : once, as hubs and histogram)
+
+}
@@ -0,0 +1,20 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.model;
+
+import lombok.Data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// vertices by degree : power of two ranges ("1", "2-3", "4-7", ..), "0" for vertices without edges
+@Data
+public class ElasticDegreeHistogram {
+
+    private String datasource;
+    private String direction;
+    private long vertices;              // vertices with edges
+    private long max;
+    private double mean;                // over vertices with edges
+    private boolean truncated;          // stopped by maxVertices (counts are partial)
+    private Map<String, Long> buckets = new LinkedHashMap<>();
+
+}
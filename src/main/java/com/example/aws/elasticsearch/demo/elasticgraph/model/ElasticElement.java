@@ -2,6 +2,7 @@ package com.example.aws.elasticsearch.demo.elasticgraph.model;
 
 import com.example.aws.elasticsearch.demo.basegraph.model.BaseElement;
 import com.example.aws.elasticsearch.demo.basegraph.model.BaseProperty;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 
 import java.util.*;
@@ -13,7 +14,24 @@ public class ElasticElement implements BaseElement {
     protected String id;
     protected String label;
     protected String datasource;
-    protected List<ElasticProperty> properties;
+    protected List<ElasticProperty> properties = new ElasticPropertyList();     // missing if not projected
+
+    // metadata for optimistic concurrency (not stored in _source)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    protected Long seqNo;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    protected Long primaryTerm;
+
+    // always indexed by key (deserialized or given lists are wrapped)
+    public void setProperties(List<ElasticProperty> properties){
+        this.properties = properties instanceof ElasticPropertyList ? properties
+                : properties == null ? new ElasticPropertyList() : new ElasticPropertyList(properties);
+    }
+
+    private ElasticPropertyList indexed(){
+        if( !(properties instanceof ElasticPropertyList) ) setProperties(properties);
+        return (ElasticPropertyList) properties;
+    }
 
     @Override
     public List<String> keys(){
@@ -40,20 +58,19 @@ public class ElasticElement implements BaseElement {
 
     @Override
     public void properties(Collection<? extends BaseProperty> properties){
-        this.properties = properties.stream().map(r->(ElasticProperty)r).collect(Collectors.toList());
+        setProperties(properties.stream().map(r->(ElasticProperty)r).collect(Collectors.toList()));
     }
 
+    // without list of keys (hot path of filters)
     @Override
     public boolean exists(String key){
-        return keys().contains(key);
+        ElasticProperty property = indexed().find(key);
+        return property != null && property.isPresent();
     }
 
     @Override
     public BaseProperty getProperty(String key){
-        for( ElasticProperty property : properties ){
-            if( property.getKey().equals(key) ) return property;
-        }
-        return null;
+        return indexed().find(key);
     }
 
     @Override
@@ -65,19 +82,20 @@ public class ElasticElement implements BaseElement {
     @Override
     public void setProperty(BaseProperty property){
         if( exists(property.key()) ) removeProperty(property.key());
-        properties.add((ElasticProperty) property);
+        indexed().add((ElasticProperty) property);
     }
 
     @Override
     public BaseProperty removeProperty(String key){
-        Iterator<ElasticProperty> iter = properties.iterator();
-        while(iter.hasNext()){
-            BaseProperty property = iter.next();
-            if( property.key().equals(key) ){
-                iter.remove();
-                return property;
+        ElasticPropertyList list = indexed();
+        ElasticProperty property = list.find(key);
+        if( property == null ) return null;
+        for( int i = 0; i < list.size(); i++ ){
+            if( list.get(i) == property ){
+                list.remove(i);
+                break;
             }
         }
-        return null;
+        return property;
     }
 }
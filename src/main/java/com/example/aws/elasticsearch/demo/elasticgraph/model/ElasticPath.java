@@ -0,0 +1,20 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.model;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// result of shortest path : vertices from source to target, edges between them (empty if not connected)
+@Data
+public class ElasticPath {
+
+    private String datasource;
+    private boolean found;
+    private int length = -1;            // edges of path (-1 if not found within maxDepth)
+    private int rounds;                 // frontier expansions (one batched edge lookup each)
+    private boolean truncated;          // some frontier was cut by maxVertices or maxEdgesPerRound
+    private List<ElasticVertex> vertices = new ArrayList<>();
+    private List<ElasticEdge> edges = new ArrayList<>();
+
+}
@@ -1,18 +1,38 @@
 package com.example.aws.elasticsearch.demo.elasticgraph.model;
 
 import com.example.aws.elasticsearch.demo.basegraph.model.BaseProperty;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.aws.elasticsearch.demo.elasticgraph.util.ElasticValueCodecs;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 
 import java.util.NoSuchElementException;
 
 @Data
 public final class ElasticProperty implements BaseProperty {
 
+    private static final Object UNDECODED = new Object();
+
     private String key;
     private String type;
     private String value;
 
+    // typed value : decoded once on first read, reset by setType or setValue (not serialized)
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) @ToString.Exclude
+    private transient Object decoded = UNDECODED;
+
+    public void setType(String type){
+        this.type = type;
+        this.decoded = UNDECODED;
+    }
+
+    public void setValue(String value){
+        this.value = value;
+        this.decoded = UNDECODED;
+    }
+
     @Override
     public String key(){ return key; }
 
@@ -21,19 +41,25 @@ public final class ElasticProperty implements BaseProperty {
 
     @Override
     public Object value() throws NoSuchElementException {
-        ObjectMapper mapper = new ObjectMapper();
-        if( value == null || value.length() == 0 || value.isEmpty() ){
+        if( value == null || value.isEmpty() ){
             throw new NoSuchElementException("ElasticProperty::value");
         }
+        return decoded();
+    }
 
-        Object translated = (Object)value;
-        try {
-            Class<?> clazz = Class.forName(type);
-            translated = mapper.convertValue(value, clazz);
-        }
-        catch (Exception e){ return null; }
+    // same as BaseProperty::isPresent without exception for empty value
+    @Override
+    public boolean isPresent(){
+        return value != null && !value.isEmpty() && decoded() != null;
+    }
 
-        return translated;
+    private Object decoded(){
+        Object result = decoded;
+        if( result == UNDECODED ){
+            result = ElasticValueCodecs.decode(type, value);
+            decoded = result;
+        }
+        return result;
     }
 
 }
@@ -0,0 +1,68 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.model;
+
+import java.util.*;
+
+// properties of element : insertion order for _source, key index for lookups
+//   - index is built on first lookup and dropped by any structural change (add, remove, set)
+//   - first property wins for duplicated keys (as linear scan did)
+//   - keys of properties are not changed in place (index would go stale)
+public final class ElasticPropertyList extends AbstractList<ElasticProperty> implements RandomAccess {
+
+    private final ArrayList<ElasticProperty> items;
+    private transient volatile HashMap<String, ElasticProperty> index;      // published whole (lookups from other threads)
+
+    public ElasticPropertyList() {
+        this.items = new ArrayList<>();
+    }
+
+    public ElasticPropertyList(Collection<? extends ElasticProperty> properties) {
+        this.items = new ArrayList<>(properties);
+    }
+
+    // null if not exists
+    public ElasticProperty find(String key) {
+        if( key == null ) return null;
+        HashMap<String, ElasticProperty> map = index;
+        if( map == null ){
+            map = new HashMap<>(Math.max(16, items.size() * 4 / 3 + 1));
+            for( ElasticProperty p : items ){
+                if( p.getKey() != null ) map.putIfAbsent(p.getKey(), p);
+            }
+            index = map;
+        }
+        return map.get(key);
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    @Override
+    public ElasticProperty get(int i) {
+        return items.get(i);
+    }
+
+    @Override
+    public int size() {
+        return items.size();
+    }
+
+    @Override
+    public ElasticProperty set(int i, ElasticProperty property) {
+        index = null;
+        return items.set(i, property);
+    }
+
+    @Override
+    public void add(int i, ElasticProperty property) {
+        modCount += 1;
+        index = null;
+        items.add(i, property);
+    }
+
+    @Override
+    public ElasticProperty remove(int i) {
+        modCount += 1;
+        index = null;
+        return items.remove(i);
+    }
+
+}
@@ -0,0 +1,18 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.model;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// result of k-hop expansion : vertices in visit order (seeds first), edges between them
+@Data
+public class ElasticSubgraph {
+
+    private String datasource;
+    private int depth;                  // hops expanded (less than requested if frontier ran out)
+    private boolean truncated;          // stopped by maxVertices or maxEdges
+    private List<ElasticVertex> vertices = new ArrayList<>();
+    private List<ElasticEdge> edges = new ArrayList<>();
+
+}
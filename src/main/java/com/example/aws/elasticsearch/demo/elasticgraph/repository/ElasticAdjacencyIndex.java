@@ -0,0 +1,298 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.repository;
+
+import com.example.aws.elasticsearch.demo.basegraph.BaseGraphAPI.Direction;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticEdge;
+import com.example.aws.elasticsearch.demo.elasticgraph.util.IdOrdinalMap;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+// adjacency of one datasource in memory : (edge id, sid, tid, label) only, properties stay in elasticsearch
+//   - base : CSR (compressed sparse row) by vertex ordinal, out-edges grouped by sid and in-edges by tid
+//   - overlay : edges written after load (base copies are marked removed), merged into base when large
+// https://en.wikipedia.org/wiki/Sparse_matrix#Compressed_sparse_row_(CSR,_CRS_or_Yale_format)
+public final class ElasticAdjacencyIndex {
+
+    static final String[] FIELDS = new String[]{ "id", "sid", "tid", "label" };
+    private static final int COMPACT_MIN = 10000;       // overlay size before merge (or 10% of base)
+
+    // label : null as "" (same label in base and overlay, before and after compaction)
+    private static final class Ref {
+        final String id, sid, tid, label;
+        Ref(String id, String sid, String tid, String label) {
+            this.id = id; this.sid = sid; this.tid = tid; this.label = label == null ? "" : label;
+        }
+    }
+
+    private static final class Base {
+        final IdOrdinalMap vertexIds;
+        final IdOrdinalMap edgeIds;
+        final IdOrdinalMap labelIds;
+        final int[] edgeSid, edgeTid, edgeLabel;
+        final int[] outOffsets, outEdges;       // edges of vertex v : outEdges[outOffsets[v]..outOffsets[v+1])
+        final int[] inOffsets, inEdges;
+        final BitSet removed = new BitSet();
+
+        Base(List<Ref> refs) {
+            int n = refs.size();
+            vertexIds = new IdOrdinalMap(n);
+            edgeIds = new IdOrdinalMap(n);
+            labelIds = new IdOrdinalMap();
+            edgeSid = new int[n];
+            edgeTid = new int[n];
+            edgeLabel = new int[n];
+            for( Ref r : refs ){
+                int e = edgeIds.add(r.id);
+                edgeSid[e] = vertexIds.add(r.sid);
+                edgeTid[e] = vertexIds.add(r.tid);
+                edgeLabel[e] = labelIds.add(r.label);
+            }
+            int edges = edgeIds.size();       // duplicated ids are counted once
+            outOffsets = new int[vertexIds.size() + 1];
+            inOffsets = new int[vertexIds.size() + 1];
+            outEdges = group(edgeSid, edges, outOffsets);
+            inEdges = group(edgeTid, edges, inOffsets);
+        }
+
+        // counting sort of edge ordinals by vertex ordinal
+        private static int[] group(int[] vertexOf, int edges, int[] offsets) {
+            for( int e = 0; e < edges; e += 1 ) offsets[vertexOf[e] + 1] += 1;
+            for( int v = 1; v < offsets.length; v += 1 ) offsets[v] += offsets[v - 1];
+            int[] cursor = Arrays.copyOf(offsets, offsets.length - 1);
+            int[] grouped = new int[edges];
+            for( int e = 0; e < edges; e += 1 ) grouped[cursor[vertexOf[e]]++] = e;
+            return grouped;
+        }
+
+        int size() { return edgeIds.size(); }
+
+        long bytes() {
+            return vertexIds.bytes() + edgeIds.bytes() + labelIds.bytes()
+                    + 4L * (edgeSid.length * 3 + outOffsets.length * 2 + outEdges.length * 2) + removed.size() / 8;
+        }
+    }
+
+    private final String datasource;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Base base = new Base(Collections.emptyList());
+    private final Map<String, Ref> added = new HashMap<>();             // overlay : edge id => ref
+    private final Map<String, List<Ref>> addedByVertex = new HashMap<>();
+    private final Set<String> removedWhileLoading = new HashSet<>();
+    private int loading = 0;
+    private boolean ready = false;
+    private long loadedAt = 0L;
+    private long loadMs = 0L;
+
+    ElasticAdjacencyIndex(String datasource) {
+        this.datasource = datasource;
+    }
+
+    public String getDatasource() { return datasource; }
+
+    // until first load is done, callers go to elasticsearch
+    public boolean isReady() {
+        lock.readLock().lock();
+        try{ return ready; }
+        finally { lock.readLock().unlock(); }
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    // base is built outside of lock, writes while loading are kept in overlay (they win over loaded copies)
+    void load(Iterator<ElasticEdge> edges) {
+        long started = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try{ loading += 1; }
+        finally { lock.writeLock().unlock(); }
+
+        Base loaded = null;
+        try{
+            List<Ref> refs = new ArrayList<>();
+            while( edges.hasNext() ){
+                ElasticEdge edge = edges.next();
+                if( edge.getId() == null || edge.getSid() == null || edge.getTid() == null ) continue;
+                refs.add(new Ref(edge.getId(), edge.getSid(), edge.getTid(), edge.getLabel()));
+            }
+            loaded = new Base(refs);
+        }
+        finally {
+            lock.writeLock().lock();
+            try{
+                if( loaded != null ){
+                    for( String id : added.keySet() ) markRemoved(loaded, id);
+                    for( String id : removedWhileLoading ) markRemoved(loaded, id);
+                    base = loaded;
+                    ready = true;
+                    loadedAt = System.currentTimeMillis();
+                    loadMs = loadedAt - started;
+                }
+                loading -= 1;
+                if( loading == 0 ) removedWhileLoading.clear();
+            }
+            finally { lock.writeLock().unlock(); }
+        }
+    }
+
+    // partial update without both ends (ex: properties only) : edge is unchanged
+    void upsert(ElasticEdge edge) {
+        if( edge.getId() == null || edge.getSid() == null || edge.getTid() == null ) return;
+        lock.writeLock().lock();
+        try{
+            removeLocked(edge.getId());
+            Ref ref = new Ref(edge.getId(), edge.getSid(), edge.getTid(), edge.getLabel());
+            added.put(ref.id, ref);
+            addedByVertex.computeIfAbsent(ref.sid, k -> new ArrayList<>()).add(ref);
+            if( !ref.sid.equals(ref.tid) )
+                addedByVertex.computeIfAbsent(ref.tid, k -> new ArrayList<>()).add(ref);
+            compactIfNeeded();
+        }
+        finally { lock.writeLock().unlock(); }
+    }
+
+    void remove(String edgeId) {
+        lock.writeLock().lock();
+        try{ removeLocked(edgeId); }
+        finally { lock.writeLock().unlock(); }
+    }
+
+    private void removeLocked(String edgeId) {
+        if( loading > 0 ) removedWhileLoading.add(edgeId);
+        markRemoved(base, edgeId);
+        Ref ref = added.remove(edgeId);
+        if( ref != null ){
+            addedByVertex.getOrDefault(ref.sid, Collections.emptyList()).remove(ref);
+            addedByVertex.getOrDefault(ref.tid, Collections.emptyList()).remove(ref);
+        }
+    }
+
+    private static void markRemoved(Base base, String edgeId) {
+        int e = base.edgeIds.get(edgeId);
+        if( e >= 0 ) base.removed.set(e);
+    }
+
+    // merge overlay into new base : memory only, no elasticsearch round trip
+    private void compactIfNeeded() {
+        if( loading > 0 || added.size() + base.removed.cardinality() < Math.max(COMPACT_MIN, base.size() / 10) ) return;
+        List<Ref> refs = new ArrayList<>(base.size() + added.size());
+        for( int e = 0; e < base.size(); e += 1 ){
+            if( base.removed.get(e) ) continue;
+            refs.add(new Ref(base.edgeIds.id(e), base.vertexIds.id(base.edgeSid[e])
+                    , base.vertexIds.id(base.edgeTid[e]), base.labelIds.id(base.edgeLabel[e])));
+        }
+        refs.addAll(added.values());
+        base = new Base(refs);
+        added.clear();
+        addedByVertex.clear();
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    // edge ids of vertex by direction (labels : edge labels, empty = all)
+    public List<String> edgeIds(String vid, Direction direction, String[] labels) {
+        return edgeIds(vid, direction, labels, Integer.MAX_VALUE);
+    }
+
+    // size : first edges only (as size of search on sid/tid)
+    public List<String> edgeIds(String vid, Direction direction, String[] labels, int size) {
+        List<String> ids = new ArrayList<>();
+        forEachEdge(vid, direction, labels, size, (edgeId, otherVid) -> ids.add(edgeId));
+        return ids;
+    }
+
+    // vertex ids at other end of edges (distinct)
+    public Set<String> neighborIds(String vid, Direction direction, String[] labels) {
+        return neighborIds(vid, direction, labels, Integer.MAX_VALUE);
+    }
+
+    // size : ends of first edges only
+    public Set<String> neighborIds(String vid, Direction direction, String[] labels, int size) {
+        Set<String> ids = new LinkedHashSet<>();
+        forEachEdge(vid, direction, labels, size, (edgeId, otherVid) -> ids.add(otherVid));
+        return ids;
+    }
+
+    // (edge id, vertex id at other end) of edges of vertex : ends without hydrating edges (ex: shortest path)
+    //   **NOTE: consumer runs under read lock (no writes to this index from it)
+    public void forEachEdge(String vid, Direction direction, String[] labels, BiConsumer<String, String> consumer) {
+        forEachEdge(vid, direction, labels, Integer.MAX_VALUE, consumer);
+    }
+
+    private void forEachEdge(String vid, Direction direction, String[] labels, int size, BiConsumer<String, String> consumer) {
+        int[] remaining = new int[]{ size };
+        BiConsumer<String, String> limited = (edgeId, otherVid) -> {
+            remaining[0] -= 1;
+            consumer.accept(edgeId, otherVid);
+        };
+        lock.readLock().lock();
+        try{
+            Base b = base;
+            BitSet labelFilter = null;
+            if( labels != null && labels.length > 0 ){
+                labelFilter = new BitSet();
+                for( String label : labels ){
+                    int l = b.labelIds.get(label);
+                    if( l >= 0 ) labelFilter.set(l);
+                }
+            }
+
+            int v = b.vertexIds.get(vid);
+            if( v >= 0 ){
+                boolean out = direction != Direction.IN, in = direction != Direction.OUT;
+                if( out ){
+                    for( int i = b.outOffsets[v]; i < b.outOffsets[v + 1] && remaining[0] > 0; i += 1 ){
+                        int e = b.outEdges[i];
+                        if( b.removed.get(e) || (labelFilter != null && !labelFilter.get(b.edgeLabel[e])) ) continue;
+                        limited.accept(b.edgeIds.id(e), b.vertexIds.id(b.edgeTid[e]));
+                    }
+                }
+                if( in ){
+                    for( int i = b.inOffsets[v]; i < b.inOffsets[v + 1] && remaining[0] > 0; i += 1 ){
+                        int e = b.inEdges[i];
+                        if( b.removed.get(e) || (labelFilter != null && !labelFilter.get(b.edgeLabel[e])) ) continue;
+                        if( out && b.edgeSid[e] == v ) continue;      // self loop : already visited
+                        limited.accept(b.edgeIds.id(e), b.vertexIds.id(b.edgeSid[e]));
+                    }
+                }
+            }
+
+            List<String> filter = labels == null || labels.length == 0 ? null : Arrays.asList(labels);
+            for( Ref r : addedByVertex.getOrDefault(vid, Collections.emptyList()) ){
+                if( remaining[0] <= 0 ) break;
+                if( filter != null && !filter.contains(r.label) ) continue;
+                boolean isOut = r.sid.equals(vid), isIn = r.tid.equals(vid);
+                if( direction == Direction.OUT && !isOut ) continue;
+                if( direction == Direction.IN && !isIn ) continue;
+                limited.accept(r.id, isOut ? r.tid : r.sid);
+            }
+        }
+        finally { lock.readLock().unlock(); }
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    public String stats() {
+        lock.readLock().lock();
+        try{
+            Gson gson = new Gson();
+            JsonObject object = new JsonObject();
+            object.addProperty("datasource", datasource);
+            object.addProperty("ready", ready);
+            object.addProperty("loading", loading > 0);
+            object.addProperty("vertices", base.vertexIds.size());
+            object.addProperty("edges", base.size() - base.removed.cardinality() + added.size());
+            object.addProperty("labels", base.labelIds.size());
+            object.addProperty("overlayAdded", added.size());
+            object.addProperty("overlayRemoved", base.removed.cardinality());
+            object.addProperty("bytes", base.bytes());
+            object.addProperty("loadedAt", loadedAt);
+            object.addProperty("loadMs", loadMs);
+            return gson.toJson(object);
+        }
+        finally { lock.readLock().unlock(); }
+    }
+
+}
@@ -0,0 +1,263 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.repository;
+
+import com.example.aws.elasticsearch.demo.basegraph.BaseGraphAPI;
+import com.example.aws.elasticsearch.demo.config.ElasticGraphProperties;
+import com.example.aws.elasticsearch.demo.config.ElasticMetrics;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticBatchQuery;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticBatchResult;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticEdge;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticElement;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticVertex;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.elasticsearch.index.query.QueryBuilders.termsQuery;
+
+// independent queries of one view in few round trips
+//   - count, hasContainers, edges, neighbors (edges part) : one _msearch for all
+//   - labels, keys : schema cache (aggregations only on miss, in parallel with _msearch)
+//   - neighbors : adjacency if loaded, vertices of all neighbors queries by one mget
+//   ==> failure of one query (bad descriptor, search error) is reported by its result only
+public final class ElasticBatchSearch {
+
+    private static final String[] EDGE_ENDS = new String[]{ "id", "sid", "tid" };
+
+    // compiled query : search item (index < 0 if none) and neighbor ids
+    private static final class Pending {
+        final ElasticBatchQuery query;
+        final ElasticBatchResult result;
+        int item = -1;
+        CompletableFuture<Map<String, Long>> counts;
+        Collection<String> neighborIds;
+
+        Pending(ElasticBatchQuery query, ElasticBatchResult result) {
+            this.query = query;
+            this.result = result;
+        }
+    }
+
+    private final ElasticGraphProperties properties;
+    private final ElasticVertexService vertices;
+    private final ElasticEdgeService edges;
+    private final ElasticSchemaCache schema;
+    private final ElasticSearchReader reader;
+
+    public ElasticBatchSearch(
+            RestHighLevelClient client,
+            ObjectMapper mapper,
+            ElasticGraphProperties properties,
+            ElasticMetrics metrics,
+            ElasticVertexService vertices,
+            ElasticEdgeService edges,
+            ElasticSchemaCache schema
+    ) {
+        this.properties = properties;
+        this.vertices = vertices;
+        this.edges = edges;
+        this.schema = schema;
+        this.reader = new ElasticSearchReader(client, mapper, metrics);
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    // results keyed by query id (index in list if missing), in order of queries
+    public Map<String, ElasticBatchResult> search(String datasource, List<ElasticBatchQuery> queries, int defaultSize) {
+        int maxQueries = properties.getBatch().getMaxQueries();
+        List<Pending> pendings = new ArrayList<>();
+        List<String> indices = new ArrayList<>();
+        List<SearchSourceBuilder> sources = new ArrayList<>();
+        List<Class<?>> classes = new ArrayList<>();
+
+        for( ElasticBatchQuery query : queries ){
+            ElasticBatchResult result = new ElasticBatchResult();
+            result.setId(query.getId() != null ? query.getId() : String.valueOf(pendings.size()));
+            result.setType(query.getType());
+            Pending pending = new Pending(query, result);
+            pendings.add(pending);
+            if( pendings.size() > maxQueries ){
+                result.setError("too many queries : max "+maxQueries);
+                continue;
+            }
+            try{
+                compile(datasource, pending, defaultSize, indices, sources, classes);
+            }
+            catch (Exception e){ result.setError(message(e)); }
+        }
+
+        // searches : one round trip (whole failure is failure of each search)
+        List<ElasticSearchReader.Hits<?>> items = Collections.emptyList();
+        String failure = null;
+        if( !sources.isEmpty() ){
+            try{
+                items = reader.msearch("batch", indices, sources, classes);
+            }
+            catch (Exception e){ failure = message(e); }
+        }
+
+        Set<String> neighborIds = new LinkedHashSet<>();
+        for( Pending pending : pendings ){
+            if( pending.item >= 0 ){
+                ElasticSearchReader.Hits<?> item = pending.item < items.size() ? items.get(pending.item) : null;
+                if( item == null || item.error != null ){
+                    pending.result.setError(item == null ? (failure != null ? failure : "no response") : item.error);
+                    continue;
+                }
+                answer(pending, item);
+            }
+            if( pending.neighborIds != null ) neighborIds.addAll(pending.neighborIds);
+        }
+
+        // neighbors : one mget for all (labels : vertex labels)
+        if( !neighborIds.isEmpty() ){
+            try{
+                Map<String, ElasticVertex> found = new HashMap<>();
+                for( ElasticVertex vertex : vertices.findByIds(neighborIds.toArray(new String[0])) ){
+                    found.put(vertex.getId(), vertex);
+                }
+                for( Pending pending : pendings ) hydrate(pending, found, defaultSize);
+            }
+            catch (Exception e){
+                for( Pending pending : pendings ){
+                    if( pending.neighborIds != null ) pending.result.setError(message(e));
+                }
+            }
+        }
+        else{
+            for( Pending pending : pendings ) hydrate(pending, Collections.emptyMap(), defaultSize);
+        }
+
+        // labels, keys : cached aggregations
+        for( Pending pending : pendings ){
+            if( pending.counts == null ) continue;
+            try{
+                pending.result.setCounts(pending.counts.get());
+            }
+            catch (ExecutionException e){ pending.result.setError(message(e.getCause())); }
+            catch (Exception e){ pending.result.setError(message(e)); }
+        }
+
+        Map<String, ElasticBatchResult> results = new LinkedHashMap<>();
+        for( Pending pending : pendings ) results.put(pending.result.getId(), pending.result);
+        return results;
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    private void compile(String datasource, Pending pending, int defaultSize
+            , List<String> indices, List<SearchSourceBuilder> sources, List<Class<?>> classes) {
+        ElasticBatchQuery query = pending.query;
+        if( query.getType() == null ) throw new IllegalArgumentException("type is required");
+        boolean edge = "e".equalsIgnoreCase(query.getTarget());
+        String index = edge ? ElasticGraphService.INDEX_EDGE : ElasticGraphService.INDEX_VERTEX;
+        Class<?> tClass = edge ? ElasticEdge.class : ElasticVertex.class;
+        int size = query.getSize() != null ? Math.max(0, query.getSize()) : defaultSize;
+        SearchSourceBuilder source;
+
+        switch( query.getType() ){
+            case "count":
+                source = new SearchSourceBuilder().query(hasContainersQuery(datasource, query)).size(0).trackTotalHits(true);
+                break;
+            case "hasContainers":
+                source = new SearchSourceBuilder().query(hasContainersQuery(datasource, query)).size(size);
+                break;
+            case "labels":
+                pending.counts = schema.getAsync(index, datasource, null);
+                return;
+            case "keys":
+                if( query.getLabel() == null ) throw new IllegalArgumentException("label is required");
+                pending.counts = schema.getAsync(index, datasource, query.getLabel());
+                return;
+            case "edges":
+                if( query.getVid() == null ) throw new IllegalArgumentException("vid is required");
+                source = new SearchSourceBuilder().query(edgesQuery(datasource, query, true)).size(size);
+                index = ElasticGraphService.INDEX_EDGE;
+                tClass = ElasticEdge.class;
+                break;
+            case "neighbors":
+                if( query.getVid() == null ) throw new IllegalArgumentException("vid is required");
+                ElasticAdjacencyIndex adjacency = edges.adjacency(datasource);
+                if( adjacency != null ){
+                    pending.neighborIds = adjacency.neighborIds(query.getVid(), query.getDirection(), new String[0]
+                            , properties.getTraversal().getMaxEdgesPerBatch());
+                    return;
+                }
+                // all edges of vertex : vertex labels are filtered after mget (as findNeighborVertices)
+                source = new SearchSourceBuilder().query(edgesQuery(datasource, query, false))
+                        .size(properties.getTraversal().getMaxEdgesPerBatch()).fetchSource(EDGE_ENDS, null);
+                index = ElasticGraphService.INDEX_EDGE;
+                tClass = ElasticEdge.class;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown type : "+query.getType());
+        }
+        pending.item = sources.size();
+        indices.add(index);
+        sources.add(source);
+        classes.add(tClass);
+    }
+
+    private static BoolQueryBuilder hasContainersQuery(String datasource, ElasticBatchQuery query) {
+        return ElasticElementService.hasContainersQuery(datasource
+                , query.getLabel(), array(query.getLabels())
+                , query.getKey(), query.getKeyNot(), array(query.getKeys())
+                , array(query.getValues()), query.getKvPairs());
+    }
+
+    private static BoolQueryBuilder edgesQuery(String datasource, ElasticBatchQuery query, boolean withLabels) {
+        BaseGraphAPI.Direction direction = query.getDirection() != null ? query.getDirection() : BaseGraphAPI.Direction.BOTH;
+        BoolQueryBuilder queryBuilder = ElasticEdgeService.directionQuery(datasource, query.getVid(), direction);
+        if( withLabels && query.getLabels() != null && !query.getLabels().isEmpty() )
+            queryBuilder = queryBuilder.filter(termsQuery("label", query.getLabels()));
+        return queryBuilder;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void answer(Pending pending, ElasticSearchReader.Hits<?> item) {
+        switch( pending.query.getType() ){
+            case "count":
+                pending.result.setCount(item.total);
+                break;
+            case "neighbors":
+                String vid = pending.query.getVid();
+                Set<String> ids = new LinkedHashSet<>();
+                for( Object document : item.documents ){
+                    ElasticEdge edge = (ElasticEdge) document;
+                    ids.add(vid.equals(edge.getSid()) ? edge.getTid() : edge.getSid());
+                }
+                pending.neighborIds = ids;
+                break;
+            default:
+                pending.result.setElements((List<ElasticElement>) item.documents);
+        }
+    }
+
+    private static void hydrate(Pending pending, Map<String, ElasticVertex> found, int defaultSize) {
+        if( pending.neighborIds == null || pending.result.getError() != null ) return;
+        List<String> labels = pending.query.getLabels();
+        int size = pending.query.getSize() != null ? Math.max(0, pending.query.getSize()) : defaultSize;
+        List<ElasticElement> elements = new ArrayList<>();
+        for( String id : pending.neighborIds ){
+            if( elements.size() >= size ) break;
+            ElasticVertex vertex = found.get(id);
+            if( vertex == null ) continue;
+            if( labels != null && !labels.isEmpty() && !labels.contains(vertex.getLabel()) ) continue;
+            elements.add(vertex);
+        }
+        pending.result.setElements(elements);
+    }
+
+    private static String[] array(List<String> list) {
+        return list == null ? null : list.toArray(new String[0]);
+    }
+
+    private static String message(Throwable e) {
+        return e.getClass().getSimpleName()+": "+e.getMessage();
+    }
+
+}
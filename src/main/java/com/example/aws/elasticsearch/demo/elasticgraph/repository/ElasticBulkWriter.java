@@ -0,0 +1,141 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.repository;
+
+import com.example.aws.elasticsearch.demo.config.ElasticGraphProperties;
+import com.example.aws.elasticsearch.demo.config.ElasticMetrics;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticElement;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// BulkProcessor wrapper : documents are upserted (doc_as_upsert) like saveVertex/saveEdge
+// https://www.elastic.co/guide/en/elasticsearch/client/java-rest/7.3/java-rest-high-document-bulk.html
+@Slf4j
+public final class ElasticBulkWriter {
+
+    // called once per document when its bulk item has been answered
+    public interface ItemListener {
+        void onItem(String id, boolean success, String failure);
+    }
+
+    private final ObjectMapper mapper;
+    private final ElasticElementCache cache;
+    private final ElasticGraphProperties.Bulk options;
+    private final ItemListener itemListener;
+    private final BulkProcessor processor;
+
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    ElasticBulkWriter(
+            RestHighLevelClient client,
+            ObjectMapper mapper,
+            ElasticMetrics metrics,
+            ElasticElementCache cache,
+            ElasticGraphProperties.Bulk options,
+            ItemListener itemListener
+    ) {
+        this.mapper = mapper;
+        this.cache = cache;
+        this.options = options;
+        this.itemListener = itemListener;
+
+        // rejected items (EsRejectedExecutionException) are retried by backoff policy
+        this.processor = BulkProcessor.builder(
+                    (request, bulkListener) -> metrics.recordAsync("bulk", indicesOf(request)
+                            , (requestOptions, l) -> client.bulkAsync(request, requestOptions, l), bulkListener)
+                    , new Listener())
+                .setBulkActions(options.getActions())
+                .setBulkSize(new ByteSizeValue(options.getSizeMb(), ByteSizeUnit.MB))
+                .setFlushInterval(TimeValue.timeValueMillis(options.getFlushIntervalMs()))
+                .setConcurrentRequests(options.getConcurrentRequests())
+                .setBackoffPolicy(BackoffPolicy.exponentialBackoff(
+                        TimeValue.timeValueMillis(options.getBackoffDelayMs()), options.getBackoffRetries()))
+                .build();
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    // return id of document (random id if not exists)
+    // **NOTE: blocks when concurrentRequests bulks are already in flight
+    public String add(String index, ElasticElement document) {
+        if( document.getId() == null || document.getId().isEmpty() ){
+            UUID uuid = UUID.randomUUID();      // random document_id
+            document.setId(uuid.toString());
+        }
+
+        UpdateRequest updateRequest = new UpdateRequest(index, document.getId())
+                .doc( ElasticElementService.toSource(mapper, document) )
+                .docAsUpsert(true);
+        processor.add(updateRequest);
+        return document.getId();
+    }
+
+    public void flush() {
+        processor.flush();
+    }
+
+    // flush and wait for all pending bulks
+    public boolean close() throws InterruptedException {
+        return processor.awaitClose(options.getAwaitCloseSeconds(), TimeUnit.SECONDS);
+    }
+
+    public long succeeded() { return succeeded.get(); }
+    public long failed() { return failed.get(); }
+
+    // metrics tag : indices of bulk (ex. "elasticedge,elasticvertex")
+    private static String indicesOf(BulkRequest request) {
+        TreeSet<String> indices = new TreeSet<>();
+        for( DocWriteRequest<?> item : request.requests() ) indices.add(item.index());
+        return String.join(",", indices);
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    private final class Listener implements BulkProcessor.Listener {
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            for( BulkItemResponse item : response.getItems() ){
+                cache.invalidate(item.getIndex(), item.getId());
+                if( item.isFailed() ){
+                    failed.incrementAndGet();
+                    itemListener.onItem(item.getId(), false, item.getFailureMessage());
+                }
+                else{
+                    succeeded.incrementAndGet();
+                    itemListener.onItem(item.getId(), true, null);
+                }
+            }
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            log.warn("bulk[{}] failed : {} actions => {}", executionId, request.numberOfActions(), failure.getMessage());
+            for( DocWriteRequest<?> item : request.requests() ){
+                cache.invalidate(item.index(), item.id());
+                failed.incrementAndGet();
+                itemListener.onItem(item.id(), false, failure.getMessage());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,314 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.repository;
+
+import com.example.aws.elasticsearch.demo.basegraph.BaseGraphAPI.Direction;
+import com.example.aws.elasticsearch.demo.config.ElasticGraphProperties;
+import com.example.aws.elasticsearch.demo.config.ElasticMetrics;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticDegree;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticDegreeHistogram;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.TermsValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.terms.IncludeExclude;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.elasticsearch.index.query.QueryBuilders.termQuery;
+import static org.elasticsearch.index.query.QueryBuilders.termsQuery;
+
+// vertex degrees by aggregations on sid/tid of edges (no edges are read)
+//   - degrees of ids : terms on sid, tid and both ends restricted to ids (one search per terms chunk)
+//   - hubs : top-N terms by direction, overall and per edge label (one search)
+//   - histogram : composite terms paged by after_key, degrees counted into power of two ranges
+//   - buckets of one search stay below max-buckets (search.max_buckets : too_many_buckets_exception)
+//   - both directions count a self loop once (one edge)
+//   ==> cached by datasource for ttl-seconds : import, remove and reset invalidate it, single edge writes do not
+//       (degrees are stats for planning and fan-out guards, not exact reads)
+// https://www.elastic.co/guide/en/elasticsearch/reference/7.3/search-aggregations-bucket-composite-aggregation.html
+public final class ElasticDegreeStats {
+
+    public static final String ALL_LABELS = "_all";
+
+    // both ends of edge as values of one term (self loop : once)
+    private static final Script BOTH_ENDS = new Script(ScriptType.INLINE, "painless"
+            , "[doc['sid'].value, doc['tid'].value]", Collections.emptyMap());
+
+    private static final class Key {
+        final String datasource, kind, args;
+        Key(String datasource, String kind, String args) {
+            this.datasource = datasource; this.kind = kind; this.args = args;
+        }
+        @Override
+        public boolean equals(Object o) {
+            if( !(o instanceof Key) ) return false;
+            Key k = (Key) o;
+            return datasource.equals(k.datasource) && kind.equals(k.kind) && args.equals(k.args);
+        }
+        @Override
+        public int hashCode() {
+            return Objects.hash(datasource, kind, args);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Loader<V> {
+        V load() throws Exception;
+    }
+
+    private final RestHighLevelClient client;
+    private final ElasticGraphProperties properties;
+    private final ElasticMetrics metrics;
+    private final ElasticVertexService vertices;
+    private final Cache<Key, Object> cache;
+
+    public ElasticDegreeStats(RestHighLevelClient client, ElasticGraphProperties properties, ElasticMetrics metrics
+            , ElasticVertexService vertices) {
+        this.client = client;
+        this.properties = properties;
+        this.metrics = metrics;
+        this.vertices = vertices;
+        ElasticGraphProperties.Degree config = properties.getDegree();
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(config.getMaxSize())
+                .expireAfterWrite(config.getTtlSeconds(), TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "elasticgraph.degree");
+    }
+
+    public void invalidate(String datasource) {
+        cache.asMap().keySet().removeIf(k -> k.datasource.equals(datasource));
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    // in, out, total of each id (0 if no edges), in order of ids (labels : edge labels)
+    public List<ElasticDegree> degrees(String datasource, String[] ids, String[] labels) throws Exception {
+        ElasticGraphProperties.Degree config = properties.getDegree();
+        String scope = String.join(",", labels);
+        List<Key> keys = new ArrayList<>(ids.length);
+        for( String id : ids ) keys.add(new Key(datasource, "degree", scope + "|" + id));
+        Map<Key, Object> found = config.isEnabled() ? cache.getAllPresent(keys) : new HashMap<>();
+
+        // missing : one search per terms chunk
+        List<String> missing = new ArrayList<>();
+        for( int i = 0; i < ids.length; i += 1 ){
+            if( !found.containsKey(keys.get(i)) ) missing.add(ids[i]);
+        }
+        int chunk = Math.max(1, Math.min(config.getTermsChunk(), config.getMaxBuckets() / 3));
+        Map<Key, Object> loaded = new HashMap<>();
+        for( int from = 0; from < missing.size(); from += chunk ){
+            for( ElasticDegree degree : aggregateDegrees(datasource, missing.subList(from, Math.min(from + chunk, missing.size())), labels) ){
+                loaded.put(new Key(datasource, "degree", scope + "|" + degree.getId()), degree);
+            }
+        }
+        if( config.isEnabled() ) cache.putAll(loaded);
+        found = new HashMap<>(found);
+        found.putAll(loaded);
+
+        List<ElasticDegree> result = new ArrayList<>(ids.length);
+        for( Key key : keys ) result.add((ElasticDegree) found.get(key));
+        return result;
+    }
+
+    // highest degree vertices by direction : "_all" and each edge label
+    @SuppressWarnings("unchecked")
+    public Map<String, List<ElasticDegree>> hubs(String datasource, Direction direction, String[] labels, int n) throws Exception {
+        ElasticGraphProperties.Degree config = properties.getDegree();
+        int size = Math.max(1, Math.min(n, Math.min(config.getMaxTop(), config.getMaxBuckets())));
+        Key key = new Key(datasource, "hubs", direction + "|" + String.join(",", labels) + "|" + size);
+        return (Map<String, List<ElasticDegree>>) cached(key, () -> aggregateHubs(datasource, direction, labels, size));
+    }
+
+    public ElasticDegreeHistogram histogram(String datasource, Direction direction, String[] labels) throws Exception {
+        Key key = new Key(datasource, "histogram", direction + "|" + String.join(",", labels));
+        return (ElasticDegreeHistogram) cached(key, () -> aggregateHistogram(datasource, direction, labels));
+    }
+
+    private Object cached(Key key, Loader<?> loader) throws Exception {
+        if( !properties.getDegree().isEnabled() ) return loader.load();
+        try{
+            return cache.get(key, k -> {
+                try{
+                    return loader.load();
+                }
+                catch (Exception e){ throw new CompletionException(e); }
+            });
+        }
+        catch (CompletionException e){
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    private static BoolQueryBuilder edgesQuery(String datasource, String[] labels) {
+        BoolQueryBuilder queryBuilder = QueryBuilders.boolQuery()
+                .filter(termQuery("datasource", datasource));
+        if( labels.length > 0 ) queryBuilder = queryBuilder.filter(termsQuery("label", labels));
+        return queryBuilder;
+    }
+
+    private SearchResponse search(String operation, SearchSourceBuilder source) throws Exception {
+        SearchRequest searchRequest = new SearchRequest(ElasticGraphService.INDEX_EDGE);
+        searchRequest.source(source);
+        return metrics.record(operation, ElasticGraphService.INDEX_EDGE, options -> client.search(searchRequest, options));
+    }
+
+    private List<ElasticDegree> aggregateDegrees(String datasource, List<String> ids, String[] labels) throws Exception {
+        String[] values = ids.toArray(new String[0]);
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(edgesQuery(datasource, labels).filter(QueryBuilders.boolQuery()
+                        .should(termsQuery("sid", ids)).should(termsQuery("tid", ids)).minimumShouldMatch(1)))
+                .size(0)
+                .aggregation(AggregationBuilders.terms("out").field("sid")
+                        .includeExclude(new IncludeExclude(values, null)).size(values.length))
+                .aggregation(AggregationBuilders.terms("in").field("tid")
+                        .includeExclude(new IncludeExclude(values, null)).size(values.length))
+                .aggregation(AggregationBuilders.terms("total").script(BOTH_ENDS)
+                        .includeExclude(new IncludeExclude(values, null)).size(values.length));
+        SearchResponse searchResponse = search("degrees", source);
+
+        Map<String, Long> out = counts(searchResponse.getAggregations().get("out"));
+        Map<String, Long> in = counts(searchResponse.getAggregations().get("in"));
+        Map<String, Long> total = counts(searchResponse.getAggregations().get("total"));
+        List<ElasticDegree> result = new ArrayList<>(ids.size());
+        for( String id : ids ){
+            ElasticDegree degree = new ElasticDegree();
+            degree.setId(id);
+            degree.setOut(out.getOrDefault(id, 0L));
+            degree.setIn(in.getOrDefault(id, 0L));
+            degree.setTotal(total.getOrDefault(id, 0L));
+            result.add(degree);
+        }
+        return result;
+    }
+
+    // buckets : n (_all) + labels x (1 + n) <= max-buckets
+    private Map<String, List<ElasticDegree>> aggregateHubs(String datasource, Direction direction, String[] labels, int n) throws Exception {
+        ElasticGraphProperties.Degree config = properties.getDegree();
+        int maxLabels = Math.min(config.getMaxLabels(), (config.getMaxBuckets() - n) / (n + 1));
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(edgesQuery(datasource, labels))
+                .size(0)
+                .aggregation(ends("hubs", direction).size(n));
+        if( maxLabels > 0 ){
+            source.aggregation(AggregationBuilders.terms("labels").field("label").size(maxLabels)
+                    .subAggregation(ends("hubs", direction).size(n)));
+        }
+        SearchResponse searchResponse = search("hubs", source);
+
+        Map<String, List<ElasticDegree>> result = new LinkedHashMap<>();
+        result.put(ALL_LABELS, hubs(searchResponse.getAggregations().get("hubs"), direction));
+        Terms byLabel = maxLabels > 0 ? searchResponse.getAggregations().get("labels") : null;
+        if( byLabel == null ) return result;
+        for( Terms.Bucket bucket : byLabel.getBuckets() ){
+            result.put(bucket.getKeyAsString(), hubs(bucket.getAggregations().get("hubs"), direction));
+        }
+        return result;
+    }
+
+    // vertex degrees in pages of composite buckets (doc count of bucket : degree)
+    private ElasticDegreeHistogram aggregateHistogram(String datasource, Direction direction, String[] labels) throws Exception {
+        ElasticGraphProperties.Degree config = properties.getDegree();
+        TermsValuesSourceBuilder end = new TermsValuesSourceBuilder("vid");
+        if( direction == Direction.OUT ) end.field("sid");
+        else if( direction == Direction.IN ) end.field("tid");
+        else end.script(BOTH_ENDS);
+        List<CompositeValuesSourceBuilder<?>> sources = Collections.singletonList(end);
+
+        ElasticDegreeHistogram histogram = new ElasticDegreeHistogram();
+        histogram.setDatasource(datasource);
+        histogram.setDirection(direction.name());
+        long[] ranges = new long[64];           // ranges[k] : degree in [2^k, 2^(k+1))
+        long sum = 0L;
+        Map<String, Object> after = null;
+        do{
+            CompositeAggregationBuilder composite = AggregationBuilders.composite("degrees", sources)
+                    .size(Math.max(1, Math.min(config.getPageSize(), config.getMaxBuckets())));
+            if( after != null ) composite.aggregateAfter(after);
+            SearchSourceBuilder source = new SearchSourceBuilder()
+                    .query(edgesQuery(datasource, labels))
+                    .size(0)
+                    .aggregation(composite);
+            CompositeAggregation page = search("degreeHistogram", source).getAggregations().get("degrees");
+
+            for( CompositeAggregation.Bucket bucket : page.getBuckets() ){
+                long degree = bucket.getDocCount();
+                ranges[63 - Long.numberOfLeadingZeros(degree)] += 1;
+                histogram.setVertices(histogram.getVertices() + 1);
+                histogram.setMax(Math.max(histogram.getMax(), degree));
+                sum += degree;
+            }
+            after = page.getBuckets().isEmpty() ? null : page.afterKey();
+            if( after != null && histogram.getVertices() >= config.getMaxVertices() ){
+                histogram.setTruncated(true);
+                after = null;
+            }
+        } while( after != null );
+
+        // vertices without edges (of labels)
+        if( !histogram.isTruncated() ){
+            histogram.getBuckets().put("0", Math.max(0L, vertices.count(datasource) - histogram.getVertices()));
+        }
+        for( int k = 0; k < ranges.length; k += 1 ){
+            if( ranges[k] == 0 ) continue;
+            long from = 1L << k, to = (1L << (k + 1)) - 1;
+            histogram.getBuckets().put(from == to ? String.valueOf(from) : from + "-" + to, ranges[k]);
+        }
+        histogram.setMean(histogram.getVertices() == 0 ? 0.0 : (double) sum / histogram.getVertices());
+        return histogram;
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    private static TermsAggregationBuilder ends(String name, Direction direction) {
+        if( direction == Direction.OUT ) return AggregationBuilders.terms(name).field("sid");
+        if( direction == Direction.IN ) return AggregationBuilders.terms(name).field("tid");
+        return AggregationBuilders.terms(name).script(BOTH_ENDS);
+    }
+
+    private static Map<String, Long> counts(Terms terms) {
+        Map<String, Long> result = new HashMap<>();
+        terms.getBuckets().forEach(b -> result.put(b.getKeyAsString(), b.getDocCount()));
+        return result;
+    }
+
+    private static List<ElasticDegree> hubs(Terms terms, Direction direction) {
+        List<ElasticDegree> result = new ArrayList<>();
+        for( Terms.Bucket bucket : terms.getBuckets() ){
+            ElasticDegree degree = new ElasticDegree();
+            degree.setId(bucket.getKeyAsString());
+            if( direction == Direction.OUT ) degree.setOut(bucket.getDocCount());
+            else if( direction == Direction.IN ) degree.setIn(bucket.getDocCount());
+            else degree.setTotal(bucket.getDocCount());
+            result.add(degree);
+        }
+        return result;
+    }
+
+}
@@ -2,10 +2,15 @@ package com.example.aws.elasticsearch.demo.elasticgraph.repository;
 
 import com.example.aws.elasticsearch.demo.basegraph.BaseGraphAPI;
 import com.example.aws.elasticsearch.demo.basegraph.model.BaseProperty;
+import com.example.aws.elasticsearch.demo.basegraph.BaseProjection;
+import com.example.aws.elasticsearch.demo.config.ElasticGraphProperties;
+import com.example.aws.elasticsearch.demo.config.ElasticMetrics;
 import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticEdge;
 
 import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticProperty;
 import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticVertex;
+import com.example.aws.elasticsearch.demo.elasticgraph.util.AsyncPermits;
+import com.example.aws.elasticsearch.demo.elasticgraph.util.ElasticHelper;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.lucene.search.join.ScoreMode;
@@ -15,22 +20,46 @@ import org.elasticsearch.index.query.QueryBuilders;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.elasticsearch.index.query.QueryBuilders.termQuery;
+import static org.elasticsearch.index.query.QueryBuilders.termsQuery;
 
 @Slf4j
 public final class ElasticEdgeService extends ElasticElementService {
 
     private final String INDEX;
+    private final Map<String, ElasticAdjacencyIndex> adjacency = new ConcurrentHashMap<>();
+    private final Set<String> loading = ConcurrentHashMap.newKeySet();
+    private final Set<String> reloading = ConcurrentHashMap.newKeySet();
+    // shared by all datasources : loads run one after another
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "elasticgraph-adjacency");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public ElasticEdgeService(
             RestHighLevelClient client,     // elasticsearch config
-            ObjectMapper mapper             // spring boot web starter
+            ObjectMapper mapper,            // spring boot web starter
+            ElasticGraphProperties properties,
+            ElasticMetrics metrics,
+            ElasticElementCache cache,
+            ElasticSchemaCache schema,
+            AsyncPermits mgets              // shared by vertices and edges
     ) {
-        super(client, mapper);
+        super(client, mapper, properties, metrics, cache, schema, mgets);
         this.INDEX = ElasticGraphService.INDEX_EDGE;
     }
 
@@ -47,18 +76,40 @@ public final class ElasticEdgeService extends ElasticElementService {
     ///////////////////////////////////////////////////////////////
 
     public String createDocument(ElasticEdge document) throws Exception {
-        return super.createDocument(INDEX, ElasticEdge.class, document);
+        String result = super.createDocument(INDEX, ElasticEdge.class, document);
+        adjacencyUpsert(document);
+        return result;
     }
 
     public String updateDocument(ElasticEdge document) throws Exception {
-        return super.updateDocument(INDEX, ElasticEdge.class, document);
+        String result = super.updateDocument(INDEX, ElasticEdge.class, document);
+        if( !result.equals("NOT_FOUND") ) adjacencyUpsert(document);
+        return result;
+    }
+
+    public String upsertDocument(ElasticEdge document, Long ifSeqNo, Long ifPrimaryTerm) throws Exception {
+        String result = super.upsertDocument(INDEX, document, ifSeqNo, ifPrimaryTerm);
+        adjacencyUpsert(document);
+        return result;
+    }
+
+    public Map<String, String> bulkDocuments(Collection<ElasticEdge> documents) throws Exception {
+        return adjacencyUpsert(documents, super.bulkDocuments(INDEX, documents));
     }
 
     public String deleteDocument(String id) throws Exception {
-        return super.deleteDocument(INDEX, id);
+        String result = super.deleteDocument(INDEX, id);
+        adjacencyRemove(id);
+        return result;
     }
     public long deleteDocuments(String datasource) throws Exception {
-        return super.deleteDocuments(INDEX, datasource);
+        long deleted = super.deleteDocuments(INDEX, datasource);
+        dropAdjacency(datasource);
+        return deleted;
+    }
+    public String submitDeleteDocuments(String datasource) throws Exception {
+        dropAdjacency(datasource);
+        return super.submitDeleteDocuments(INDEX, datasource);
     }
 
     ///////////////////////////////////////////////////////////////
@@ -81,6 +132,10 @@ public final class ElasticEdgeService extends ElasticElementService {
         return super.findByIds(INDEX, ElasticEdge.class, ids);
     }
 
+    public List<ElasticEdge> findByIds(String[] ids, BaseProjection projection) throws Exception {
+        return project(super.findByIds(INDEX, ElasticEdge.class, ids, sourceIncludes(projection)), projection);
+    }
+
     public List<ElasticEdge> findByLabel(int size, String label) throws Exception {
         return super.findByLabel(INDEX, ElasticEdge.class, size, label);
     }
@@ -89,10 +144,18 @@ public final class ElasticEdgeService extends ElasticElementService {
         return super.findByDatasource(INDEX, ElasticEdge.class, size, datasource);
     }
 
+    public List<ElasticEdge> findByDatasource(int size, String datasource, BaseProjection projection) throws Exception {
+        return super.findByDatasource(INDEX, ElasticEdge.class, size, datasource, projection);
+    }
+
     public List<ElasticEdge> findByDatasourceAndLabels(int size, String datasource, String[] labels) throws Exception {
         return super.findByDatasourceAndLabels(INDEX, ElasticEdge.class, size, datasource, labels);
     }
 
+    public List<ElasticEdge> findByDatasourceAndLabels(int size, String datasource, String[] labels, BaseProjection projection) throws Exception {
+        return super.findByDatasourceAndLabels(INDEX, ElasticEdge.class, size, datasource, labels, projection);
+    }
+
     public List<ElasticEdge> findByDatasourceAndPropertyKeys(int size, String datasource, String[] keys) throws Exception{
         return super.findByDatasourceAndPropertyKeys(INDEX, ElasticEdge.class, size, datasource, keys);
     }
@@ -133,6 +196,67 @@ public final class ElasticEdgeService extends ElasticElementService {
 
     public List<ElasticEdge> findByDatasourceAndDirection(
             int size, String datasource, String vid, BaseGraphAPI.Direction direction) throws Exception{
+        // search
+        return doSearch("findByDatasourceAndDirection", INDEX, size, directionQuery(datasource, vid, direction), client, mapper, ElasticEdge.class);
+    }
+
+    // labels : edge labels (filtered by elasticsearch)
+    public List<ElasticEdge> findByDatasourceAndDirection(int size, String datasource, String vid
+            , BaseGraphAPI.Direction direction, String[] labels, BaseProjection projection) throws Exception{
+        BoolQueryBuilder queryBuilder = directionQuery(datasource, vid, direction);
+        if( labels != null && labels.length > 0 )
+            queryBuilder = queryBuilder.filter(termsQuery("label", labels));
+        return project(doSearch("findByDatasourceAndDirection", INDEX, size, queryBuilder, sourceIncludes(projection), ElasticEdge.class), projection);
+    }
+
+    public CompletableFuture<List<ElasticEdge>> findByDatasourceAndDirectionAsync(
+            int size, String datasource, String vid, BaseGraphAPI.Direction direction) {
+        return doSearchAsync("findByDatasourceAndDirectionAsync", INDEX, size, directionQuery(datasource, vid, direction), ElasticEdge.class);
+    }
+
+    // edges of whole frontier by search_after : one terms query per chunk of ids (labels : edge labels)
+    //   ==> stops reading at size (fan-out budget)
+    public List<ElasticEdge> findByDatasourceAndFrontier(int size, String datasource, List<String> vids
+            , BaseGraphAPI.Direction direction, String[] labels) {
+        return findByDatasourceAndFrontier(size, datasource, vids, direction, labels, null);
+    }
+
+    // includes : fields of _source only (ex: id, sid, tid for neighbors)
+    public List<ElasticEdge> findByDatasourceAndFrontier(int size, String datasource, List<String> vids
+            , BaseGraphAPI.Direction direction, String[] labels, String[] includes) {
+        return findByDatasourceAndFrontier(size, datasource, vids, direction, labels, includes, edge -> true);
+    }
+
+    // accept : edges not accepted (ex: already visited) are skipped and do not count to size
+    public List<ElasticEdge> findByDatasourceAndFrontier(int size, String datasource, List<String> vids
+            , BaseGraphAPI.Direction direction, String[] labels, String[] includes, Predicate<ElasticEdge> accept) {
+        int chunk = Math.max(1, properties.getExpand().getTermsChunk());
+        List<ElasticEdge> edges = new ArrayList<>();
+        for( int from = 0; from < vids.size() && edges.size() < size; from += chunk ){
+            List<String> ids = vids.subList(from, Math.min(from + chunk, vids.size()));
+            BoolQueryBuilder queryBuilder = QueryBuilders.boolQuery()
+                    .filter(termQuery("datasource", datasource));
+            if( labels != null && labels.length > 0 )
+                queryBuilder = queryBuilder.filter(termsQuery("label", labels));
+            if( direction.equals(BaseGraphAPI.Direction.IN))
+                queryBuilder = queryBuilder.filter(termsQuery("tid", ids));
+            else if( direction.equals(BaseGraphAPI.Direction.OUT))
+                queryBuilder = queryBuilder.filter(termsQuery("sid", ids));
+            else
+                queryBuilder = queryBuilder.filter(QueryBuilders.boolQuery()
+                        .should(termsQuery("tid", ids)).should(termsQuery("sid", ids)));
+
+            // pages cut to budget left (skipped edges are read by next page, not by prefetch)
+            Iterator<ElasticEdge> it = scan(INDEX, ElasticEdge.class, queryBuilder, includes, () -> size - edges.size());
+            while( edges.size() < size && it.hasNext() ){
+                ElasticEdge edge = it.next();
+                if( accept.test(edge) ) edges.add(edge);
+            }
+        }
+        return edges;
+    }
+
+    static BoolQueryBuilder directionQuery(String datasource, String vid, BaseGraphAPI.Direction direction) {
         // define : nested query
         BoolQueryBuilder queryBuilder = QueryBuilders.boolQuery()
                 .filter(termQuery("datasource", datasource));
@@ -144,8 +268,152 @@ public final class ElasticEdgeService extends ElasticElementService {
         else{
             queryBuilder = queryBuilder.should(termQuery("tid", vid));
             queryBuilder = queryBuilder.should(termQuery("sid", vid));
+            queryBuilder = queryBuilder.minimumShouldMatch(1);     // optional by default next to filter
         }
-        // search
-        return doSearch(INDEX, size, queryBuilder, client, mapper, ElasticEdge.class);
+        return queryBuilder;
+    }
+
+    // edges are useless without their ends
+    @Override
+    protected String[] sourceIncludes(BaseProjection projection) {
+        String[] includes = super.sourceIncludes(projection);
+        if( includes == null ) return null;
+        String[] withEnds = Arrays.copyOf(includes, includes.length + 2);
+        withEnds[includes.length] = "sid";
+        withEnds[includes.length + 1] = "tid";
+        return withEnds;
+    }
+
+    ///////////////////////////////////////////////////////////////
+    // sliced scroll export
+
+    public String index() { return INDEX; }
+
+    public long exportSlice(ElasticExportJob job, int sliceId) throws Exception {
+        return super.exportSlice(INDEX, job, sliceId);
     }
+
+    ///////////////////////////////////////////////////////////////
+    // lazy iteration (search_after)
+
+    public Stream<ElasticEdge> streamByDatasource(String datasource) {
+        return super.streamByDatasource(INDEX, ElasticEdge.class, datasource);
+    }
+
+    public Stream<ElasticEdge> streamByHasContainers(String datasource
+            , String label, String[] labels
+            , String key, String keyNot, String[] keys
+            , String[] values, Map<String,String> kvPairs) {
+        return super.streamByHasContainers(INDEX, ElasticEdge.class, datasource
+                , label, labels, key, keyNot, keys, values, kvPairs);
+    }
+
+    ///////////////////////////////////////////////////////////////
+    // async
+
+    public CompletableFuture<Long> countAsync(String datasource) {
+        return super.countAsync(INDEX, datasource);
+    }
+
+    public CompletableFuture<ElasticEdge> findByIdAsync(String id) {
+        return super.findByIdAsync(INDEX, ElasticEdge.class, id);
+    }
+
+    public CompletableFuture<Boolean> existsIdAsync(String id) {
+        return super.existsIdAsync(INDEX, id);
+    }
+
+    public CompletableFuture<List<ElasticEdge>> findByIdsAsync(String[] ids) {
+        return super.findByIdsAsync(INDEX, ElasticEdge.class, ids);
+    }
+
+    public CompletableFuture<List<ElasticEdge>> findByIdsAsync(String[] ids, BaseProjection projection) {
+        return super.findByIdsAsync(INDEX, ElasticEdge.class, ids, sourceIncludes(projection))
+                .thenApply(list -> project(list, projection));
+    }
+
+    public CompletableFuture<List<ElasticEdge>> findByHasContainersAsync(int size, String datasource
+            , String label, String[] labels
+            , String key, String keyNot, String[] keys
+            , String[] values, Map<String,String> kvPairs) {
+        return super.findByHasContainersAsync(INDEX, ElasticEdge.class, size, datasource
+                , label, labels, key, keyNot, keys, values, kvPairs);
+    }
+
+    public CompletableFuture<String> upsertDocumentAsync(ElasticEdge document, Long ifSeqNo, Long ifPrimaryTerm) {
+        return super.upsertDocumentAsync(INDEX, document, ifSeqNo, ifPrimaryTerm).thenApply(result -> {
+            adjacencyUpsert(document);
+            return result;
+        });
+    }
+
+    public CompletableFuture<Map<String, String>> bulkDocumentsAsync(Collection<ElasticEdge> documents) {
+        return super.bulkDocumentsAsync(INDEX, documents).thenApply(report -> adjacencyUpsert(documents, report));
+    }
+
+    public CompletableFuture<String> deleteDocumentAsync(String id) {
+        return super.deleteDocumentAsync(INDEX, id).thenApply(result -> {
+            adjacencyRemove(id);
+            return result;
+        });
+    }
+
+    ///////////////////////////////////////////////////////////////
+    // in-memory adjacency : loaded on demand, kept current by write paths of this service
+
+    // full load by background worker (search_after with id, sid, tid, label only) : also rebuilds after import
+    //   ==> answers index at once, ready when loaded
+    //   ==> one load per datasource at a time : requests while loading run one more load after it (coalesced)
+    public ElasticAdjacencyIndex loadAdjacency(String datasource) {
+        ElasticAdjacencyIndex index = adjacency.computeIfAbsent(datasource, ElasticAdjacencyIndex::new);
+        if( !loading.add(datasource) ){
+            reloading.add(datasource);
+            return index;
+        }
+        BoolQueryBuilder queryBuilder = ElasticHelper.addQueryDs(QueryBuilders.boolQuery(), datasource);
+        CompletableFuture.runAsync(() -> index.load(scan(INDEX, ElasticEdge.class, queryBuilder, ElasticAdjacencyIndex.FIELDS)), loader)
+                .whenComplete((r, e) -> {
+                    if( e != null ) log.error("loadAdjacency: "+datasource, e);
+                    loading.remove(datasource);
+                    // not dropped meanwhile
+                    if( reloading.remove(datasource) && adjacency.get(datasource) == index ) loadAdjacency(datasource);
+                });
+        return index;
+    }
+
+    // null if not loaded (yet) : callers go to elasticsearch
+    public ElasticAdjacencyIndex adjacency(String datasource) {
+        ElasticAdjacencyIndex index = adjacency.get(datasource);
+        return index != null && index.isReady() ? index : null;
+    }
+
+    public ElasticAdjacencyIndex adjacencyIfLoaded(String datasource) {
+        return adjacency.get(datasource);
+    }
+
+    public boolean dropAdjacency(String datasource) {
+        return adjacency.remove(datasource) != null;
+    }
+
+    public void dropAllAdjacency() {
+        adjacency.clear();
+    }
+
+    private void adjacencyUpsert(ElasticEdge document) {
+        ElasticAdjacencyIndex index = document.getDatasource() == null ? null : adjacency.get(document.getDatasource());
+        if( index != null ) index.upsert(document);
+    }
+
+    private Map<String, String> adjacencyUpsert(Collection<ElasticEdge> documents, Map<String, String> report) {
+        for( ElasticEdge document : documents ){
+            if( report.containsKey(document.getId()) && report.get(document.getId()) == null ) adjacencyUpsert(document);
+        }
+        return report;
+    }
+
+    // datasource of edge is unknown by id
+    private void adjacencyRemove(String id) {
+        for( ElasticAdjacencyIndex index : adjacency.values() ) index.remove(id);
+    }
+
 }
@@ -0,0 +1,167 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.repository;
+
+import com.example.aws.elasticsearch.demo.config.ElasticGraphProperties;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticElement;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+// read-through cache of findById (W-TinyLFU eviction by Caffeine), shared by vertex and edge services
+//   - key : index + id, value : JSON bytes of document or Optional.empty (negative lookup, shorter TTL)
+//   - invalidated by every write path (single, bulk, import, delete, remove datasource, reset)
+//   - callers get own copy decoded from bytes : changes of returned documents never reach the cache
+// https://github.com/ben-manes/caffeine/wiki/Efficiency
+public final class ElasticElementCache {
+
+    // immutable snapshot of document (datasource : for invalidateDatasource)
+    private static final class Entry {
+        final String datasource;
+        final byte[] json;
+
+        Entry(String datasource, byte[] json) {
+            this.datasource = datasource;
+            this.json = json;
+        }
+    }
+
+    private final boolean enabled;
+    private final ObjectMapper mapper;
+    private final Cache<String, Optional<Entry>> cache;
+
+    public ElasticElementCache(ElasticGraphProperties.Cache config, ObjectMapper mapper) {
+        this.enabled = config.isEnabled();
+        this.mapper = mapper;
+
+        final long ttlNanos = TimeUnit.SECONDS.toNanos(config.getTtlSeconds());
+        final long negativeTtlNanos = TimeUnit.SECONDS.toNanos(config.getNegativeTtlSeconds());
+        Caffeine<Object, Object> builder = Caffeine.newBuilder().recordStats();
+        if( config.getMaxWeightMb() > 0 ){
+            builder.maximumWeight(config.getMaxWeightMb() * 1024L * 1024L)
+                    .weigher((String key, Optional<Entry> value) -> weigh(key, value));
+        }
+        else builder.maximumSize(config.getMaxSize());
+
+        this.cache = builder.expireAfter(new Expiry<String, Optional<Entry>>() {
+                    @Override
+                    public long expireAfterCreate(String key, Optional<Entry> value, long currentTime) {
+                        return value.isPresent() ? ttlNanos : negativeTtlNanos;
+                    }
+                    @Override
+                    public long expireAfterUpdate(String key, Optional<Entry> value, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, value, currentTime);
+                    }
+                    @Override
+                    public long expireAfterRead(String key, Optional<Entry> value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                }).build();
+    }
+
+    private static String key(String index, String id) {
+        return index + ":" + id;
+    }
+
+    // approximate heap bytes of entry (chars are 2 bytes)
+    private static int weigh(String key, Optional<Entry> value) {
+        int weight = 64 + 2*key.length();
+        return value.map(entry -> weight + 32 + entry.json.length).orElse(weight);
+    }
+
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "elasticgraph.elements");
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    // loader answers null if not found (cached as negative lookup)
+    <T> T get(String index, String id, Class<T> tClass, Callable<T> loader) throws Exception {
+        if( !enabled ) return loader.call();
+        Optional<Entry> entry;
+        try{
+            // atomic per key : invalidate() waits for running load (no stale put)
+            entry = cache.get(key(index, id), k -> {
+                try{ return Optional.ofNullable(loader.call()).map(this::entry); }
+                catch (Exception e){ throw new CompletionException(e); }
+            });
+        }
+        catch (CompletionException e){
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        return entry.isPresent() ? decode(entry.get(), tClass) : null;
+    }
+
+    // null if not cached, Optional.empty if cached as not found
+    <T> Optional<T> getIfPresent(String index, String id, Class<T> tClass) {
+        Optional<Entry> entry = enabled ? cache.getIfPresent(key(index, id)) : null;
+        if( entry == null ) return null;
+        return entry.isPresent() ? Optional.of(decode(entry.get(), tClass)) : Optional.empty();
+    }
+
+    // null if not cached (no copy is decoded)
+    Boolean exists(String index, String id) {
+        Optional<Entry> entry = enabled ? cache.getIfPresent(key(index, id)) : null;
+        return entry == null ? null : entry.isPresent();
+    }
+
+    private Entry entry(Object document) {
+        try{
+            String datasource = document instanceof ElasticElement ? ((ElasticElement) document).getDatasource() : null;
+            return new Entry(datasource, mapper.writeValueAsBytes(document));
+        }
+        catch (IOException e){ throw new UncheckedIOException(e); }
+    }
+
+    private <T> T decode(Entry entry, Class<T> tClass) {
+        try{
+            return mapper.readValue(entry.json, tClass);
+        }
+        catch (IOException e){ throw new UncheckedIOException(e); }
+    }
+
+    void invalidate(String index, String id) {
+        if( enabled && id != null ) cache.invalidate(key(index, id));
+    }
+
+    // negative lookups stay (still not found)
+    void invalidateDatasource(String datasource) {
+        if( !enabled ) return;
+        cache.asMap().values().removeIf(r -> r.isPresent() && datasource.equals(r.get().datasource));
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    public String stats() {
+        CacheStats stats = cache.stats();
+        Gson gson = new Gson();
+        JsonObject object = new JsonObject();
+        object.addProperty("enabled", enabled);
+        object.addProperty("size", cache.estimatedSize());
+        object.addProperty("hitRate", stats.hitRate());
+        object.addProperty("hits", stats.hitCount());
+        object.addProperty("misses", stats.missCount());
+        object.addProperty("loads", stats.loadCount());
+        object.addProperty("loadFailures", stats.loadFailureCount());
+        object.addProperty("averageLoadMs", stats.averageLoadPenalty() / 1000000.0);
+        object.addProperty("evictions", stats.evictionCount());
+        object.addProperty("evictionWeight", stats.evictionWeight());
+        return gson.toJson(object);
+    }
+
+}
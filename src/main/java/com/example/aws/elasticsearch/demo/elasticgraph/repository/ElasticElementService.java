@@ -1,35 +1,67 @@
 package com.example.aws.elasticsearch.demo.elasticgraph.repository;
 
+import com.example.aws.elasticsearch.demo.basegraph.BaseProjection;
 import com.example.aws.elasticsearch.demo.basegraph.model.BaseProperty;
+import com.example.aws.elasticsearch.demo.config.ElasticGraphProperties;
+import com.example.aws.elasticsearch.demo.config.ElasticMetrics;
 import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticEdge;
 import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticElement;
 import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticProperty;
+import com.example.aws.elasticsearch.demo.elasticgraph.util.AsyncPermits;
 import com.example.aws.elasticsearch.demo.elasticgraph.util.ElasticHelper;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.lucene.search.join.ScoreMode;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.ClearScrollRequest;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.action.update.UpdateResponse;
-import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.core.CountRequest;
 import org.elasticsearch.client.core.CountResponse;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.query.*;
+import org.elasticsearch.index.engine.VersionConflictEngineException;
 import org.elasticsearch.index.reindex.BulkByScrollResponse;
 import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.elasticsearch.search.slice.SliceBuilder;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.LongSupplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static org.elasticsearch.index.query.QueryBuilders.termQuery;
 import static org.elasticsearch.index.query.QueryBuilders.termsQuery;
@@ -38,17 +70,44 @@ public class ElasticElementService {
 
     protected final RestHighLevelClient client;
     protected final ObjectMapper mapper;
+    protected final ElasticGraphProperties properties;
+    protected final ElasticMetrics metrics;
+    protected final ElasticElementCache cache;
+    protected final ElasticSchemaCache schema;
+    private final AsyncPermits mgets;
+    private final ElasticSearchReader reader;
+    private final ElasticQueryTemplates templates;
 
     protected ElasticElementService(
             RestHighLevelClient client,     // elasticsearch config
-            ObjectMapper mapper             // spring boot web starter
+            ObjectMapper mapper,            // spring boot web starter
+            ElasticGraphProperties properties,
+            ElasticMetrics metrics,
+            ElasticElementCache cache,
+            ElasticSchemaCache schema,
+            AsyncPermits mgets
     ) {
         this.client = client;
         this.mapper = mapper;
+        this.properties = properties;
+        this.metrics = metrics;
+        this.cache = cache;
+        this.schema = schema;
+        this.mgets = mgets;
+        this.reader = new ElasticSearchReader(client, mapper, metrics);
+        this.templates = new ElasticQueryTemplates(client, mapper, properties, metrics);
     }
 
     ///////////////////////////////////////////////////////////////
 
+    // _source of document : without metadata (seqNo, primaryTerm)
+    static Map<String, Object> toSource(ObjectMapper mapper, ElasticElement document) {
+        Map<String, Object> source = mapper.convertValue(document, Map.class);
+        source.remove("seqNo");
+        source.remove("primaryTerm");
+        return source;
+    }
+
     protected <T> String createDocument(String index, Class<T> tClass, ElasticElement document) throws Exception {
         if( document.getId() == null || document.getId().isEmpty() ){
             UUID uuid = UUID.randomUUID();      // random document_id
@@ -57,8 +116,10 @@ public class ElasticElementService {
 
         IndexRequest indexRequest = new IndexRequest(index)
                 .id(document.getId())
-                .source( mapper.convertValue((T)document, Map.class) );
-        IndexResponse indexResponse = client.index(indexRequest, RequestOptions.DEFAULT);
+                .source( toSource(mapper, document) );
+        IndexResponse indexResponse = metrics.record("createDocument", index, options -> client.index(indexRequest, options));
+        cache.invalidate(index, document.getId());
+        schemaWritten(index, document, indexResponse.getResult().name());
         return indexResponse.getResult().name();
     }
 
@@ -68,14 +129,112 @@ public class ElasticElementService {
 
         UpdateRequest updateRequest = new UpdateRequest().index(index)
                 .id(document.getId())
-                .doc( mapper.convertValue((T)document, Map.class) );
-        UpdateResponse updateResponse = client.update(updateRequest, RequestOptions.DEFAULT);
+                .doc( toSource(mapper, document) );
+        UpdateResponse updateResponse = metrics.record("updateDocument", index, options -> client.update(updateRequest, options));
+        cache.invalidate(index, document.getId());
+        schemaWritten(index, document, updateResponse.getResult().name());
         return updateResponse.getResult().name();
     }
 
+    // single round trip : update or insert (doc_as_upsert)
+    //   ==> with ifSeqNo & ifPrimaryTerm : index (whole document) only if unchanged by others, else version conflict
+    //       (elasticsearch rejects compare and write with upsert)
+    protected String upsertDocument(String index, ElasticElement document, Long ifSeqNo, Long ifPrimaryTerm) throws Exception {
+        if( document.getId() == null || document.getId().isEmpty() ){
+            UUID uuid = UUID.randomUUID();      // random document_id
+            document.setId(uuid.toString());
+        }
+
+        DocWriteResponse writeResponse;
+        if( ifSeqNo != null && ifPrimaryTerm != null ){
+            IndexRequest indexRequest = conditionalRequest(index, document, ifSeqNo, ifPrimaryTerm);
+            writeResponse = metrics.record("upsertDocument", index, options -> client.index(indexRequest, options));
+        }
+        else{
+            UpdateRequest updateRequest = upsertRequest(index, document);
+            writeResponse = metrics.record("upsertDocument", index, options -> client.update(updateRequest, options));
+        }
+        return upserted(index, document, writeResponse);
+    }
+
+    private UpdateRequest upsertRequest(String index, ElasticElement document) {
+        return new UpdateRequest(index, document.getId())
+                .doc( toSource(mapper, document) )
+                .docAsUpsert(true);
+    }
+
+    private IndexRequest conditionalRequest(String index, ElasticElement document, long ifSeqNo, long ifPrimaryTerm) {
+        return new IndexRequest(index)
+                .id(document.getId())
+                .source( toSource(mapper, document) )
+                .setIfSeqNo(ifSeqNo)
+                .setIfPrimaryTerm(ifPrimaryTerm);
+    }
+
+    private String upserted(String index, ElasticElement document, DocWriteResponse writeResponse) {
+        cache.invalidate(index, document.getId());
+        schemaWritten(index, document, writeResponse.getResult().name());
+        document.setSeqNo(writeResponse.getSeqNo());
+        document.setPrimaryTerm(writeResponse.getPrimaryTerm());
+        return writeResponse.getResult().name();
+    }
+
+    // conditional write lost (changed by others) : not a failure of elasticsearch
+    public static boolean isVersionConflict(Throwable e) {
+        while( (e instanceof CompletionException || e instanceof ExecutionException) && e.getCause() != null ) e = e.getCause();
+        if( e instanceof ElasticsearchException ){
+            ElasticsearchException ee = (ElasticsearchException) e;
+            return ee.unwrapCause() instanceof VersionConflictEngineException || ee.status() == RestStatus.CONFLICT;
+        }
+        return false;
+    }
+
+    // CREATED : counts of cached labels, keys + 1 (NOOP : unchanged, others : reload)
+    private void schemaWritten(String index, ElasticElement document, String result) {
+        if( result.equals("CREATED") ) schema.created(index, document);
+        else if( !result.equals("NOOP") && !result.equals("NOT_FOUND") ) schema.invalidate(index, document.getDatasource());
+    }
+
+    private void schemaWritten(String index, Collection<? extends ElasticElement> documents) {
+        documents.stream().map(r->r.getDatasource()).distinct().forEach(ds -> schema.invalidate(index, ds));
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    // BulkProcessor : flush on count, size or interval
+    public ElasticBulkWriter bulkWriter(ElasticBulkWriter.ItemListener itemListener) {
+        return new ElasticBulkWriter(client, mapper, metrics, cache, properties.getBulk(), itemListener);
+    }
+
+    static final String NOT_ANSWERED = "bulk item not answered";
+    static final String TIMED_OUT = "bulk not answered within await-close-seconds";
+
+    // return report of id => failure message (null if saved), in order of documents
+    //   ==> items not answered before await-close-seconds are failed
+    protected Map<String, String> bulkDocuments(String index, Collection<? extends ElasticElement> documents) throws Exception {
+        final Map<String, String> answered = new ConcurrentHashMap<>();     // id => failure message ("" if saved)
+        ElasticBulkWriter writer = bulkWriter((id, success, failure) ->
+                answered.put(id, success ? "" : String.valueOf(failure)));
+        List<String> ids = new ArrayList<>(documents.size());
+        for( ElasticElement document : documents ){
+            ids.add(writer.add(index, document));
+        }
+        boolean closed = writer.close();        // false : timed out with bulks in flight
+        schemaWritten(index, documents);
+
+        Map<String, String> report = new LinkedHashMap<>();
+        for( String id : ids ){
+            String failure = answered.getOrDefault(id, closed ? NOT_ANSWERED : TIMED_OUT);
+            report.put(id, failure.isEmpty() ? null : failure);
+        }
+        return report;
+    }
+
     protected String deleteDocument(String index, String id) throws Exception {
         DeleteRequest deleteRequest = new DeleteRequest(index).id(id);
-        DeleteResponse response = client.delete(deleteRequest, RequestOptions.DEFAULT);
+        DeleteResponse response = metrics.record("deleteDocument", index, options -> client.delete(deleteRequest, options));
+        cache.invalidate(index, id);
+        schema.invalidate(index);
         return response.getResult().name();
     }
 
@@ -85,10 +244,32 @@ public class ElasticElementService {
         // request.setSlices(2);
         request.setRefresh(true);
         request.setConflicts("proceed");
-        BulkByScrollResponse bulkResponse = client.deleteByQuery(request, RequestOptions.DEFAULT);
+        BulkByScrollResponse bulkResponse = metrics.record("deleteDocuments", index, options -> client.deleteByQuery(request, options));
+        cache.invalidateDatasource(datasource);
+        schema.invalidate(index, datasource);
         return bulkResponse.getDeleted();
     }
 
+    // background task : auto-sliced, answers task id ("node:id") without waiting
+    //   ==> progress and cancel by ElasticGraphService.getTask, cancelTask
+    protected String submitDeleteDocuments(String index, String datasource) throws Exception {
+        Request request = new Request("POST", "/"+index+"/_delete_by_query");
+        request.addParameter("wait_for_completion", "false");
+        request.addParameter("slices", "auto");
+        request.addParameter("conflicts", "proceed");
+        request.addParameter("refresh", "true");
+        request.setJsonEntity("{\"query\":"+new TermQueryBuilder("datasource", datasource).toString()+"}");
+
+        Response response = metrics.record("submitDeleteDocuments", index, options -> {
+            request.setOptions(options);
+            return client.getLowLevelClient().performRequest(request);
+        });
+        // documents read while task is running expire by ttl
+        cache.invalidateDatasource(datasource);
+        schema.invalidate(index, datasource);
+        return mapper.readTree(response.getEntity().getContent()).get("task").asText();
+    }
+
     ///////////////////////////////////////////////////////////////
 
     protected long count(String index) throws Exception {
@@ -97,7 +278,7 @@ public class ElasticElementService {
 
         CountRequest countRequest = new CountRequest().indices(index);
         countRequest.source(searchSourceBuilder);
-        CountResponse countResponse = client.count(countRequest, RequestOptions.DEFAULT);
+        CountResponse countResponse = metrics.record("count", index, options -> client.count(countRequest, options));
         return countResponse.getCount();
     }
 
@@ -110,44 +291,56 @@ public class ElasticElementService {
 
         CountRequest countRequest = new CountRequest().indices(index);
         countRequest.source(searchSourceBuilder);
-        CountResponse countResponse = client.count(countRequest, RequestOptions.DEFAULT);
+        CountResponse countResponse = metrics.record("countByDatasource", index, options -> client.count(countRequest, options));
         return countResponse.getCount();
     }
 
     ///////////////////////////////////////////////////////////////
 
     protected <T> List<T> findAll(String index, Class<T> tClass) throws Exception {
-        SearchRequest searchRequest = new SearchRequest(index);
         SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
         searchSourceBuilder.query(QueryBuilders.matchAllQuery());   // All
-        searchRequest.source(searchSourceBuilder);
-
-        SearchResponse searchResponse = client.search(searchRequest, RequestOptions.DEFAULT);
-        return getSearchResult(searchResponse, mapper, tClass);
+        return reader.search("findAll", index, searchSourceBuilder, tClass);
     }
 
     protected <T> T findById(String index, Class<T> tClass, String id) throws Exception {
-        GetRequest getRequest = new GetRequest(index).id(id);
-        GetResponse getResponse = client.get(getRequest, RequestOptions.DEFAULT);
-        Map<String, Object> resultMap = getResponse.getSource();
-        return mapper.convertValue(resultMap, tClass);
+        return cache.get(index, id, tClass, () -> {
+            GetRequest getRequest = new GetRequest(index).id(id);
+            GetResponse getResponse = metrics.record("findById", index, options -> client.get(getRequest, options));
+            Map<String, Object> resultMap = getResponse.getSource();
+            T document = mapper.convertValue(resultMap, tClass);
+            if( document instanceof ElasticElement ){
+                ((ElasticElement)document).setSeqNo(getResponse.getSeqNo());
+                ((ElasticElement)document).setPrimaryTerm(getResponse.getPrimaryTerm());
+            }
+            return document;
+        });
     }
 
     protected boolean existsId(String index, String id) throws Exception {
+        Boolean cached = cache.exists(index, id);
+        if( cached != null ) return cached;
+
         GetRequest getRequest = new GetRequest(index, id);
         getRequest.fetchSourceContext(new FetchSourceContext(false));
         getRequest.storedFields("_none_");
-        return client.exists(getRequest, RequestOptions.DEFAULT);
+        return metrics.record("existsId", index, options -> client.exists(getRequest, options));
     }
 
     ///////////////////////////////////////////////////////////////
 
-    // DS.hadId(id..)
+    // DS.hadId(id..) : multi-get (not limited by index.max_result_window)
     protected <T> List<T> findByIds(String index, Class<T> tClass, String[] ids) throws Exception {
-        // match to datasource
-        IdsQueryBuilder queryBuilder = QueryBuilders.idsQuery().addIds(ids);
-        // search
-        return doSearch(index, ids.length, queryBuilder, client, mapper, tClass);
+        return findByIds(index, tClass, ids, null);
+    }
+
+    protected <T> List<T> findByIds(String index, Class<T> tClass, String[] ids, String[] includes) throws Exception {
+        try{
+            return findByIdsAsync(index, tClass, ids, includes).get();
+        }
+        catch (ExecutionException | CompletionException e){
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
     }
 
     protected <T> List<T> findByLabel(String index, Class<T> tClass, int size, String label) throws Exception {
@@ -155,26 +348,35 @@ public class ElasticElementService {
         BoolQueryBuilder queryBuilder = QueryBuilders.boolQuery()
                 .filter(termQuery("label", label));
         // search
-        return doSearch(index, size, queryBuilder, client, mapper, tClass);
+        return doSearch("findByLabel", index, size, queryBuilder, client, mapper, tClass);
     }
 
     // DS.V(), DS.E()
     protected <T> List<T> findByDatasource(String index, Class<T> tClass, int size, String datasource) throws Exception {
+        return findByDatasource(index, tClass, size, datasource, BaseProjection.FULL);
+    }
+
+    protected <T> List<T> findByDatasource(String index, Class<T> tClass, int size, String datasource, BaseProjection projection) throws Exception {
         // match to datasource
         BoolQueryBuilder queryBuilder = QueryBuilders.boolQuery()
                 .filter(termQuery("datasource", datasource));
         // search
-        return doSearch(index, size, queryBuilder, client, mapper, tClass);
+        return project(doSearch("findByDatasource", index, size, queryBuilder, sourceIncludes(projection), tClass), projection);
     }
 
     // DS.hasLabel(label..)
     protected <T> List<T> findByDatasourceAndLabels(String index, Class<T> tClass, int size, String datasource, String[] labels) throws Exception {
+        return findByDatasourceAndLabels(index, tClass, size, datasource, labels, BaseProjection.FULL);
+    }
+
+    protected <T> List<T> findByDatasourceAndLabels(String index, Class<T> tClass, int size, String datasource, String[] labels
+            , BaseProjection projection) throws Exception {
         // match to datasource
         BoolQueryBuilder queryBuilder = QueryBuilders.boolQuery()
                 .filter(termQuery("datasource", datasource))
                 .filter(termsQuery("label", labels));
         // search
-        return doSearch(index, size, queryBuilder, client, mapper, tClass);
+        return project(doSearch("findByDatasourceAndLabels", index, size, queryBuilder, sourceIncludes(projection), tClass), projection);
     }
 
     // DS.hasKey(key..)
@@ -191,7 +393,7 @@ public class ElasticElementService {
                     ), ScoreMode.Max));
         }
         // search
-        return doSearch(index, size, queryBuilder, client, mapper, tClass);
+        return doSearch("findByDatasourceAndPropertyKeys", index, size, queryBuilder, client, mapper, tClass);
     }
 
     // DS.has(key)
@@ -205,7 +407,7 @@ public class ElasticElementService {
                             termQuery("properties.key", key)
                         ), ScoreMode.Avg));
         // search
-        return doSearch(index, size, queryBuilder, client, mapper, tClass);
+        return doSearch("findByDatasourceAndPropertyKey", index, size, queryBuilder, client, mapper, tClass);
     }
 
     // DS.hasNot(key)
@@ -219,32 +421,18 @@ public class ElasticElementService {
                             termQuery("properties.key", key)
                         ), ScoreMode.Avg));
         // search
-        return doSearch(index, size, queryBuilder, client, mapper, tClass);
+        return doSearch("findByDatasourceAndPropertyKeyNot", index, size, queryBuilder, client, mapper, tClass);
     }
 
     // DS.hasValue(value..)
     protected <T> List<T> findByDatasourceAndPropertyValues(
             String index, Class<T> tClass, int size, String datasource, String[] values) throws Exception{
-        // define : nested query
+        // define : nested query, full match with lowercase (AND)
         BoolQueryBuilder queryBuilder = QueryBuilders.boolQuery()
                 .filter(termQuery("datasource", datasource));
-        // AND
-        for( String value : values ) {
-            queryBuilder = queryBuilder.must(QueryBuilders.nestedQuery("properties",
-                    QueryBuilders.boolQuery().must(
-                        QueryBuilders.queryStringQuery("properties.value:\"" + value.toLowerCase() + "\"")
-                    ), ScoreMode.Total));
-        }
+        queryBuilder = ElasticHelper.addQueryValues(queryBuilder, values);
         // search
-        List<T> list = doSearch(index, size, queryBuilder, client, mapper, tClass);
-        // compare two values by full match with lowercase
-        List<String> fvalues = Arrays.asList(values).stream().map(String::toLowerCase).collect(Collectors.toList());
-        List<T> filteredList = new ArrayList<>();
-        for( T item : list ){
-            List<String> pvalues = ((ElasticElement)item).getProperties().stream().map(p->p.getValue().toLowerCase()).collect(Collectors.toList());
-            if( pvalues.containsAll(fvalues) ) filteredList.add(item);
-        }
-        return filteredList;
+        return doSearch("findByDatasourceAndPropertyValues", index, size, queryBuilder, client, mapper, tClass);
     }
 
     // DS.hasValuePartial(value)
@@ -259,53 +447,30 @@ public class ElasticElementService {
                             QueryBuilders.queryStringQuery("properties.value:*"+value.toLowerCase()+"*")
                         ), ScoreMode.Avg));
         // search
-        return doSearch(index, size, queryBuilder, client, mapper, tClass);
+        return doSearch("findByDatasourceAndPropertyValuePartial", index, size, queryBuilder, client, mapper, tClass);
     }
 
     // DS.has(key,value)
     protected <T> List<T> findByDatasourceAndPropertyKeyValue(
             String index, Class<T> tClass, int size, String datasource, String key, String value) throws Exception{
-        // define : nested query
+        // define : nested query, full match of value with lowercase
         BoolQueryBuilder queryBuilder = QueryBuilders.boolQuery()
-                .filter(termQuery("datasource", datasource))
-                .must(QueryBuilders.nestedQuery("properties", QueryBuilders.boolQuery()
-                            .must(termQuery("properties.key", key.toLowerCase()))
-                            .must(QueryBuilders.queryStringQuery("properties.value:\""+value.toLowerCase()+"\""))
-                    , ScoreMode.Total));
-                ;
+                .filter(termQuery("datasource", datasource));
+        queryBuilder = ElasticHelper.addQueryKeyValue(queryBuilder, key, value);
         // search
-        List<T> list = doSearch(index, size, queryBuilder, client, mapper, tClass);
-        return list.stream().filter(r-> {
-            for(ElasticProperty p : ((ElasticElement)r).getProperties()){
-                if( p.getKey().equals(key) ){
-                    if( p.getValue().equalsIgnoreCase(value) ) return true;
-                }
-            }
-            return false;
-        }).collect(Collectors.toList());
+        return doSearch("findByDatasourceAndPropertyKeyValue", index, size, queryBuilder, client, mapper, tClass);
     }
 
     // DS.has(label,key,value)
     protected <T> List<T> findByDatasourceAndLabelAndPropertyKeyValue(
             String index, Class<T> tClass, int size, String datasource, String label, String key, String value) throws Exception{
-        // define : nested query
+        // define : nested query, full match of value with lowercase
         BoolQueryBuilder queryBuilder = QueryBuilders.boolQuery()
                 .filter(termQuery("datasource", datasource))
-                .filter(termQuery("label", label))
-                .must(QueryBuilders.nestedQuery("properties", QueryBuilders.boolQuery()
-                            .must(termQuery("properties.key", key.toLowerCase()))
-                            .must(QueryBuilders.queryStringQuery("properties.value:\""+value.toLowerCase()+"\""))
-                    , ScoreMode.Total));
+                .filter(termQuery("label", label));
+        queryBuilder = ElasticHelper.addQueryKeyValue(queryBuilder, key, value);
         // search
-        List<T> list = doSearch(index, size, queryBuilder, client, mapper, tClass);
-        return list.stream().filter(r-> {
-            for(ElasticProperty p : ((ElasticElement)r).getProperties()){
-                if( p.getKey().equals(key) ){
-                    if( p.getValue().equalsIgnoreCase(value) ) return true;
-                }
-            }
-            return false;
-        }).collect(Collectors.toList());
+        return doSearch("findByDatasourceAndLabelAndPropertyKeyValue", index, size, queryBuilder, client, mapper, tClass);
     }
 
     ///////////////////////////////////////////////////////////////
@@ -316,6 +481,29 @@ public class ElasticElementService {
             , String key, String keyNot, String[] keys
             , String[] values, Map<String,String> kvPairs) throws Exception {
 
+        // stored template of shape : id and params only
+        ElasticQueryTemplates.Compiled compiled = templates.compile(datasource, size, label, labels, key, keyNot, keys, values, kvPairs);
+        if( compiled != null ){
+            try{
+                String id = compiled.stored.get();
+                return reader.searchTemplate("findByHasContainers", index, id, compiled.params, tClass);
+            }
+            catch (ExecutionException | IOException e){
+                // not stored, script is gone (forgotten), or busy/timeout (kept) : inline query
+                templates.forgetIfMissing(compiled, e);
+            }
+        }
+
+        BoolQueryBuilder qb = hasContainersQuery(datasource, label, labels, key, keyNot, keys, values, kvPairs);
+        // search : values, key-values are matched exactly by elasticsearch (no post filters)
+        return doSearch("findByHasContainers", index, size, qb, client, mapper, tClass);
+    }
+
+    protected static BoolQueryBuilder hasContainersQuery(String datasource
+            , String label, String[] labels
+            , String key, String keyNot, String[] keys
+            , String[] values, Map<String,String> kvPairs) {
+
         // init
         BoolQueryBuilder qb = ElasticHelper.addQueryDs(QueryBuilders.boolQuery(), datasource);
         // AND hasCondition
@@ -330,56 +518,351 @@ public class ElasticElementService {
                 qb = ElasticHelper.addQueryKeyValue(qb, kv.getKey(), kv.getValue());
             }
         }
+        return qb;
+    }
 
-        // search
-        List<T> list = doSearch(index, size, qb, client, mapper, tClass);
-
-        // post filters
-        if( values != null && values.length > 0 ){
-            // compare two values by full match with lowercase
-            List<String> fvalues = Arrays.asList(values).stream().map(String::toLowerCase).collect(Collectors.toList());
-            List<T> temp = new ArrayList<>();
-            for( T item : list ){
-                List<String> pvalues = ((ElasticElement)item).getProperties().stream().map(p->p.getValue().toLowerCase()).collect(Collectors.toList());
-                if( pvalues.containsAll(fvalues) ) temp.add(item);
+    ///////////////////////////////////////////////////////////////
+    // sliced scroll : one slice of datasource, raw _source as NDJSON (no deserialization)
+    // https://www.elastic.co/guide/en/elasticsearch/reference/7.3/search-request-body.html#sliced-scroll
+
+    protected long exportSlice(String index, ElasticExportJob job, int sliceId) throws Exception {
+        ElasticGraphProperties.Export config = properties.getExport();
+        TimeValue keepAlive = TimeValue.timeValueSeconds(config.getKeepAliveSeconds());
+
+        BoolQueryBuilder queryBuilder = ElasticHelper.addQueryDs(QueryBuilders.boolQuery(), job.getDatasource());
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
+                .query(queryBuilder)
+                .size(config.getPageSize())
+                .sort("_doc");          // index order : cheapest for scroll
+        if( job.getSlices() > 1 ) searchSourceBuilder.slice(new SliceBuilder(sliceId, job.getSlices()));
+
+        SearchRequest searchRequest = new SearchRequest(index);
+        searchRequest.source(searchSourceBuilder);
+        searchRequest.scroll(keepAlive);
+
+        long docs = 0L;
+        String scrollId = null;
+        try( OutputStream out = new BufferedOutputStream(Files.newOutputStream(job.getPartFile(index, sliceId))) ){
+            SearchResponse response = metrics.record("exportSlice", index, options -> client.search(searchRequest, options));
+            scrollId = response.getScrollId();
+            SearchHit[] hits = response.getHits().getHits();
+            while( hits.length > 0 ){
+                long bytes = 0L;
+                for(SearchHit hit : hits){
+                    BytesReference source = hit.getSourceRef();
+                    source.writeTo(out);
+                    out.write('\n');
+                    bytes += source.length() + 1;
+                }
+                docs += hits.length;
+                job.progress(hits.length, bytes);
+
+                SearchScrollRequest scrollRequest = new SearchScrollRequest(scrollId);
+                scrollRequest.scroll(keepAlive);
+                response = metrics.record("exportSlice", index, options -> client.scroll(scrollRequest, options));
+                scrollId = response.getScrollId();
+                hits = response.getHits().getHits();
             }
-            list = temp;
         }
-        if( kvPairs != null && kvPairs.size() > 0 ){
-            List<T> temp = list;
-            for(Map.Entry<String,String> kv : kvPairs.entrySet()){
-                temp = temp.stream().filter(r-> {
-                    for(ElasticProperty p : ((ElasticElement)r).getProperties()){
-                        if( p.getKey().equals(kv.getKey()) ){
-                            if( p.getValue().equalsIgnoreCase(kv.getValue()) ) return true;
-                        }
-                    }
-                    return false;
-                }).collect(Collectors.toList());
+        finally {
+            if( scrollId != null ){
+                ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+                clearScrollRequest.addScrollId(scrollId);
+                try{ metrics.record("clearScroll", index, options -> client.clearScroll(clearScrollRequest, options)); }
+                catch (Exception e){ /* expires by keepAlive */ }
             }
-            list = temp;
         }
-        return list;
+        return docs;
+    }
+
+    ///////////////////////////////////////////////////////////////
+    // projection : _source fields of shape (null : whole document)
+
+    protected String[] sourceIncludes(BaseProjection projection) {
+        if( projection == null || projection.isFull() ) return null;
+        List<String> includes = new ArrayList<>();
+        includes.add("id");
+        if( projection.getShape() != BaseProjection.Shape.ID ) includes.add("label");
+        if( projection.getShape() == BaseProjection.Shape.KEYS ){
+            includes.add("datasource");
+            includes.add("properties");
+        }
+        return includes.toArray(new String[0]);
     }
 
-    protected final <T> List<T> getSearchResult(SearchResponse response, ObjectMapper mapper, Class<T> tClass) {
-        SearchHit[] searchHit = response.getHits().getHits();
-        List<T> documents = new ArrayList<>();
-        for (SearchHit hit : searchHit){
-            documents.add(mapper.convertValue(hit.getSourceAsMap(), tClass));
+    // KEYS : properties of other keys are dropped after fetch (nested array is not filtered by _source)
+    protected static <T> List<T> project(List<T> list, BaseProjection projection) {
+        if( projection == null || projection.getShape() != BaseProjection.Shape.KEYS ) return list;
+        for( T item : list ){
+            ((ElasticElement)item).getProperties().removeIf(p -> !projection.getKeys().contains(p.getKey()));
         }
-        return documents;
+        return list;
+    }
+
+    ///////////////////////////////////////////////////////////////
+    // lazy iteration : no size limit (search_after)
+
+    protected <T> Iterator<T> scan(String index, Class<T> tClass, QueryBuilder queryBuilder) {
+        return scan(index, tClass, queryBuilder, null);
+    }
+
+    // includes : fields of _source only (ex: sid, tid of edges)
+    protected <T> Iterator<T> scan(String index, Class<T> tClass, QueryBuilder queryBuilder, String[] includes) {
+        return scan(index, tClass, queryBuilder, includes, -1);
+    }
+
+    // limit : documents fetched at most (-1 : no limit), last pages are cut to it
+    protected <T> Iterator<T> scan(String index, Class<T> tClass, QueryBuilder queryBuilder, String[] includes, long limit) {
+        return new ElasticSearchAfterIterator<>(reader, index, tClass, queryBuilder, includes, properties.getScan().getPageSize(), limit);
+    }
+
+    // wanted : documents caller still takes (ex: budget left), pages are cut to it
+    protected <T> Iterator<T> scan(String index, Class<T> tClass, QueryBuilder queryBuilder, String[] includes, LongSupplier wanted) {
+        return new ElasticSearchAfterIterator<>(reader, index, tClass, queryBuilder, includes, properties.getScan().getPageSize(), wanted);
+    }
+
+    protected <T> Stream<T> stream(String index, Class<T> tClass, QueryBuilder queryBuilder) {
+        return stream(index, tClass, queryBuilder, -1);
+    }
+
+    protected <T> Stream<T> stream(String index, Class<T> tClass, QueryBuilder queryBuilder, long limit) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                scan(index, tClass, queryBuilder, null, limit), Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    protected <T> Stream<T> streamByDatasource(String index, Class<T> tClass, String datasource) {
+        BoolQueryBuilder queryBuilder = ElasticHelper.addQueryDs(QueryBuilders.boolQuery(), datasource);
+        return stream(index, tClass, queryBuilder);
+    }
+
+    protected <T extends ElasticElement> Stream<T> streamByHasContainers(
+            String index, Class<T> tClass, String datasource
+            , String label, String[] labels
+            , String key, String keyNot, String[] keys
+            , String[] values, Map<String,String> kvPairs) {
+        BoolQueryBuilder qb = hasContainersQuery(datasource, label, labels, key, keyNot, keys, values, kvPairs);
+        return stream(index, tClass, qb);
     }
 
-    protected final <T> List<T> doSearch(String index, int size, QueryBuilder queryBuilder
+    protected final <T> List<T> doSearch(String operation, String index, int size, QueryBuilder queryBuilder
             , RestHighLevelClient client, ObjectMapper mapper, Class<T> tClass) throws Exception {
-        SearchRequest searchRequest = new SearchRequest(index);
+        return doSearch(operation, index, size, queryBuilder, null, tClass);
+    }
+
+    // includes : fields of _source only (null : whole document)
+    // hits are bound by ElasticSearchReader (streaming, no SearchResponse)
+    protected final <T> List<T> doSearch(String operation, String index, int size, QueryBuilder queryBuilder
+            , String[] includes, Class<T> tClass) throws Exception {
         SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
         searchSourceBuilder.query(queryBuilder);
         searchSourceBuilder.size(size);
-        searchRequest.source(searchSourceBuilder);
-        SearchResponse response = client.search(searchRequest, RequestOptions.DEFAULT);
-        return getSearchResult(response, mapper, tClass);
+        if( includes != null ) searchSourceBuilder.fetchSource(includes, null);
+        return reader.search(operation, index, searchSourceBuilder, tClass);
+    }
+
+    ///////////////////////////////////////////////////////////////
+    // async services : callbacks of RestHighLevelClient => CompletableFuture
+
+    protected static <R> ActionListener<R> listener(CompletableFuture<R> future) {
+        return ActionListener.<R>wrap(future::complete, future::completeExceptionally);
+    }
+
+    protected CompletableFuture<Long> countAsync(String index, String datasource) {
+        BoolQueryBuilder queryBuilder = ElasticHelper.addQueryDs(QueryBuilders.boolQuery(), datasource);
+        CountRequest countRequest = new CountRequest().indices(index);
+        countRequest.source(new SearchSourceBuilder().query(queryBuilder));
+
+        CompletableFuture<CountResponse> future = new CompletableFuture<>();
+        metrics.recordAsync("countAsync", index, (options, l) -> client.countAsync(countRequest, options, l), listener(future));
+        return future.thenApply(CountResponse::getCount);
+    }
+
+    // null if not found
+    //   ==> reads cache, but does not fill it (only sync load is atomic with invalidation)
+    protected <T> CompletableFuture<T> findByIdAsync(String index, Class<T> tClass, String id) {
+        Optional<T> cached = cache.getIfPresent(index, id, tClass);
+        if( cached != null ) return CompletableFuture.completedFuture(cached.orElse(null));
+
+        GetRequest getRequest = new GetRequest(index).id(id);
+        CompletableFuture<GetResponse> future = new CompletableFuture<>();
+        metrics.recordAsync("findByIdAsync", index, (options, l) -> client.getAsync(getRequest, options, l), listener(future));
+        return future.thenApply(getResponse -> {
+            T document = mapper.convertValue(getResponse.getSource(), tClass);
+            if( document instanceof ElasticElement ){
+                ((ElasticElement)document).setSeqNo(getResponse.getSeqNo());
+                ((ElasticElement)document).setPrimaryTerm(getResponse.getPrimaryTerm());
+            }
+            return document;
+        });
+    }
+
+    protected CompletableFuture<Boolean> existsIdAsync(String index, String id) {
+        Boolean cached = cache.exists(index, id);
+        if( cached != null ) return CompletableFuture.completedFuture(cached);
+
+        GetRequest getRequest = new GetRequest(index, id);
+        getRequest.fetchSourceContext(new FetchSourceContext(false));
+        getRequest.storedFields("_none_");
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        metrics.recordAsync("existsIdAsync", index, (options, l) -> client.existsAsync(getRequest, options, l), listener(future));
+        return future;
+    }
+
+    protected <T> CompletableFuture<List<T>> findByIdsAsync(String index, Class<T> tClass, String[] ids) {
+        return findByIdsAsync(index, tClass, ids, null);
+    }
+
+    // chunks of mget run concurrently (up to mget.max-in-flight of all callers), found documents in order of ids (duplicates once)
+    //   ==> cached documents are not fetched again (whole documents only, includes : _source fields)
+    protected <T> CompletableFuture<List<T>> findByIdsAsync(String index, Class<T> tClass, String[] ids, String[] includes) {
+        Map<String, T> found = new ConcurrentHashMap<>();
+        List<String> ordered = new ArrayList<>(new LinkedHashSet<>(Arrays.asList(ids)));
+        List<String> missed = new ArrayList<>();
+        for( String id : ordered ){
+            Optional<T> cached = includes == null ? cache.getIfPresent(index, id, tClass) : null;
+            if( cached == null ) missed.add(id);
+            else cached.ifPresent(document -> found.put(id, document));
+        }
+
+        FetchSourceContext fetchSource = includes == null ? FetchSourceContext.FETCH_SOURCE
+                : new FetchSourceContext(true, includes, null);
+        int chunkSize = Math.max(1, properties.getMget().getChunkSize());
+        List<CompletableFuture<Void>> chunks = new ArrayList<>();
+        for( int from = 0; from < missed.size(); from += chunkSize ){
+            MultiGetRequest request = new MultiGetRequest();
+            for( String id : missed.subList(from, Math.min(from + chunkSize, missed.size())) ){
+                request.add(new MultiGetRequest.Item(index, id).fetchSourceContext(fetchSource));
+            }
+            CompletableFuture<MultiGetResponse> sent = mgets.submit(() -> {
+                CompletableFuture<MultiGetResponse> future = new CompletableFuture<>();
+                metrics.recordAsync("findByIds", index, (options, l) -> client.mgetAsync(request, options, l), listener(future));
+                return future;
+            });
+            chunks.add(sent.thenAccept(response -> {
+                for( MultiGetItemResponse item : response.getResponses() ){
+                    if( item.isFailed() || !item.getResponse().isExists() ) continue;
+                    GetResponse getResponse = item.getResponse();
+                    T document = mapper.convertValue(getResponse.getSource(), tClass);
+                    if( document instanceof ElasticElement ){
+                        ((ElasticElement)document).setSeqNo(getResponse.getSeqNo());
+                        ((ElasticElement)document).setPrimaryTerm(getResponse.getPrimaryTerm());
+                    }
+                    found.put(getResponse.getId(), document);
+                }
+            }));
+        }
+
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0])).thenApply(r ->
+                ordered.stream().map(found::get).filter(Objects::nonNull).collect(Collectors.toList()));
+    }
+
+    protected <T> CompletableFuture<List<T>> findByHasContainersAsync(
+            String index, Class<T> tClass, int size, String datasource
+            , String label, String[] labels
+            , String key, String keyNot, String[] keys
+            , String[] values, Map<String,String> kvPairs) {
+        ElasticQueryTemplates.Compiled compiled = templates.compile(datasource, size, label, labels, key, keyNot, keys, values, kvPairs);
+        if( compiled == null ){
+            BoolQueryBuilder qb = hasContainersQuery(datasource, label, labels, key, keyNot, keys, values, kvPairs);
+            return doSearchAsync("findByHasContainersAsync", index, size, qb, tClass);
+        }
+        // stored template of shape, or inline query if not stored or script is gone
+        return compiled.stored
+                .thenCompose(id -> reader.searchTemplateAsync("findByHasContainersAsync", index, id, compiled.params, tClass))
+                .handle((hits, e) -> {
+                    if( e == null ) return CompletableFuture.completedFuture(hits.documents);
+                    templates.forgetIfMissing(compiled, e);
+                    BoolQueryBuilder qb = hasContainersQuery(datasource, label, labels, key, keyNot, keys, values, kvPairs);
+                    return doSearchAsync("findByHasContainersAsync", index, size, qb, tClass);
+                })
+                .thenCompose(future -> future);
+    }
+
+    protected CompletableFuture<String> upsertDocumentAsync(String index, ElasticElement document, Long ifSeqNo, Long ifPrimaryTerm) {
+        if( document.getId() == null || document.getId().isEmpty() ){
+            UUID uuid = UUID.randomUUID();      // random document_id
+            document.setId(uuid.toString());
+        }
+
+        if( ifSeqNo != null && ifPrimaryTerm != null ){
+            IndexRequest indexRequest = conditionalRequest(index, document, ifSeqNo, ifPrimaryTerm);
+            CompletableFuture<IndexResponse> future = new CompletableFuture<>();
+            metrics.recordAsync("upsertDocumentAsync", index, (options, l) -> client.indexAsync(indexRequest, options, l), listener(future));
+            return future.thenApply(indexResponse -> upserted(index, document, indexResponse));
+        }
+        UpdateRequest updateRequest = upsertRequest(index, document);
+        CompletableFuture<UpdateResponse> future = new CompletableFuture<>();
+        metrics.recordAsync("upsertDocumentAsync", index, (options, l) -> client.updateAsync(updateRequest, options, l), listener(future));
+        return future.thenApply(updateResponse -> upserted(index, document, updateResponse));
+    }
+
+    // bulk requests split by elasticgraph.bulk.actions and size-mb, up to concurrent-requests in flight
+    //   (no BulkProcessor : rejected items are reported as failed, not retried)
+    //   : report of id => failure message (null if saved)
+    protected CompletableFuture<Map<String, String>> bulkDocumentsAsync(String index, Collection<? extends ElasticElement> documents) {
+        ElasticGraphProperties.Bulk config = properties.getBulk();
+        int maxActions = config.getActions() > 0 ? config.getActions() : Integer.MAX_VALUE;
+        long maxBytes = config.getSizeMb() > 0 ? config.getSizeMb() * 1024 * 1024 : Long.MAX_VALUE;
+
+        Map<String, String> report = new LinkedHashMap<>();
+        List<BulkRequest> bulkRequests = new ArrayList<>();
+        BulkRequest bulkRequest = new BulkRequest();
+        for( ElasticElement document : documents ){
+            if( document.getId() == null || document.getId().isEmpty() ){
+                UUID uuid = UUID.randomUUID();      // random document_id
+                document.setId(uuid.toString());
+            }
+            report.put(document.getId(), NOT_ANSWERED);
+            bulkRequest.add(new UpdateRequest(index, document.getId())
+                    .doc( toSource(mapper, document) )
+                    .docAsUpsert(true));
+            if( bulkRequest.numberOfActions() >= maxActions || bulkRequest.estimatedSizeInBytes() >= maxBytes ){
+                bulkRequests.add(bulkRequest);
+                bulkRequest = new BulkRequest();
+            }
+        }
+        if( bulkRequest.numberOfActions() > 0 ) bulkRequests.add(bulkRequest);
+        if( bulkRequests.isEmpty() )
+            return CompletableFuture.completedFuture(Collections.emptyMap());
+
+        AsyncPermits bulks = new AsyncPermits(Math.max(1, config.getConcurrentRequests()));
+        List<CompletableFuture<Void>> sent = new ArrayList<>();
+        for( BulkRequest request : bulkRequests ){
+            sent.add(bulks.<BulkResponse>submit(() -> {
+                CompletableFuture<BulkResponse> future = new CompletableFuture<>();
+                metrics.recordAsync("bulkDocumentsAsync", index, (options, l) -> client.bulkAsync(request, options, l), listener(future));
+                return future;
+            }).thenAccept(bulkResponse -> {
+                synchronized (report){
+                    for( BulkItemResponse item : bulkResponse.getItems() ){
+                        cache.invalidate(index, item.getId());
+                        report.put(item.getId(), item.isFailed() ? item.getFailureMessage() : null);
+                    }
+                }
+            }));
+        }
+        return CompletableFuture.allOf(sent.toArray(new CompletableFuture[0])).thenApply(r -> {
+            schemaWritten(index, documents);
+            return report;
+        });
+    }
+
+    protected CompletableFuture<String> deleteDocumentAsync(String index, String id) {
+        DeleteRequest deleteRequest = new DeleteRequest(index).id(id);
+        CompletableFuture<DeleteResponse> future = new CompletableFuture<>();
+        metrics.recordAsync("deleteDocumentAsync", index, (options, l) -> client.deleteAsync(deleteRequest, options, l), listener(future));
+        return future.thenApply(response -> {
+            cache.invalidate(index, id);
+            schema.invalidate(index);
+            return response.getResult().name();
+        });
+    }
+
+    protected final <T> CompletableFuture<List<T>> doSearchAsync(String operation, String index, int size, QueryBuilder queryBuilder, Class<T> tClass) {
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+        searchSourceBuilder.query(queryBuilder);
+        searchSourceBuilder.size(size);
+        return reader.searchAsync(operation, index, searchSourceBuilder, tClass).thenApply(hits -> hits.documents);
     }
 
 }
@@ -0,0 +1,101 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.repository;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+// progress of sliced scroll export : counters are shared by all slice workers
+public final class ElasticExportJob {
+
+    public enum State { RUNNING, DONE, FAILED };
+
+    private final String id = UUID.randomUUID().toString();
+    private final String datasource;
+    private final int slices;
+    private final long total;
+    private final Path dir;
+    private final long started = System.currentTimeMillis();
+
+    private final AtomicLong docs = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile State state = State.RUNNING;
+    private volatile String error = null;
+    private volatile long finished = 0L;
+
+    public ElasticExportJob(String datasource, int slices, long total, Path dir) {
+        this.datasource = datasource;
+        this.slices = slices;
+        this.total = total;
+        this.dir = dir;
+    }
+
+    public String getId() { return id; }
+    public String getDatasource() { return datasource; }
+    public int getSlices() { return slices; }
+    public State getState() { return state; }
+
+    // merged output : vertices first, then edges (same format with import)
+    public Path getFile() { return dir.resolve(id + ".ndjson"); }
+    public Path getPartFile(String index, int sliceId) { return dir.resolve(id + "." + index + "." + sliceId + ".part"); }
+
+    // finished (done or failed) longer than ttl ago : job and its files can be dropped
+    public boolean isExpired(long now, long ttlMillis) {
+        return state != State.RUNNING && finished > 0 && now - finished >= ttlMillis;
+    }
+
+    // merged output and part files left (ex: failed while merging)
+    public void deleteFiles() throws IOException {
+        deleteFiles(dir, id);
+    }
+
+    // files of job id : <id>.ndjson, <id>.<index>.<slice>.part
+    public static void deleteFiles(Path dir, String id) throws IOException {
+        if( !Files.isDirectory(dir) ) return;
+        try( DirectoryStream<Path> files = Files.newDirectoryStream(dir, id + ".*") ){
+            for( Path file : files ) Files.deleteIfExists(file);
+        }
+    }
+
+    void progress(long docs, long bytes) {
+        this.docs.addAndGet(docs);
+        this.bytes.addAndGet(bytes);
+    }
+
+    public void done() {
+        this.finished = System.currentTimeMillis();
+        this.state = State.DONE;
+    }
+    public void failed(Throwable e) {
+        this.finished = System.currentTimeMillis();
+        this.error = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+        this.state = State.FAILED;
+    }
+
+    public String toJson() {
+        long elapsed = Math.max(1L, (finished > 0 ? finished : System.currentTimeMillis()) - started);
+        long docs = this.docs.get(), bytes = this.bytes.get();
+
+        Gson gson = new Gson();
+        JsonObject object = new JsonObject();
+        object.addProperty("id", id);
+        object.addProperty("datasource", datasource);
+        object.addProperty("slices", slices);
+        object.addProperty("state", state.name());
+        object.addProperty("docs", docs);
+        object.addProperty("total", total);
+        object.addProperty("percent", total > 0 ? Math.min(100.0, docs * 100.0 / total) : 100.0);
+        object.addProperty("bytes", bytes);
+        object.addProperty("elapsedMs", elapsed);
+        object.addProperty("docsPerSec", docs * 1000.0 / elapsed);
+        object.addProperty("bytesPerSec", bytes * 1000.0 / elapsed);
+        if( error != null ) object.addProperty("error", error);
+        return gson.toJson(object);
+    }
+
+}
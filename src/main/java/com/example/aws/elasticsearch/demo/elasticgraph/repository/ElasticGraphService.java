@@ -1,13 +1,21 @@
 package com.example.aws.elasticsearch.demo.elasticgraph.repository;
 
+import com.example.aws.elasticsearch.demo.config.ElasticGraphProperties;
+import com.example.aws.elasticsearch.demo.config.ElasticMetrics;
+import com.example.aws.elasticsearch.demo.elasticgraph.util.ElasticHelper;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.lucene.search.join.ScoreMode;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.support.master.AcknowledgedResponse;
-import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.indices.CreateIndexRequest;
 import org.elasticsearch.client.indices.GetIndexRequest;
@@ -29,6 +37,7 @@ import java.io.FileNotFoundException;
 import java.nio.file.Files;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static org.elasticsearch.index.query.QueryBuilders.termQuery;
 
@@ -43,13 +52,32 @@ public class ElasticGraphService {
 
     private RestHighLevelClient client;
     private ObjectMapper objectMapper;
+    private ElasticMetrics metrics;
+    private ElasticSchemaCache schema;
 
     public ElasticGraphService(
             RestHighLevelClient client,     // elasticsearch config
-            ObjectMapper objectMapper       // spring boot web starter
+            ObjectMapper objectMapper,      // spring boot web starter
+            ElasticGraphProperties properties,
+            ElasticMetrics metrics
     ) {
         this.client = client;
         this.objectMapper = objectMapper;
+        this.metrics = metrics;
+        this.schema = new ElasticSchemaCache(properties.getSchema(), (index, datasource, label) -> label == null
+                ? aggregateLabels(index, datasource) : aggregateLabelKeys(index, datasource, label));
+        this.schema.bindTo(metrics.registry());
+    }
+
+    // write paths of element services adjust or invalidate it
+    public ElasticSchemaCache schemaCache() {
+        return schema;
+    }
+
+    // bulk writes outside of element services (import)
+    public void invalidateSchema(String datasource) {
+        schema.invalidate(INDEX_VERTEX, datasource);
+        schema.invalidate(INDEX_EDGE, datasource);
     }
 
     ///////////////////////////////////////////////////////////////
@@ -57,7 +85,7 @@ public class ElasticGraphService {
     // check if exists index
     private boolean checkExistsIndex(String index) throws  Exception {
         GetIndexRequest request = new GetIndexRequest(index);
-        return client.indices().exists(request, RequestOptions.DEFAULT);
+        return metrics.record("existsIndex", index, options -> client.indices().exists(request, options));
     }
 
     private String readMappings(String index) throws Exception {
@@ -75,22 +103,26 @@ public class ElasticGraphService {
         request.settings(Settings.builder()
                 .put("index.number_of_shards", 2)
                 .put("index.number_of_replicas", 0)
+                // properties.value.exact : case insensitive exact match
+                .put("index.analysis.normalizer.lowercase_normalizer.type", "custom")
+                .putList("index.analysis.normalizer.lowercase_normalizer.filter", "lowercase")
         );
         // mappings
         request.mapping(readMappings(index), XContentType.JSON);
 
-        AcknowledgedResponse indexResponse = client.indices().create(request, RequestOptions.DEFAULT);
+        AcknowledgedResponse indexResponse = metrics.record("createIndex", index, options -> client.indices().create(request, options));
         return indexResponse.isAcknowledged();
     }
 
     private boolean removeIndex(String index) throws Exception {
         DeleteIndexRequest request = new DeleteIndexRequest(index);
-        AcknowledgedResponse indexResponse = client.indices().delete(request, RequestOptions.DEFAULT);
+        AcknowledgedResponse indexResponse = metrics.record("removeIndex", index, options -> client.indices().delete(request, options));
         return indexResponse.isAcknowledged();
     }
 
     public boolean resetIndex() throws Exception {
         boolean result = true;
+        schema.invalidateAll();
 
         if( checkExistsIndex(INDEX_VERTEX) ) removeIndex(INDEX_VERTEX);
         result &= createIndex(INDEX_VERTEX);
@@ -103,7 +135,21 @@ public class ElasticGraphService {
     public void ready() throws Exception {
         // if not exists index, create index
         if( !checkExistsIndex(INDEX_VERTEX) ) createIndex(INDEX_VERTEX);
+        else checkExactValues(INDEX_VERTEX);
         if( !checkExistsIndex(INDEX_EDGE) ) createIndex(INDEX_EDGE);
+        else checkExactValues(INDEX_EDGE);
+    }
+
+    // index created by older mappings : value filters match nothing until reset (normalizer needs new index)
+    private void checkExactValues(String index) throws Exception {
+        Request request = new Request("GET", "/"+index+"/_mapping/field/"+ElasticHelper.VALUE_EXACT);
+        Response response = metrics.record("getFieldMapping", index, options -> {
+            request.setOptions(options);
+            return client.getLowLevelClient().performRequest(request);
+        });
+        JsonNode node = objectMapper.readTree(response.getEntity().getContent());
+        if( !node.path(index).path("mappings").has(ElasticHelper.VALUE_EXACT) )
+            log.warn("index [{}] has no {} field : reset and import datasources again", index, ElasticHelper.VALUE_EXACT);
     }
 
     //////////////////////////////////////////////
@@ -113,7 +159,23 @@ public class ElasticGraphService {
     // https://www.elastic.co/guide/en/elasticsearch/client/java-api/current/_metrics_aggregations.html
     // https://www.elastic.co/guide/en/elasticsearch/client/java-api/current/_bucket_aggregations.html
 
+    // cached by ElasticSchemaCache : aggregation runs on miss or refresh only
     public Map<String, Long> listLabels(String index, String datasource) throws Exception {
+        return schema.get(index, datasource, null);
+    }
+
+    public CompletableFuture<Map<String, Long>> listLabelsAsync(String index, String datasource) {
+        return schema.getAsync(index, datasource, null);
+    }
+
+    private CompletableFuture<Map<String, Long>> aggregateLabels(String index, String datasource) {
+        CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+        metrics.recordAsync("listLabels", index, (options, l) -> client.searchAsync(labelsRequest(index, datasource), options, l)
+                , ElasticElementService.listener(future));
+        return future.thenApply(ElasticGraphService::labelsResult);
+    }
+
+    private static SearchRequest labelsRequest(String index, String datasource) {
         // query : aggregation
         SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
         searchSourceBuilder.query(QueryBuilders.boolQuery()
@@ -123,7 +185,10 @@ public class ElasticGraphService {
         // request
         SearchRequest searchRequest = new SearchRequest(index);
         searchRequest.source(searchSourceBuilder);
-        SearchResponse searchResponse = client.search(searchRequest, RequestOptions.DEFAULT);
+        return searchRequest;
+    }
+
+    private static Map<String, Long> labelsResult(SearchResponse searchResponse) {
         // response
         Aggregations aggregations = searchResponse.getAggregations();
         Terms labels = aggregations.get("labels");
@@ -136,6 +201,21 @@ public class ElasticGraphService {
     }
 
     public Map<String, Long> listLabelKeys(String index, String datasource, String label) throws Exception {
+        return schema.get(index, datasource, label);
+    }
+
+    public CompletableFuture<Map<String, Long>> listLabelKeysAsync(String index, String datasource, String label) {
+        return schema.getAsync(index, datasource, label);
+    }
+
+    private CompletableFuture<Map<String, Long>> aggregateLabelKeys(String index, String datasource, String label) {
+        CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+        metrics.recordAsync("listLabelKeys", index, (options, l) -> client.searchAsync(labelKeysRequest(index, datasource, label), options, l)
+                , ElasticElementService.listener(future));
+        return future.thenApply(ElasticGraphService::labelKeysResult);
+    }
+
+    private static SearchRequest labelKeysRequest(String index, String datasource, String label) {
         // query : aggregation
         SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
         searchSourceBuilder.query(QueryBuilders.boolQuery()
@@ -153,7 +233,10 @@ public class ElasticGraphService {
         // request
         SearchRequest searchRequest = new SearchRequest(index);
         searchRequest.source(searchSourceBuilder);
-        SearchResponse searchResponse = client.search(searchRequest, RequestOptions.DEFAULT);
+        return searchRequest;
+    }
+
+    private static Map<String, Long> labelKeysResult(SearchResponse searchResponse) {
         // response
         Aggregations aggregations = searchResponse.getAggregations();
         Nested agg = aggregations.get("agg");
@@ -166,4 +249,58 @@ public class ElasticGraphService {
         return result;
     }
 
+    ///////////////////////////////////////////////////////////////
+    // tasks API : progress and cancel of background tasks (delete_by_query)
+    // https://www.elastic.co/guide/en/elasticsearch/reference/7.3/tasks.html
+
+    // null if unknown task
+    public String getTask(String taskId) throws Exception {
+        JsonNode node;
+        try{
+            Request request = new Request("GET", "/_tasks/"+taskId);
+            Response response = metrics.record("getTask", "_tasks", options -> {
+                request.setOptions(options);
+                return client.getLowLevelClient().performRequest(request);
+            });
+            node = objectMapper.readTree(response.getEntity().getContent());
+        }
+        catch (ResponseException e){
+            if( e.getResponse().getStatusLine().getStatusCode() == 404 ) return null;
+            throw e;
+        }
+
+        JsonNode task = node.path("task");
+        JsonNode status = task.path("status");
+        long total = status.path("total").asLong();
+        long deleted = status.path("deleted").asLong();
+
+        Gson gson = new Gson();
+        JsonObject object = new JsonObject();
+        object.addProperty("id", taskId);
+        object.addProperty("action", task.path("action").asText());
+        object.addProperty("completed", node.path("completed").asBoolean());
+        object.addProperty("cancelled", status.has("canceled"));
+        object.addProperty("total", total);
+        object.addProperty("deleted", deleted);
+        object.addProperty("versionConflicts", status.path("version_conflicts").asLong());
+        object.addProperty("percent", total > 0 ? deleted * 100.0 / total : 100.0);
+        object.addProperty("runningTimeMs", task.path("running_time_in_nanos").asLong() / 1000000L);
+        if( node.path("response").path("failures").size() > 0 )
+            object.addProperty("failures", node.path("response").path("failures").size());
+        if( node.has("error") )
+            object.addProperty("error", node.path("error").path("reason").asText());
+        return gson.toJson(object);
+    }
+
+    // cancels slice subtasks too (false if unknown or already completed)
+    public boolean cancelTask(String taskId) throws Exception {
+        Request request = new Request("POST", "/_tasks/"+taskId+"/_cancel");
+        Response response = metrics.record("cancelTask", "_tasks", options -> {
+            request.setOptions(options);
+            return client.getLowLevelClient().performRequest(request);
+        });
+        JsonNode node = objectMapper.readTree(response.getEntity().getContent());
+        return node.path("nodes").size() > 0;
+    }
+
 }
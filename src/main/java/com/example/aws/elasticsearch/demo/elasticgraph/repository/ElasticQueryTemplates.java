@@ -0,0 +1,182 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.repository;
+
+import com.example.aws.elasticsearch.demo.config.ElasticGraphProperties;
+import com.example.aws.elasticsearch.demo.config.ElasticMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.Strings;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// hasContainers queries as stored search templates (mustache) : one template per shape of conditions
+//   - shape : which of label, labels, key, keyNot are given and how many keys, values, kvPairs
+//   - template is rendered once from hasContainersQuery with placeholders and stored by PUT _scripts/<id>
+//   - calls send template id and params only (no query tree to build and serialize)
+//   - shape with more terms than max-terms, or failed store : inline query (caller)
+//   - stored script is gone (404 resource_not_found) : forgotten and stored again by next call,
+//     other failures (429, timeout) : inline query for this call only (template is kept)
+// https://www.elastic.co/guide/en/elasticsearch/reference/7.3/search-template.html#pre-registered-templates
+final class ElasticQueryTemplates {
+
+    static final String PREFIX = "elasticgraph-has-";
+    private static final String LABELS = "{{#toJson}}labels{{/toJson}}";
+    private static final Pattern LABELS_ARRAY = Pattern.compile("\\[\\s*\"" + Pattern.quote(LABELS) + "\"\\s*\\]");
+
+    // template of shape and params of one call (stored : completed with template id once stored)
+    static final class Compiled {
+        final String shape;
+        final Map<String, Object> params;
+        final CompletableFuture<String> stored;
+
+        Compiled(String shape, Map<String, Object> params, CompletableFuture<String> stored) {
+            this.shape = shape;
+            this.params = params;
+            this.stored = stored;
+        }
+    }
+
+    private final RestHighLevelClient client;
+    private final ObjectMapper mapper;
+    private final ElasticGraphProperties properties;
+    private final ElasticMetrics metrics;
+    // shape => stored template (removed if store fails or script is missing : stored again by next call)
+    private final Map<String, CompletableFuture<String>> templates = new ConcurrentHashMap<>();
+
+    ElasticQueryTemplates(RestHighLevelClient client, ObjectMapper mapper, ElasticGraphProperties properties, ElasticMetrics metrics) {
+        this.client = client;
+        this.mapper = mapper;
+        this.properties = properties;
+        this.metrics = metrics;
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    // null : templates disabled or too many terms (inline query)
+    Compiled compile(String datasource, int size
+            , String label, String[] labels
+            , String key, String keyNot, String[] keys
+            , String[] values, Map<String,String> kvPairs) {
+        ElasticGraphProperties.Templates config = properties.getTemplates();
+        int nKeys = keys == null ? 0 : keys.length;
+        int nValues = values == null ? 0 : values.length;
+        int nPairs = kvPairs == null ? 0 : kvPairs.size();
+        if( !config.isEnabled() || nKeys + nValues + nPairs > config.getMaxTerms() ) return null;
+        boolean hasLabels = labels != null && labels.length > 0;
+
+        String shape = (label != null ? "l" : "") + (hasLabels ? "s" : "")
+                + (key != null ? "k" : "") + (keyNot != null ? "n" : "")
+                + "-" + nKeys + "-" + nValues + "-" + nPairs;
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("datasource", datasource);
+        params.put("size", size);
+        if( label != null ) params.put("label", label);
+        if( hasLabels ) params.put("labels", labels);
+        if( key != null ) params.put("key", key);
+        if( keyNot != null ) params.put("keyNot", keyNot);
+        for( int i = 0; i < nKeys; i += 1 ) params.put("k"+i, keys[i]);
+        for( int i = 0; i < nValues; i += 1 ) params.put("v"+i, values[i]);
+        if( nPairs > 0 ){
+            int i = 0;
+            for( Map.Entry<String,String> kv : kvPairs.entrySet() ){
+                params.put("pk"+i, kv.getKey());
+                params.put("pv"+i, kv.getValue());
+                i += 1;
+            }
+        }
+        return new Compiled(shape, params, template(shape, label != null, hasLabels, key != null, keyNot != null, nKeys, nValues, nPairs));
+    }
+
+    // template of call is not usable (ex: scripts of cluster are lost)
+    void forget(Compiled compiled) {
+        templates.remove(compiled.shape, compiled.stored);
+    }
+
+    // forget only if stored script is missing : true if forgotten
+    boolean forgetIfMissing(Compiled compiled, Throwable e) {
+        if( !isMissingScript(e) ) return false;
+        forget(compiled);
+        return true;
+    }
+
+    // search template with unknown id : 404 resource_not_found_exception ("unable to find script")
+    static boolean isMissingScript(Throwable e) {
+        while( (e instanceof CompletionException || e instanceof ExecutionException) && e.getCause() != null ) e = e.getCause();
+        if( !(e instanceof ResponseException) ) return false;
+        ResponseException re = (ResponseException) e;
+        return re.getResponse().getStatusLine().getStatusCode() == 404
+                || String.valueOf(re.getMessage()).contains("resource_not_found_exception");
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    private CompletableFuture<String> template(String shape, boolean hasLabel, boolean hasLabels
+            , boolean hasKey, boolean hasKeyNot, int nKeys, int nValues, int nPairs) {
+        CompletableFuture<String> stored = templates.get(shape);
+        if( stored != null ) return stored;
+        CompletableFuture<String> created = new CompletableFuture<>();
+        stored = templates.putIfAbsent(shape, created);
+        if( stored != null ) return stored;
+
+        created.whenComplete((id, e) -> { if( e != null ) templates.remove(shape, created); });
+        try{
+            store(PREFIX + shape, source(hasLabel, hasLabels, hasKey, hasKeyNot, nKeys, nValues, nPairs), created);
+        }
+        catch (Exception e){ created.completeExceptionally(e); }
+        return created;
+    }
+
+    // same query as hasContainersQuery : placeholders in place of values
+    private static String source(boolean hasLabel, boolean hasLabels
+            , boolean hasKey, boolean hasKeyNot, int nKeys, int nValues, int nPairs) {
+        String[] keys = new String[nKeys];
+        for( int i = 0; i < nKeys; i += 1 ) keys[i] = "{{k"+i+"}}";
+        String[] values = new String[nValues];
+        for( int i = 0; i < nValues; i += 1 ) values[i] = "{{v"+i+"}}";
+        Map<String,String> kvPairs = new LinkedHashMap<>();
+        for( int i = 0; i < nPairs; i += 1 ) kvPairs.put("{{pk"+i+"}}", "{{pv"+i+"}}");
+
+        String query = Strings.toString(ElasticElementService.hasContainersQuery("{{datasource}}"
+                , hasLabel ? "{{label}}" : null, hasLabels ? new String[]{ LABELS } : null
+                , hasKey ? "{{key}}" : null, hasKeyNot ? "{{keyNot}}" : null, keys
+                , values, kvPairs));
+        // labels : json array of param
+        query = LABELS_ARRAY.matcher(query).replaceAll(Matcher.quoteReplacement(LABELS));
+        return "{\"size\":{{size}},\"query\":" + query + "}";
+    }
+
+    // PUT _scripts/<id> : { "script": { "lang": "mustache", "source": "<template>" } }
+    private void store(String id, String source, CompletableFuture<String> stored) throws Exception {
+        ObjectNode body = mapper.createObjectNode();
+        body.putObject("script").put("lang", "mustache").put("source", source);
+        Request request = new Request("PUT", "/_scripts/"+id);
+        request.setJsonEntity(mapper.writeValueAsString(body));
+
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        metrics.<Response>recordAsync("storeTemplate", "_scripts", (options, l) -> {
+            request.setOptions(options);
+            client.getLowLevelClient().performRequestAsync(request, new ResponseListener() {
+                @Override
+                public void onSuccess(Response response) { l.onResponse(response); }
+                @Override
+                public void onFailure(Exception e) { l.onFailure(e); }
+            });
+        }, ElasticElementService.listener(future));
+        future.whenComplete((response, e) -> {
+            if( e != null ) stored.completeExceptionally(e);
+            else stored.complete(id);
+        });
+    }
+
+}
@@ -0,0 +1,120 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.repository;
+
+import com.example.aws.elasticsearch.demo.config.ElasticGraphProperties;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticElement;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticProperty;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+// label and property key statistics (terms, nested aggregations) by index + datasource (+ label)
+//   - refresh-ahead : read of entry older than refresh-seconds answers it and reloads in background
+//   - expire : entry not reloaded within ttl-seconds is dropped (next read waits for aggregation)
+//   - CREATED documents increment counts in place (timers are not reset), other writes invalidate datasource of index
+// https://github.com/ben-manes/caffeine/wiki/Refresh
+public final class ElasticSchemaCache {
+
+    // label == null : labels of datasource, else property keys of label
+    @FunctionalInterface
+    interface Aggregation {
+        CompletableFuture<Map<String, Long>> run(String index, String datasource, String label);
+    }
+
+    private static final class Key {
+        final String index, datasource, label;
+        Key(String index, String datasource, String label) {
+            this.index = index; this.datasource = datasource; this.label = label;
+        }
+        @Override
+        public boolean equals(Object o) {
+            if( !(o instanceof Key) ) return false;
+            Key k = (Key) o;
+            return index.equals(k.index) && datasource.equals(k.datasource) && Objects.equals(label, k.label);
+        }
+        @Override
+        public int hashCode() {
+            return Objects.hash(index, datasource, label);
+        }
+    }
+
+    private final boolean enabled;
+    private final Aggregation aggregation;
+    private final AsyncLoadingCache<Key, ConcurrentMap<String, Long>> cache;
+
+    ElasticSchemaCache(ElasticGraphProperties.Schema config, Aggregation aggregation) {
+        this.enabled = config.isEnabled();
+        this.aggregation = aggregation;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(config.getMaxSize())
+                .refreshAfterWrite(config.getRefreshSeconds(), TimeUnit.SECONDS)
+                .expireAfterWrite(config.getTtlSeconds(), TimeUnit.SECONDS)
+                .recordStats()
+                .buildAsync((key, executor) -> aggregation.run(key.index, key.datasource, key.label)
+                        .thenApply(ConcurrentHashMap::new));
+    }
+
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache.synchronous(), "elasticgraph.schema");
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    CompletableFuture<Map<String, Long>> getAsync(String index, String datasource, String label) {
+        if( !enabled ) return aggregation.run(index, datasource, label);
+        return cache.get(new Key(index, datasource, label)).thenApply(Collections::unmodifiableMap);
+    }
+
+    Map<String, Long> get(String index, String datasource, String label) throws Exception {
+        try{
+            return getAsync(index, datasource, label).get();
+        }
+        catch (ExecutionException | CompletionException e){
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////
+    // write paths of ElasticElementService
+
+    // new document : label count + 1, key counts + 1 per property (only entries already loaded)
+    void created(String index, ElasticElement document) {
+        if( !enabled || document.getDatasource() == null || document.getLabel() == null ) return;
+        increment(new Key(index, document.getDatasource(), null), document.getLabel());
+        if( document.getProperties() == null ) return;
+        Key keys = new Key(index, document.getDatasource(), document.getLabel());
+        for( ElasticProperty p : document.getProperties() ) increment(keys, p.getKey());
+    }
+
+    private void increment(Key key, String name) {
+        CompletableFuture<ConcurrentMap<String, Long>> future = cache.getIfPresent(key);
+        // still loading : aggregation answers counts
+        if( future == null || !future.isDone() || future.isCompletedExceptionally() || name == null ) return;
+        future.join().merge(name, 1L, Long::sum);
+    }
+
+    // label or properties may have changed (update, delete, bulk)
+    void invalidate(String index, String datasource) {
+        if( !enabled || datasource == null ) return;
+        cache.synchronous().asMap().keySet().removeIf(k -> k.index.equals(index) && k.datasource.equals(datasource));
+    }
+
+    // datasource unknown (delete by id)
+    void invalidate(String index) {
+        if( !enabled ) return;
+        cache.synchronous().asMap().keySet().removeIf(k -> k.index.equals(index));
+    }
+
+    public void invalidateAll() {
+        cache.synchronous().invalidateAll();
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.repository;
+
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongSupplier;
+
+// search_after : pages sorted by stable key (id), not limited by index.max_result_window
+//   ==> next page is requested before current page is handed to consumer (at most 2 pages in memory)
+//   - first page is requested by first hasNext (nothing is sent by constructor)
+//   - wanted : documents consumer still takes, pages are cut to it and not prefetched once it is fetched
+//     (page is requested by hasNext if consumer wants more after all, ex: documents skipped by filter)
+// https://www.elastic.co/guide/en/elasticsearch/reference/7.3/search-request-body.html#request-body-search-search-after
+final class ElasticSearchAfterIterator<T> implements Iterator<T> {
+
+    static final String SORT_KEY = "id";        // keyword (doc_values)
+
+    // one page of size after sort values (null : first page)
+    @FunctionalInterface
+    interface Pages<T> {
+        CompletableFuture<ElasticSearchReader.Hits<T>> fetch(Object[] searchAfter, int size);
+    }
+
+    private final Pages<T> pages;
+    private final int pageSize;
+    private final LongSupplier wanted;      // null : no limit
+    private final long limit;               // -1 : no limit (or wanted only)
+
+    private Iterator<T> current = Collections.emptyIterator();
+    private int left = 0;                   // documents of current page not handed yet
+    private CompletableFuture<ElasticSearchReader.Hits<T>> next;
+    private int requested;                  // size of next
+    private Object[] searchAfter;
+    private long returned = 0;
+    private boolean exhausted = false;
+
+    ElasticSearchAfterIterator(ElasticSearchReader reader
+            , String index, Class<T> tClass, QueryBuilder queryBuilder, String[] includes, int pageSize) {
+        this(reader, index, tClass, queryBuilder, includes, pageSize, -1);
+    }
+
+    // limit : documents to fetch at most (-1 : no limit)
+    ElasticSearchAfterIterator(ElasticSearchReader reader
+            , String index, Class<T> tClass, QueryBuilder queryBuilder, String[] includes, int pageSize, long limit) {
+        this(pages(reader, index, tClass, queryBuilder, includes), pageSize, limit);
+    }
+
+    ElasticSearchAfterIterator(ElasticSearchReader reader
+            , String index, Class<T> tClass, QueryBuilder queryBuilder, String[] includes, int pageSize, LongSupplier wanted) {
+        this(pages(reader, index, tClass, queryBuilder, includes), pageSize, wanted);
+    }
+
+    ElasticSearchAfterIterator(Pages<T> pages, int pageSize, long limit) {
+        this.pages = pages;
+        this.pageSize = pageSize;
+        this.wanted = limit < 0 ? null : () -> limit - returned;
+        this.limit = limit;
+    }
+
+    ElasticSearchAfterIterator(Pages<T> pages, int pageSize, LongSupplier wanted) {
+        this.pages = pages;
+        this.pageSize = pageSize;
+        this.wanted = wanted;
+        this.limit = -1;
+    }
+
+    private static <T> Pages<T> pages(ElasticSearchReader reader
+            , String index, Class<T> tClass, QueryBuilder queryBuilder, String[] includes) {
+        return (searchAfter, size) -> {
+            SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
+                    .query(queryBuilder)
+                    .size(size)
+                    .sort(SORT_KEY, SortOrder.ASC)
+                    .trackTotalHits(false);
+            if( searchAfter != null ) searchSourceBuilder.searchAfter(searchAfter);
+            if( includes != null ) searchSourceBuilder.fetchSource(includes, null);
+            return reader.searchAsync("scan", index, searchSourceBuilder, tClass);
+        };
+    }
+
+    // documents wanted and not fetched yet (page size if no limit)
+    private long need() {
+        return wanted == null ? pageSize : Math.min(pageSize, wanted.getAsLong() - left);
+    }
+
+    private void fetch(int size) {
+        requested = size;
+        next = pages.fetch(searchAfter, size);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while( left == 0 ){
+            if( exhausted || (limit >= 0 && returned >= limit) ) return false;
+
+            if( next == null ) fetch((int) Math.max(1, need()));
+            ElasticSearchReader.Hits<T> hits = next.join();
+            next = null;
+            current = hits.documents.iterator();
+            left = hits.documents.size();
+            if( left < requested || hits.lastSortValues == null ) exhausted = true;
+            else{
+                searchAfter = hits.lastSortValues;
+                // prefetch : request next page before handing current one (already bound while read)
+                long need = need();
+                if( need > 0 ) fetch((int) need);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if( !hasNext() ) throw new NoSuchElementException("ElasticSearchAfterIterator::next");
+        left -= 1;
+        returned += 1;
+        return current.next();
+    }
+
+}
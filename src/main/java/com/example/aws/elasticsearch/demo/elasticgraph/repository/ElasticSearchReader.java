@@ -0,0 +1,240 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.repository;
+
+import com.example.aws.elasticsearch.demo.config.ElasticMetrics;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NStringEntity;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+// search by low-level RestClient : _source of each hit is bound straight into model by streaming parser
+//   ==> no SearchResponse (SearchHit, source bytes per hit) nor Map tree per hit
+//   ==> filter_path trims response to took, _source and sort values of hits
+// https://www.elastic.co/guide/en/elasticsearch/reference/7.3/common-options.html#common-options-response-filtering
+final class ElasticSearchReader {
+
+    static final String FILTER_PATH = "took,hits.hits._source,hits.hits.sort";
+    static final ContentType NDJSON = ContentType.create("application/x-ndjson", StandardCharsets.UTF_8);
+
+    // documents of page, sort values of last hit (null if not sorted or empty)
+    //   msearch items : total hits, aggregations and error (reason) of each search too
+    static final class Hits<T> {
+        final List<T> documents = new ArrayList<>();
+        Object[] lastSortValues;
+        long total = -1L;
+        JsonNode aggregations;
+        String error;
+    }
+
+    private final RestHighLevelClient client;
+    private final ObjectMapper mapper;
+    private final ElasticMetrics metrics;
+    private final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    ElasticSearchReader(RestHighLevelClient client, ObjectMapper mapper, ElasticMetrics metrics) {
+        this.client = client;
+        this.mapper = mapper;
+        this.metrics = metrics;
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    <T> List<T> search(String operation, String index, SearchSourceBuilder source, Class<T> tClass) throws Exception {
+        return perform(operation, index, request(index, source), tClass).documents;
+    }
+
+    <T> CompletableFuture<Hits<T>> searchAsync(String operation, String index, SearchSourceBuilder source, Class<T> tClass) {
+        return performAsync(operation, index, request(index, source), tClass);
+    }
+
+    // stored search template : id and params only (query is rendered by elasticsearch)
+    // https://www.elastic.co/guide/en/elasticsearch/reference/7.3/search-template.html
+    <T> List<T> searchTemplate(String operation, String index, String id, Map<String, Object> params, Class<T> tClass) throws Exception {
+        return perform(operation, index, templateRequest(index, id, params), tClass).documents;
+    }
+
+    <T> CompletableFuture<Hits<T>> searchTemplateAsync(String operation, String index, String id, Map<String, Object> params, Class<T> tClass) {
+        Request request;
+        try{
+            request = templateRequest(index, id, params);
+        }
+        catch (IOException e){
+            CompletableFuture<Hits<T>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return performAsync(operation, index, request, tClass);
+    }
+
+    private <T> Hits<T> perform(String operation, String index, Request request, Class<T> tClass) throws Exception {
+        Response response = metrics.record(operation, index, options -> {
+            request.setOptions(options);
+            return client.getLowLevelClient().performRequest(request);
+        });
+        return read(operation, index, response, tClass);
+    }
+
+    private <T> CompletableFuture<Hits<T>> performAsync(String operation, String index, Request request, Class<T> tClass) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        metrics.<Response>recordAsync(operation, index, (options, l) -> {
+            request.setOptions(options);
+            client.getLowLevelClient().performRequestAsync(request, new ResponseListener() {
+                @Override
+                public void onSuccess(Response response) { l.onResponse(response); }
+                @Override
+                public void onFailure(Exception e) { l.onFailure(e); }
+            });
+        }, ElasticElementService.listener(future));
+        return future.thenApply(response -> {
+            try{
+                return read(operation, index, response, tClass);
+            }
+            catch (IOException e){ throw new UncheckedIOException(e); }
+        });
+    }
+
+    // one round trip for all searches : item i answers sources[i] on indices[i] (failed search does not fail others)
+    // https://www.elastic.co/guide/en/elasticsearch/reference/7.3/search-multi-search.html
+    List<Hits<?>> msearch(String operation, List<String> indices, List<SearchSourceBuilder> sources, List<Class<?>> classes) throws Exception {
+        StringBuilder body = new StringBuilder();
+        for( int i = 0; i < sources.size(); i += 1 ){
+            body.append("{\"index\":\"").append(indices.get(i)).append("\"}\n");
+            body.append(sources.get(i).toString()).append('\n');
+        }
+        Request request = new Request("POST", "/_msearch");
+        request.setEntity(new NStringEntity(body.toString(), NDJSON));
+        Response response = metrics.record(operation, "_msearch", options -> {
+            request.setOptions(options);
+            return client.getLowLevelClient().performRequest(request);
+        });
+
+        List<Hits<?>> items = new ArrayList<>(sources.size());
+        long took = 0L;
+        int hits = 0;
+        try( InputStream in = response.getEntity().getContent(); JsonParser parser = mapper.getFactory().createParser(in) ){
+            if( parser.nextToken() != JsonToken.START_OBJECT ) return items;
+            while( parser.nextToken() == JsonToken.FIELD_NAME ){
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if( "took".equals(field) ) took = parser.getLongValue();
+                else if( "responses".equals(field) && parser.currentToken() == JsonToken.START_ARRAY ){
+                    while( parser.nextToken() == JsonToken.START_OBJECT ){
+                        Class<?> tClass = items.size() < classes.size() ? classes.get(items.size()) : Object.class;
+                        Hits<?> item = readItem(parser, tClass);
+                        hits += item.documents.size();
+                        items.add(item);
+                    }
+                }
+                else parser.skipChildren();
+            }
+        }
+        metrics.recordSearch(operation, "_msearch", took, hits);
+        return items;
+    }
+
+    // parser at START_OBJECT of item
+    private <T> Hits<T> readItem(JsonParser parser, Class<T> tClass) throws IOException {
+        ObjectReader reader = readers.computeIfAbsent(tClass, mapper::readerFor);
+        Hits<T> item = new Hits<>();
+        while( parser.nextToken() == JsonToken.FIELD_NAME ){
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if( "hits".equals(field) ) readHits(parser, reader, item);
+            else if( "aggregations".equals(field) ) item.aggregations = mapper.readTree(parser);
+            else if( "error".equals(field) ){
+                JsonNode error = mapper.readTree(parser);
+                item.error = error.isTextual() ? error.asText() : error.path("type").asText()+": "+error.path("reason").asText();
+            }
+            else parser.skipChildren();
+        }
+        return item;
+    }
+
+    private static Request request(String index, SearchSourceBuilder source) {
+        Request request = new Request("POST", "/"+index+"/_search");
+        request.addParameter("filter_path", FILTER_PATH);
+        request.setJsonEntity(source.toString());
+        return request;
+    }
+
+    private Request templateRequest(String index, String id, Map<String, Object> params) throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("id", id);
+        body.put("params", params);
+        Request request = new Request("POST", "/"+index+"/_search/template");
+        request.addParameter("filter_path", FILTER_PATH);
+        request.setJsonEntity(mapper.writeValueAsString(body));
+        return request;
+    }
+
+    ///////////////////////////////////////////////////////////////
+    // { "took": 3, "hits": { "hits": [ { "_source": {..}, "sort": [..] }, .. ] } }
+
+    private <T> Hits<T> read(String operation, String index, Response response, Class<T> tClass) throws IOException {
+        ObjectReader reader = readers.computeIfAbsent(tClass, mapper::readerFor);
+        Hits<T> hits = new Hits<>();
+        long took = 0L;
+        try( InputStream in = response.getEntity().getContent(); JsonParser parser = mapper.getFactory().createParser(in) ){
+            if( parser.nextToken() != JsonToken.START_OBJECT ) return hits;
+            while( parser.nextToken() == JsonToken.FIELD_NAME ){
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if( "took".equals(field) ) took = parser.getLongValue();
+                else if( "hits".equals(field) ) readHits(parser, reader, hits);
+                else parser.skipChildren();
+            }
+        }
+        metrics.recordSearch(operation, index, took, hits.documents.size());
+        return hits;
+    }
+
+    // parser at START_OBJECT of outer "hits"
+    private <T> void readHits(JsonParser parser, ObjectReader reader, Hits<T> hits) throws IOException {
+        while( parser.nextToken() == JsonToken.FIELD_NAME ){
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            // total : { "value": n, "relation": "eq" } (rest_total_hits_as_int : n)
+            if( "total".equals(field) ){
+                if( token == JsonToken.START_OBJECT ){
+                    JsonNode total = mapper.readTree(parser);
+                    hits.total = total.path("value").asLong();
+                }
+                else hits.total = parser.getLongValue();
+                continue;
+            }
+            if( token != JsonToken.START_ARRAY || !"hits".equals(field) ){
+                parser.skipChildren();
+                continue;
+            }
+            while( parser.nextToken() == JsonToken.START_OBJECT ){
+                hits.lastSortValues = null;
+                while( parser.nextToken() == JsonToken.FIELD_NAME ){
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    if( "_source".equals(name) ) hits.documents.add(reader.readValue(parser));
+                    else if( "sort".equals(name) ) hits.lastSortValues = mapper.readValue(parser, Object[].class);
+                    else parser.skipChildren();
+                }
+            }
+        }
+    }
+
+}
@@ -1,13 +1,21 @@
 package com.example.aws.elasticsearch.demo.elasticgraph.repository;
 
+import com.example.aws.elasticsearch.demo.basegraph.BaseProjection;
+import com.example.aws.elasticsearch.demo.config.ElasticGraphProperties;
+import com.example.aws.elasticsearch.demo.config.ElasticMetrics;
 import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticVertex;
+import com.example.aws.elasticsearch.demo.elasticgraph.util.AsyncPermits;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.QueryBuilder;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 @Slf4j
 public class ElasticVertexService extends ElasticElementService {
@@ -16,9 +24,14 @@ public class ElasticVertexService extends ElasticElementService {
 
     public ElasticVertexService(
             RestHighLevelClient client,     // elasticsearch config
-            ObjectMapper mapper             // spring boot web starter
+            ObjectMapper mapper,            // spring boot web starter
+            ElasticGraphProperties properties,
+            ElasticMetrics metrics,
+            ElasticElementCache cache,
+            ElasticSchemaCache schema,
+            AsyncPermits mgets              // shared by vertices and edges
     ) {
-        super(client, mapper);
+        super(client, mapper, properties, metrics, cache, schema, mgets);
         this.INDEX = ElasticGraphService.INDEX_VERTEX;
     }
 
@@ -42,12 +55,23 @@ public class ElasticVertexService extends ElasticElementService {
         return super.updateDocument(INDEX, ElasticVertex.class, document);
     }
 
+    public String upsertDocument(ElasticVertex document, Long ifSeqNo, Long ifPrimaryTerm) throws Exception {
+        return super.upsertDocument(INDEX, document, ifSeqNo, ifPrimaryTerm);
+    }
+
+    public Map<String, String> bulkDocuments(Collection<ElasticVertex> documents) throws Exception {
+        return super.bulkDocuments(INDEX, documents);
+    }
+
     public String deleteDocument(String id) throws Exception {
         return super.deleteDocument(INDEX, id);
     }
     public long deleteDocuments(String datasource) throws Exception {
         return super.deleteDocuments(INDEX, datasource);
     }
+    public String submitDeleteDocuments(String datasource) throws Exception {
+        return super.submitDeleteDocuments(INDEX, datasource);
+    }
 
     ///////////////////////////////////////////////////////////////
 
@@ -69,6 +93,10 @@ public class ElasticVertexService extends ElasticElementService {
         return super.findByIds(INDEX, ElasticVertex.class, ids);
     }
 
+    public List<ElasticVertex> findByIds(String[] ids, BaseProjection projection) throws Exception {
+        return project(super.findByIds(INDEX, ElasticVertex.class, ids, sourceIncludes(projection)), projection);
+    }
+
     public List<ElasticVertex> findByLabel(int size, String label) throws Exception {
         return super.findByLabel(INDEX, ElasticVertex.class, size, label);
     }
@@ -77,10 +105,18 @@ public class ElasticVertexService extends ElasticElementService {
         return super.findByDatasource(INDEX, ElasticVertex.class, size, datasource);
     }
 
+    public List<ElasticVertex> findByDatasource(int size, String datasource, BaseProjection projection) throws Exception {
+        return super.findByDatasource(INDEX, ElasticVertex.class, size, datasource, projection);
+    }
+
     public List<ElasticVertex> findByDatasourceAndLabels(int size, String datasource, String[] labels) throws Exception {
         return super.findByDatasourceAndLabels(INDEX, ElasticVertex.class, size, datasource, labels);
     }
 
+    public List<ElasticVertex> findByDatasourceAndLabels(int size, String datasource, String[] labels, BaseProjection projection) throws Exception {
+        return super.findByDatasourceAndLabels(INDEX, ElasticVertex.class, size, datasource, labels, projection);
+    }
+
     public List<ElasticVertex> findByDatasourceAndPropertyKeys(int size, String datasource, String[] keys) throws Exception{
         return super.findByDatasourceAndPropertyKeys(INDEX, ElasticVertex.class, size, datasource, keys);
     }
@@ -117,4 +153,87 @@ public class ElasticVertexService extends ElasticElementService {
                 , label, labels, key, keyNot, keys, values, kvPairs);
     }
 
+    // traversal : filters folded by caller
+    public List<ElasticVertex> findByQuery(int size, QueryBuilder queryBuilder) throws Exception {
+        return super.doSearch("findByQuery", INDEX, size, queryBuilder, null, ElasticVertex.class);
+    }
+
+    ///////////////////////////////////////////////////////////////
+    // sliced scroll export
+
+    public String index() { return INDEX; }
+
+    public long exportSlice(ElasticExportJob job, int sliceId) throws Exception {
+        return super.exportSlice(INDEX, job, sliceId);
+    }
+
+    ///////////////////////////////////////////////////////////////
+    // lazy iteration (search_after)
+
+    // traversal : filters folded by caller
+    public Stream<ElasticVertex> streamByQuery(QueryBuilder queryBuilder) {
+        return super.stream(INDEX, ElasticVertex.class, queryBuilder);
+    }
+
+    // limit : vertices fetched at most (-1 : no limit)
+    public Stream<ElasticVertex> streamByQuery(QueryBuilder queryBuilder, long limit) {
+        return super.stream(INDEX, ElasticVertex.class, queryBuilder, limit);
+    }
+
+    public Stream<ElasticVertex> streamByDatasource(String datasource) {
+        return super.streamByDatasource(INDEX, ElasticVertex.class, datasource);
+    }
+
+    public Stream<ElasticVertex> streamByHasContainers(String datasource
+            , String label, String[] labels
+            , String key, String keyNot, String[] keys
+            , String[] values, Map<String,String> kvPairs) {
+        return super.streamByHasContainers(INDEX, ElasticVertex.class, datasource
+                , label, labels, key, keyNot, keys, values, kvPairs);
+    }
+
+    ///////////////////////////////////////////////////////////////
+    // async
+
+    public CompletableFuture<Long> countAsync(String datasource) {
+        return super.countAsync(INDEX, datasource);
+    }
+
+    public CompletableFuture<ElasticVertex> findByIdAsync(String id) {
+        return super.findByIdAsync(INDEX, ElasticVertex.class, id);
+    }
+
+    public CompletableFuture<Boolean> existsIdAsync(String id) {
+        return super.existsIdAsync(INDEX, id);
+    }
+
+    public CompletableFuture<List<ElasticVertex>> findByIdsAsync(String[] ids) {
+        return super.findByIdsAsync(INDEX, ElasticVertex.class, ids);
+    }
+
+    public CompletableFuture<List<ElasticVertex>> findByIdsAsync(String[] ids, BaseProjection projection) {
+        return super.findByIdsAsync(INDEX, ElasticVertex.class, ids, sourceIncludes(projection))
+                .thenApply(list -> project(list, projection));
+    }
+
+    public CompletableFuture<List<ElasticVertex>> findByHasContainersAsync(int size, String datasource
+            , String label, String[] labels
+            , String key, String keyNot, String[] keys
+            , String[] values, Map<String,String> kvPairs) {
+        return super.findByHasContainersAsync(INDEX, ElasticVertex.class, size, datasource
+                , label, labels, key, keyNot, keys, values, kvPairs);
+    }
+
+    public CompletableFuture<String> upsertDocumentAsync(ElasticVertex document, Long ifSeqNo, Long ifPrimaryTerm) {
+        return super.upsertDocumentAsync(INDEX, document, ifSeqNo, ifPrimaryTerm);
+    }
+
+    public CompletableFuture<Map<String, String>> bulkDocumentsAsync(Collection<ElasticVertex> documents) {
+        return super.bulkDocumentsAsync(INDEX, documents);
+    }
+
+    public CompletableFuture<String> deleteDocumentAsync(String id) {
+        return super.deleteDocumentAsync(INDEX, id);
+    }
+
 }
@@ -0,0 +1,67 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+// semaphore for async requests without blocking callers : requests over permits wait in queue (FIFO)
+//   and are sent when a running one completes (ex: mget chunks sharing connections of pool per route)
+public final class AsyncPermits {
+
+    private final int permits;
+    private int running = 0;
+    private final Deque<Runnable> waiting = new ArrayDeque<>();
+
+    public AsyncPermits(int permits) {
+        this.permits = Math.max(1, permits);
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> request) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable send = () -> {
+            CompletableFuture<T> future;
+            try{
+                future = request.get();
+            }
+            catch (Throwable e){
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+            future.whenComplete((r, e) -> {
+                release();
+                if( e != null ) result.completeExceptionally(e);
+                else result.complete(r);
+            });
+        };
+
+        synchronized (this){
+            if( running >= permits ){
+                waiting.addLast(send);
+                return result;
+            }
+            running += 1;
+        }
+        send.run();
+        return result;
+    }
+
+    // requests sent and not completed
+    public synchronized int running() {
+        return running;
+    }
+
+    public synchronized int waiting() {
+        return waiting.size();
+    }
+
+    private void release() {
+        Runnable next;
+        synchronized (this){
+            next = waiting.pollFirst();
+            if( next == null ) running -= 1;
+        }
+        if( next != null ) next.run();
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.util;
+
+import com.example.aws.elasticsearch.demo.basegraph.BaseGraphAPI.Direction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+// state of bidirectional breadth first search by ids only (edges of each round are given by caller)
+//   - visited : IdOrdinalMap per side, parent ordinal (int[]) and edge id per ordinal
+//   - each round expands smaller frontier, meeting with fewest hops on other side wins
+//   - path is rebuilt from parents of both sides : vertex ids and edge ids from source to target
+//   **NOTE: not thread-safe
+public final class BidirectionalSearch {
+
+    private static final class Side {
+        final Direction direction;
+        final IdOrdinalMap visited = new IdOrdinalMap();
+        int[] parents = new int[16];
+        String[] via = new String[16];
+        List<String> frontier = new ArrayList<>();
+
+        Side(String root, Direction direction) {
+            this.direction = direction;
+            reach(-1, root, null, frontier, 1);
+        }
+
+        // ordinal of new vertex (-1 if visited, -2 if over budget)
+        int reach(int parent, String vid, String eid, List<String> next, int maxVertices) {
+            if( vid == null || visited.get(vid) >= 0 ) return -1;
+            if( visited.size() >= maxVertices ) return -2;
+            int ordinal = visited.add(vid);
+            if( ordinal == parents.length ){
+                parents = Arrays.copyOf(parents, ordinal * 2);
+                via = Arrays.copyOf(via, ordinal * 2);
+            }
+            parents[ordinal] = parent;
+            via[ordinal] = eid;
+            next.add(vid);
+            return ordinal;
+        }
+
+        int hops(int ordinal) {
+            int hops = 0;
+            for( int o = parents[ordinal]; o >= 0; o = parents[o] ) hops += 1;
+            return hops;
+        }
+    }
+
+    private final Side forward, backward;
+    private final int maxVertices;      // per side
+    private Side side;                  // side of current round
+    private List<String> next;
+    private int best = -1;
+    private String meet;
+    private boolean truncated = false;
+
+    // direction : from source to target (backward side follows reverse direction)
+    public BidirectionalSearch(String fromId, String toId, Direction direction, int maxVertices) {
+        this.forward = new Side(fromId, direction);
+        this.backward = new Side(toId, direction == Direction.OUT ? Direction.IN
+                : direction == Direction.IN ? Direction.OUT : Direction.BOTH);
+        this.maxVertices = maxVertices;
+        this.meet = fromId.equals(toId) ? fromId : null;
+    }
+
+    // not met and both sides have frontier
+    public boolean hasNext() {
+        return meet == null && !forward.frontier.isEmpty() && !backward.frontier.isEmpty();
+    }
+
+    // frontier of smaller side : caller gives its edges by reach, then endRound
+    public List<String> beginRound() {
+        side = forward.frontier.size() <= backward.frontier.size() ? forward : backward;
+        next = new ArrayList<>();
+        return side.frontier;
+    }
+
+    // edges of frontier are looked up in this direction
+    public Direction direction() {
+        return side.direction;
+    }
+
+    // edge eid from visited vertex (frontier of round) to other end
+    public void reach(String from, String eid, String to) {
+        int parent = side.visited.get(from);
+        if( parent < 0 ) return;
+        int ordinal = side.reach(parent, to, eid, next, maxVertices);
+        if( ordinal == -2 ) truncated = true;
+        if( ordinal < 0 ) return;
+        Side other = side == forward ? backward : forward;
+        int o = other.visited.get(to);
+        if( o >= 0 && (best < 0 || other.hops(o) < best) ){
+            best = other.hops(o);
+            meet = to;
+        }
+    }
+
+    public void endRound() {
+        side.frontier = next;
+        next = null;
+    }
+
+    public boolean isFound() { return meet != null; }
+
+    // some vertex was not visited by maxVertices
+    public boolean isTruncated() { return truncated; }
+
+    // source .. meet (forward parents reversed), meet .. target (backward parents) : empty if not found
+    public List<String> vertexIds() {
+        LinkedList<String> vids = new LinkedList<>();
+        if( meet == null ) return vids;
+        for( int o = forward.visited.get(meet); o >= 0; o = forward.parents[o] ){
+            vids.addFirst(forward.visited.id(o));
+        }
+        for( int o = backward.visited.get(meet); backward.parents[o] >= 0; o = backward.parents[o] ){
+            vids.addLast(backward.visited.id(backward.parents[o]));
+        }
+        return vids;
+    }
+
+    public List<String> edgeIds() {
+        LinkedList<String> eids = new LinkedList<>();
+        if( meet == null ) return eids;
+        for( int o = forward.visited.get(meet); forward.parents[o] >= 0; o = forward.parents[o] ){
+            eids.addFirst(forward.via[o]);
+        }
+        for( int o = backward.visited.get(meet); backward.parents[o] >= 0; o = backward.parents[o] ){
+            eids.addLast(backward.via[o]);
+        }
+        return eids;
+    }
+
+}
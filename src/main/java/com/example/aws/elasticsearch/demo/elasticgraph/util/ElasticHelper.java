@@ -25,6 +25,10 @@ import static org.elasticsearch.index.query.QueryBuilders.termsQuery;
 
 public final class ElasticHelper {
 
+    // lowercase keyword subfield of property values : exact match (case insensitive) by term filter
+    //   ==> filter context, cached by node query cache (values over ignore_above are not indexed)
+    public static final String VALUE_EXACT = "properties.value.exact";
+
     // https://www.elastic.co/guide/en/elasticsearch/client/java-rest/master/java-rest-high-search.html
 /*
 
@@ -76,28 +80,26 @@ public final class ElasticHelper {
     }
 
     public static final BoolQueryBuilder addQueryValue(BoolQueryBuilder queryBuilder, String value){
-        return queryBuilder.must(QueryBuilders.nestedQuery("properties",
-                    QueryBuilders.boolQuery().must(
-                            QueryBuilders.queryStringQuery("properties.value:\"" + value.toLowerCase() + "\"")
-                    ), ScoreMode.Total));
+        return queryBuilder.filter(QueryBuilders.nestedQuery("properties",
+                    QueryBuilders.boolQuery().filter(
+                            termQuery(VALUE_EXACT, value)
+                    ), ScoreMode.None));
     }
 
     public static final BoolQueryBuilder addQueryValues(BoolQueryBuilder queryBuilder, String[] values){
         for( String value : values ){       // AND
-            queryBuilder = queryBuilder.must(QueryBuilders.nestedQuery("properties",
-                    QueryBuilders.boolQuery().must(
-                            QueryBuilders.queryStringQuery("properties.value:\"" + value.toLowerCase() + "\"")
-                    ), ScoreMode.Total));
+            queryBuilder = addQueryValue(queryBuilder, value);
         }
         return queryBuilder;
     }
 
+    // key and value of same property
     public static final BoolQueryBuilder addQueryKeyValue(BoolQueryBuilder queryBuilder, String key, String value){
-        return queryBuilder.must(QueryBuilders.nestedQuery("properties",
+        return queryBuilder.filter(QueryBuilders.nestedQuery("properties",
                     QueryBuilders.boolQuery()
-                        .must(termQuery("properties.key", key.toLowerCase()))
-                        .must(QueryBuilders.queryStringQuery("properties.value:\""+value.toLowerCase()+"\""))
-                    , ScoreMode.Total));
+                        .filter(termQuery("properties.key", key))
+                        .filter(termQuery(VALUE_EXACT, value))
+                    , ScoreMode.None));
     }
 
 }
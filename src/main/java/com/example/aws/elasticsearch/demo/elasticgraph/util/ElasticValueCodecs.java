@@ -0,0 +1,67 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+// decoders of property values (stored as string) by type name, resolved once per type
+//   - common types : parsed directly (no ObjectMapper, no Class.forName)
+//   - other types : shared ObjectMapper with class resolved once
+//   - unknown class or unparsable value : null (as before)
+public final class ElasticValueCodecs {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Function<String, Object> UNKNOWN = value -> null;
+    private static final int MAX_TYPES = 1024;        // type names come from documents
+
+    private static final Map<String, Function<String, Object>> CODECS = new ConcurrentHashMap<>();
+    static {
+        CODECS.put(String.class.getName(), value -> value);
+        CODECS.put(Integer.class.getName(), value -> Integer.valueOf(value.trim()));
+        CODECS.put(Long.class.getName(), value -> Long.valueOf(value.trim()));
+        CODECS.put(Short.class.getName(), value -> Short.valueOf(value.trim()));
+        CODECS.put(Byte.class.getName(), value -> Byte.valueOf(value.trim()));
+        CODECS.put(Float.class.getName(), value -> Float.valueOf(value.trim()));
+        CODECS.put(Double.class.getName(), value -> Double.valueOf(value.trim()));
+        CODECS.put(BigInteger.class.getName(), value -> new BigInteger(value.trim()));
+        CODECS.put(BigDecimal.class.getName(), value -> new BigDecimal(value.trim()));
+        CODECS.put(Boolean.class.getName(), ElasticValueCodecs::toBoolean);
+    }
+
+    private ElasticValueCodecs() {
+    }
+
+    public static Object decode(String type, String value) {
+        if( type == null ) return null;
+        try{
+            Function<String, Object> codec = CODECS.get(type);
+            if( codec == null ){
+                codec = compile(type);
+                if( CODECS.size() < MAX_TYPES ) CODECS.putIfAbsent(type, codec);
+            }
+            return codec.apply(value);
+        }
+        catch (Exception e){ return null; }
+    }
+
+    private static Function<String, Object> compile(String type) {
+        try{
+            Class<?> clazz = Class.forName(type);
+            return value -> MAPPER.convertValue(value, clazz);
+        }
+        catch (ClassNotFoundException | LinkageError e){ return UNKNOWN; }
+    }
+
+    // same literals as jackson coercion of string to Boolean
+    private static Object toBoolean(String value) {
+        String text = value.trim();
+        if( "true".equals(text) || "True".equals(text) || "TRUE".equals(text) ) return Boolean.TRUE;
+        if( "false".equals(text) || "False".equals(text) || "FALSE".equals(text) ) return Boolean.FALSE;
+        return null;
+    }
+
+}
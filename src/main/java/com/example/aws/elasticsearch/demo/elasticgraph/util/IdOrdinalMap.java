@@ -0,0 +1,85 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.util;
+
+import java.util.Arrays;
+
+// dense ordinals (0..size-1) of string ids : open addressing with linear probing
+//   ==> ids are mapped once, then graph structures are kept in primitive int arrays
+//   **NOTE: not thread-safe
+public final class IdOrdinalMap {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private String[] ids;       // ordinal => id
+    private int[] table;        // slot => ordinal + 1 (0 = empty)
+    private int size = 0;
+
+    public IdOrdinalMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public IdOrdinalMap(int expected) {
+        this.ids = new String[Math.max(MIN_CAPACITY, expected)];
+        this.table = new int[tableSizeFor(Math.max(MIN_CAPACITY, expected) * 2)];
+    }
+
+    public int size() { return size; }
+
+    public String id(int ordinal) { return ids[ordinal]; }
+
+    // -1 if not exists
+    public int get(String id) {
+        int mask = table.length - 1;
+        for( int slot = hash(id) & mask; ; slot = (slot + 1) & mask ){
+            int ordinal = table[slot] - 1;
+            if( ordinal < 0 ) return -1;
+            if( ids[ordinal].equals(id) ) return ordinal;
+        }
+    }
+
+    // ordinal of id (new ordinal if not exists)
+    public int add(String id) {
+        int mask = table.length - 1;
+        int slot = hash(id) & mask;
+        for( ; ; slot = (slot + 1) & mask ){
+            int ordinal = table[slot] - 1;
+            if( ordinal < 0 ) break;
+            if( ids[ordinal].equals(id) ) return ordinal;
+        }
+
+        if( size == ids.length ) ids = Arrays.copyOf(ids, size * 2);
+        ids[size] = id;
+        table[slot] = size + 1;
+        size += 1;
+        if( size * 2 > table.length ) rehash(table.length * 2);     // load factor 0.5
+        return size - 1;
+    }
+
+    public long bytes() {
+        long bytes = 4L * table.length + 8L * ids.length;
+        for( int i = 0; i < size; i += 1 ) bytes += 40 + 2L * ids[i].length();
+        return bytes;
+    }
+
+    private void rehash(int capacity) {
+        int[] next = new int[capacity];
+        int mask = capacity - 1;
+        for( int ordinal = 0; ordinal < size; ordinal += 1 ){
+            int slot = hash(ids[ordinal]) & mask;
+            while( next[slot] != 0 ) slot = (slot + 1) & mask;
+            next[slot] = ordinal + 1;
+        }
+        table = next;
+    }
+
+    // spread hashCode (ids often share prefixes)
+    private static int hash(String id) {
+        int h = id.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int tableSizeFor(int n) {
+        int capacity = Integer.highestOneBit(Math.max(MIN_CAPACITY, n) - 1) << 1;
+        return capacity < 0 ? 1 << 30 : capacity;
+    }
+
+}
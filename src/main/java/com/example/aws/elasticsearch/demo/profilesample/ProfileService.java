@@ -1,5 +1,6 @@
 package com.example.aws.elasticsearch.demo.profilesample;
 
+import com.example.aws.elasticsearch.demo.config.ElasticMetrics;
 import com.example.aws.elasticsearch.demo.profilesample.model.ProfileDocument;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
@@ -16,7 +17,6 @@ import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.support.master.AcknowledgedResponse;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.action.update.UpdateResponse;
-import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
 
 import org.elasticsearch.client.indices.CreateIndexRequest;
@@ -48,14 +48,17 @@ public class ProfileService {
 
     private RestHighLevelClient client;
     private ObjectMapper objectMapper;
+    private ElasticMetrics metrics;
 
     @Autowired
     public ProfileService(
             RestHighLevelClient client,     // elasticsearch config
-            ObjectMapper objectMapper       // spring boot web starter
+            ObjectMapper objectMapper,      // spring boot web starter
+            ElasticMetrics metrics
     ) {
         this.client = client;
         this.objectMapper = objectMapper;
+        this.metrics = metrics;
     }
 
     // 참고 : Java High Level REST Client
@@ -81,7 +84,7 @@ public class ProfileService {
     // check if exists index
     public boolean checkExistsIndex() throws  Exception {
         GetIndexRequest request = new GetIndexRequest(INDEX);
-        return client.indices().exists(request, RequestOptions.DEFAULT);
+        return metrics.record("checkExistsIndex", INDEX, options -> client.indices().exists(request, options));
     }
 
     private String readMappings() throws Exception {
@@ -102,13 +105,13 @@ public class ProfileService {
         // mappings
         request.mapping(readMappings(), XContentType.JSON);
 
-        AcknowledgedResponse indexResponse = client.indices().create(request, RequestOptions.DEFAULT);
+        AcknowledgedResponse indexResponse = metrics.record("createIndex", INDEX, options -> client.indices().create(request, options));
         return indexResponse.isAcknowledged();
     }
 
     public boolean removeIndex() throws Exception {
         DeleteIndexRequest request = new DeleteIndexRequest(INDEX);
-        AcknowledgedResponse indexResponse = client.indices().delete(request, RequestOptions.DEFAULT);
+        AcknowledgedResponse indexResponse = metrics.record("removeIndex", INDEX, options -> client.indices().delete(request, options));
         return indexResponse.isAcknowledged();
     }
 
@@ -132,7 +135,7 @@ public class ProfileService {
                 .id(document.getId())
                 .source(convertProfileDocumentToMap(document));
 
-        IndexResponse indexResponse = client.index(indexRequest, RequestOptions.DEFAULT);
+        IndexResponse indexResponse = metrics.record("createProfileDocument", INDEX, options -> client.index(indexRequest, options));
         return indexResponse.getResult().name();
     }
 
@@ -145,7 +148,7 @@ public class ProfileService {
                 .id(resultDocument.getId())
                 .doc(convertProfileDocumentToMap(document));
 
-        UpdateResponse updateResponse = client.update(updateRequest, RequestOptions.DEFAULT);
+        UpdateResponse updateResponse = metrics.record("updateProfileDocument", INDEX, options -> client.update(updateRequest, options));
         return updateResponse.getResult().name();
     }
 
@@ -154,7 +157,7 @@ public class ProfileService {
         DeleteRequest deleteRequest = new DeleteRequest(INDEX)
                 .id(id);
 
-        DeleteResponse response = client.delete(deleteRequest, RequestOptions.DEFAULT);
+        DeleteResponse response = metrics.record("deleteProfileDocument", INDEX, options -> client.delete(deleteRequest, options));
         return response.getResult().name();
     }
 
@@ -168,7 +171,7 @@ public class ProfileService {
         searchRequest.source(searchSourceBuilder);
 
         SearchResponse searchResponse =
-                client.search(searchRequest, RequestOptions.DEFAULT);
+                metrics.record("findAll", INDEX, options -> client.search(searchRequest, options));
 
         return getSearchResult(searchResponse);
     }
@@ -178,7 +181,7 @@ public class ProfileService {
         GetRequest getRequest = new GetRequest(INDEX)
                 .id(id);
 
-        GetResponse getResponse = client.get(getRequest, RequestOptions.DEFAULT);
+        GetResponse getResponse = metrics.record("findById", INDEX, options -> client.get(getRequest, options));
         Map<String, Object> resultMap = getResponse.getSource();
         return convertMapToProfileDocument(resultMap);
     }
@@ -219,7 +222,7 @@ public class ProfileService {
         // set to request
         searchRequest.source(searchSourceBuilder);
         // search
-        SearchResponse response = client.search(searchRequest, RequestOptions.DEFAULT);
+        SearchResponse response = metrics.record("searchByTechnology", INDEX, options -> client.search(searchRequest, options));
         // response
         return getSearchResult(response);
     }
@@ -239,7 +242,7 @@ public class ProfileService {
         // set to request
         searchRequest.source(searchSourceBuilder);
         // search
-        SearchResponse response = client.search(searchRequest, RequestOptions.DEFAULT);
+        SearchResponse response = metrics.record("searchByName", INDEX, options -> client.search(searchRequest, options));
         // response
         return getSearchResult(response);
     }
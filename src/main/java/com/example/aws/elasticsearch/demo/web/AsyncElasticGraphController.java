@@ -0,0 +1,280 @@
+package com.example.aws.elasticsearch.demo.web;
+
+import com.example.aws.elasticsearch.demo.basegraph.BaseGraphAPI.Direction;
+import com.example.aws.elasticsearch.demo.config.ElasticGraphProperties;
+import com.example.aws.elasticsearch.demo.elasticgraph.AsyncElasticGraphAPI;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticEdge;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticVertex;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+// async servlet : worker thread is released until elasticsearch answers
+//   ==> same handlers with /elastic, optional ?timeout=(ms) per request (504 on timeout)
+@Slf4j
+@RestController
+@RequestMapping("/elastic/async")
+public class AsyncElasticGraphController {
+
+    private final AsyncElasticGraphAPI base;
+    private final ElasticGraphProperties properties;
+
+    @Autowired
+    public AsyncElasticGraphController(AsyncElasticGraphAPI base, ElasticGraphProperties properties){
+        this.base = base;
+        this.properties = properties;
+    }
+
+    private <T> DeferredResult<ResponseEntity> defer(CompletableFuture<T> future, Long timeout, HttpStatus status){
+        long timeoutMs = timeout != null ? timeout : properties.getAsync().getTimeoutMs();
+        DeferredResult<ResponseEntity> result = new DeferredResult<>(timeoutMs, new ResponseEntity(HttpStatus.GATEWAY_TIMEOUT));
+        // timeout : stages not started yet are dropped (7.3 client can not abort a request already sent)
+        result.onTimeout(() -> {
+            log.warn("async request timed out after {} ms : cancelled", timeoutMs);
+            future.cancel(true);
+        });
+        future.whenComplete((r, e) -> {
+            if( e != null ) result.setErrorResult(new ResponseEntity(cause(e).getMessage(), HttpStatus.INTERNAL_SERVER_ERROR));
+            else result.setResult(new ResponseEntity(r, status));
+        });
+        return result;
+    }
+    // failure of stage is wrapped by CompletionException (message : "java.lang.Exception: ...")
+    private static Throwable cause(Throwable e) {
+        while( (e instanceof CompletionException || e instanceof ExecutionException) && e.getCause() != null ) e = e.getCause();
+        return e;
+    }
+    private <T> DeferredResult<ResponseEntity> defer(CompletableFuture<T> future, Long timeout){
+        return defer(future, timeout, HttpStatus.OK);
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    /*
+curl -X GET "localhost:8080/elastic/async/sample/count?timeout=3000"
+    */
+    @GetMapping("/{datasource}/count")
+    public DeferredResult<ResponseEntity> count(
+            @PathVariable String datasource,
+            @RequestParam(value = "timeout", required = false) Long timeout
+    ) {
+        return defer(base.countV(datasource).thenCombine(base.countE(datasource), (v, e) -> {
+            Gson gson = new Gson();
+            JsonObject object = new JsonObject();
+            object.addProperty("V", v);
+            object.addProperty("E", e);
+            return gson.toJson(object);
+        }), timeout);
+    }
+    @GetMapping("/{datasource}/labels")
+    public DeferredResult<ResponseEntity> labels(
+            @PathVariable String datasource,
+            @RequestParam(value = "timeout", required = false) Long timeout
+    ) {
+        return defer(base.listVertexLabels(datasource).thenCombine(base.listEdgeLabels(datasource), (v, e) -> {
+            Map<String, Object> result = new HashMap<>();
+            result.put("V", v);
+            result.put("E", e);
+            return result;
+        }), timeout);
+    }
+
+    @GetMapping("/{datasource}/v/{label}/keys")
+    public DeferredResult<ResponseEntity> vertexLabelKeys(
+            @PathVariable String datasource, @PathVariable String label,
+            @RequestParam(value = "timeout", required = false) Long timeout
+    ) {
+        return defer(base.listVertexLabelKeys(datasource, label), timeout);
+    }
+    @GetMapping("/{datasource}/e/{label}/keys")
+    public DeferredResult<ResponseEntity> edgeLabelKeys(
+            @PathVariable String datasource, @PathVariable String label,
+            @RequestParam(value = "timeout", required = false) Long timeout
+    ) {
+        return defer(base.listEdgeLabelKeys(datasource, label), timeout);
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    @PostMapping("/v")
+    @PutMapping("/v")
+    public DeferredResult<ResponseEntity> saveVertex(
+            @RequestBody ElasticVertex document,
+            @RequestParam(value = "timeout", required = false) Long timeout
+    ) {
+        return defer(base.saveVertex(document), timeout, HttpStatus.CREATED);
+    }
+    @PostMapping("/e")
+    @PutMapping("/e")
+    public DeferredResult<ResponseEntity> saveEdge(
+            @RequestBody ElasticEdge document,
+            @RequestParam(value = "timeout", required = false) Long timeout
+    ) {
+        return defer(base.saveEdge(document), timeout, HttpStatus.CREATED);
+    }
+
+    @DeleteMapping("/v/{id}")
+    public DeferredResult<ResponseEntity> dropVertex(
+            @PathVariable String id,
+            @RequestParam(value = "timeout", required = false) Long timeout
+    ) {
+        return defer(base.dropVertex(id).thenApply(r -> true), timeout);
+    }
+    @DeleteMapping("/e/{id}")
+    public DeferredResult<ResponseEntity> dropEdge(
+            @PathVariable String id,
+            @RequestParam(value = "timeout", required = false) Long timeout
+    ) {
+        return defer(base.dropEdge(id).thenApply(r -> true), timeout);
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    /*
+curl -X GET "localhost:8080/elastic/async/v/v01"
+curl -X GET "localhost:8080/elastic/async/sample/v/v01/neighbors?direction=BOTH"
+    */
+    @GetMapping("/v/{id}")
+    public DeferredResult<ResponseEntity> findV(
+            @PathVariable String id,
+            @RequestParam(value = "timeout", required = false) Long timeout
+    ) {
+        return defer(base.getVertexById(id), timeout);
+    }
+    @GetMapping("/e/{id}")
+    public DeferredResult<ResponseEntity> findE(
+            @PathVariable String id,
+            @RequestParam(value = "timeout", required = false) Long timeout
+    ) {
+        return defer(base.getEdgeById(id), timeout);
+    }
+
+    @GetMapping("/{datasource}/v")
+    public DeferredResult<ResponseEntity> findV_All(
+            @PathVariable String datasource,
+            @RequestParam(value = "timeout", required = false) Long timeout
+    ) {
+        return defer(base.vertices(datasource), timeout);
+    }
+    @GetMapping("/{datasource}/e")
+    public DeferredResult<ResponseEntity> findE_All(
+            @PathVariable String datasource,
+            @RequestParam(value = "timeout", required = false) Long timeout
+    ) {
+        return defer(base.edges(datasource), timeout);
+    }
+
+    @GetMapping("/{datasource}/v/{id}/neighbors")
+    public DeferredResult<ResponseEntity> findV_Neighbors(
+            @PathVariable String datasource, @PathVariable String id,
+            @RequestParam(value = "direction", required = false, defaultValue = "BOTH") Direction direction,
+            @RequestParam(value = "labels", required = false) List<String> labelParams,
+            @RequestParam(value = "timeout", required = false) Long timeout
+    ) {
+        String[] labels = labelParams==null ? new String[0] : labelParams.stream().toArray(String[]::new);
+        return defer(base.findNeighborVertices(datasource, id, direction, labels), timeout);
+    }
+    @GetMapping("/{datasource}/v/{id}/edges")
+    public DeferredResult<ResponseEntity> findV_Edges(
+            @PathVariable String datasource, @PathVariable String id,
+            @RequestParam(value = "direction", required = false, defaultValue = "BOTH") Direction direction,
+            @RequestParam(value = "labels", required = false) List<String> labelParams,
+            @RequestParam(value = "timeout", required = false) Long timeout
+    ) {
+        String[] labels = labelParams==null ? new String[0] : labelParams.stream().toArray(String[]::new);
+        return defer(base.findEdgesOfVertex(datasource, id, direction, labels), timeout);
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    @GetMapping(value = "/{datasource}/v/labels")
+    public DeferredResult<ResponseEntity> findV_Label(
+            @PathVariable String datasource,
+            @RequestParam(value = "q") List<String> labels,
+            @RequestParam(value = "timeout", required = false) Long timeout
+    ) {
+        return defer(base.findVertices(datasource, labels.stream().toArray(String[]::new)), timeout);
+    }
+    @GetMapping(value = "/{datasource}/e/labels")
+    public DeferredResult<ResponseEntity> findE_Label(
+            @PathVariable String datasource,
+            @RequestParam(value = "q") List<String> labels,
+            @RequestParam(value = "timeout", required = false) Long timeout
+    ) {
+        return defer(base.findEdges(datasource, labels.stream().toArray(String[]::new)), timeout);
+    }
+
+    @GetMapping(value = "/{datasource}/v/keyvalue")
+    public DeferredResult<ResponseEntity> findV_PropertyKeyValue(
+            @PathVariable String datasource,
+            @RequestParam(value = "key") String key,
+            @RequestParam(value = "value") String value,
+            @RequestParam(value = "timeout", required = false) Long timeout
+    ) {
+        return defer(base.findVertices(datasource, key, value), timeout);
+    }
+    @GetMapping(value = "/{datasource}/e/keyvalue")
+    public DeferredResult<ResponseEntity> findE_PropertyKeyValue(
+            @PathVariable String datasource,
+            @RequestParam(value = "key") String key,
+            @RequestParam(value = "value") String value,
+            @RequestParam(value = "timeout", required = false) Long timeout
+    ) {
+        return defer(base.findEdges(datasource, key, value), timeout);
+    }
+
+    @GetMapping(value = "/{datasource}/v/hasContainers")
+    public DeferredResult<ResponseEntity> findV_hasContainers(
+            @PathVariable String datasource,
+            @RequestParam(value = "label", required = false) String label,
+            @RequestParam(value = "labels", required = false) List<String> labelParams,
+            @RequestParam(value = "key", required = false) String key,
+            @RequestParam(value = "keyNot", required = false) String keyNot,
+            @RequestParam(value = "keys", required = false) List<String> keyParams,
+            @RequestParam(value = "values", required = false) List<String> valueParams,
+            @RequestParam(value = "kvPairs", required = false) List<String> kvParams,
+            @RequestParam(value = "timeout", required = false) Long timeout
+    ) {
+        return defer(base.findVertices(datasource, label, toArray(labelParams), key, keyNot
+                , toArray(keyParams), toArray(valueParams), toKvPairs(kvParams)), timeout);
+    }
+    @GetMapping(value = "/{datasource}/e/hasContainers")
+    public DeferredResult<ResponseEntity> findE_hasContainers(
+            @PathVariable String datasource,
+            @RequestParam(value = "label", required = false) String label,
+            @RequestParam(value = "labels", required = false) List<String> labelParams,
+            @RequestParam(value = "key", required = false) String key,
+            @RequestParam(value = "keyNot", required = false) String keyNot,
+            @RequestParam(value = "keys", required = false) List<String> keyParams,
+            @RequestParam(value = "values", required = false) List<String> valueParams,
+            @RequestParam(value = "kvPairs", required = false) List<String> kvParams,
+            @RequestParam(value = "timeout", required = false) Long timeout
+    ) {
+        return defer(base.findEdges(datasource, label, toArray(labelParams), key, keyNot
+                , toArray(keyParams), toArray(valueParams), toKvPairs(kvParams)), timeout);
+    }
+
+    private static String[] toArray(List<String> params){
+        return params==null ? null : params.stream().toArray(String[]::new);
+    }
+
+    private static Map<String,String> toKvPairs(List<String> kvParams){
+        if( kvParams == null || kvParams.size() == 0 ) return null;
+        final String delimter = "@";
+        return kvParams.stream()
+                .map(r->r.split(delimter,2)).filter(r->r.length==2)
+                .collect(Collectors.toMap(r->r[0],r->r[1]));
+    }
+
+}
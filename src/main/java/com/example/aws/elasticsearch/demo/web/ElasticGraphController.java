@@ -1,22 +1,34 @@
 package com.example.aws.elasticsearch.demo.web;
 
+import com.example.aws.elasticsearch.demo.basegraph.BaseGraphAPI;
+import com.example.aws.elasticsearch.demo.basegraph.BaseProjection;
 import com.example.aws.elasticsearch.demo.basegraph.model.BaseEdge;
 import com.example.aws.elasticsearch.demo.basegraph.model.BaseProperty;
 import com.example.aws.elasticsearch.demo.basegraph.model.BaseVertex;
+import com.example.aws.elasticsearch.demo.config.ElasticGraphProperties;
 import com.example.aws.elasticsearch.demo.elasticgraph.ElasticGraphAPI;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticBatchQuery;
 import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticEdge;
 import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticProperty;
 import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticVertex;
+import com.example.aws.elasticsearch.demo.elasticgraph.repository.ElasticExportJob;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.lucene.analysis.CharArrayMap;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Slf4j
 @RestController
@@ -25,11 +37,13 @@ public class ElasticGraphController {
 
     private final ElasticGraphAPI base;
     private final ObjectMapper mapper;
+    private final ElasticGraphProperties properties;
 
     @Autowired
-    public ElasticGraphController(ElasticGraphAPI base, ObjectMapper mapper){
+    public ElasticGraphController(ElasticGraphAPI base, ObjectMapper mapper, ElasticGraphProperties properties){
         this.base = base;
         this.mapper = mapper;
+        this.properties = properties;
     }
 
     @GetMapping("/test")
@@ -47,6 +61,14 @@ curl -X PUT "localhost:8080/elastic/reset"
         return new ResponseEntity(base.reset(), HttpStatus.OK);
     }
 
+    /*
+curl -X GET "localhost:8080/elastic/cache"
+    */
+    @GetMapping("/cache")
+    public ResponseEntity cacheStats() throws Exception {
+        return new ResponseEntity(base.cacheStats(), HttpStatus.OK);
+    }
+
     @GetMapping("/count")
     public ResponseEntity count() throws Exception {
         return new ResponseEntity(base.count(), HttpStatus.OK);
@@ -82,18 +104,194 @@ curl -X POST -H "Content-Type: application/json; charset=utf-8" -d '{ "id":"e03"
 
 curl -X PUT -H "Content-Type: application/json; charset=utf-8" -d '{ "id":"v02", "label":"person", "datasource": "sample", "properties": [ {"key":"technology", "type": "java.lang.String", "value":"typescript"}, {"key":"years_of_experience", "type": "java.lang.Integer", "value":"2"}, {"key":"gpa", "type": "java.lang.Float", "value":"3.7"}] }' localhost:8080/elastic/v
 curl -X PUT -H "Content-Type: application/json; charset=utf-8" -d '{ "id":"e02", "label":"knows", "datasource": "sample", "sid":"v02", "tid":"v03", "properties": [ {"key":"year", "type": "java.lang.String", "value":"2003"}] }' localhost:8080/elastic/e
+
+==> conditional write with seqNo, primaryTerm of GET /elastic/v/v02 (409 CONFLICT if changed by others)
+curl -X PUT -H "Content-Type: application/json; charset=utf-8" -d '{ "id":"v02", "label":"person", "datasource": "sample", "properties": [] }' "localhost:8080/elastic/v?ifSeqNo=3&ifPrimaryTerm=1"
     */
     @PostMapping("/v")
     @PutMapping("/v")
-    public ResponseEntity saveVertex(@RequestBody ElasticVertex document) throws Exception {
+    public ResponseEntity saveVertex(
+            @RequestBody ElasticVertex document,
+            @RequestParam(value = "ifSeqNo", required = false) Long ifSeqNo,
+            @RequestParam(value = "ifPrimaryTerm", required = false) Long ifPrimaryTerm
+    ) throws Exception {
+        if( ifSeqNo != null && ifPrimaryTerm != null ){
+            boolean result = base.saveVertex(document, ifSeqNo, ifPrimaryTerm);
+            return new ResponseEntity(result, result ? HttpStatus.CREATED : HttpStatus.CONFLICT);
+        }
         return new ResponseEntity(base.saveVertex(document), HttpStatus.CREATED);
     }
     @PostMapping("/e")
     @PutMapping("/e")
-    public ResponseEntity saveEdge(@RequestBody ElasticEdge document) throws Exception {
+    public ResponseEntity saveEdge(
+            @RequestBody ElasticEdge document,
+            @RequestParam(value = "ifSeqNo", required = false) Long ifSeqNo,
+            @RequestParam(value = "ifPrimaryTerm", required = false) Long ifPrimaryTerm
+    ) throws Exception {
+        if( ifSeqNo != null && ifPrimaryTerm != null ){
+            boolean result = base.saveEdge(document, ifSeqNo, ifPrimaryTerm);
+            return new ResponseEntity(result, result ? HttpStatus.CREATED : HttpStatus.CONFLICT);
+        }
         return new ResponseEntity(base.saveEdge(document), HttpStatus.CREATED);
     }
 
+    /*
+curl -X POST -H "Content-Type: application/json; charset=utf-8" -d '[{ "id":"v05", "label":"person", "datasource": "sample", "properties": [] }, { "id":"v06", "label":"person", "datasource": "sample", "properties": [] }]' localhost:8080/elastic/v/bulk
+    */
+    @PostMapping("/v/bulk")
+    public ResponseEntity saveVertices(@RequestBody List<ElasticVertex> documents) throws Exception {
+        return new ResponseEntity(base.saveVertices(new ArrayList<>(documents)), HttpStatus.OK);
+    }
+    @PostMapping("/e/bulk")
+    public ResponseEntity saveEdges(@RequestBody List<ElasticEdge> documents) throws Exception {
+        return new ResponseEntity(base.saveEdges(new ArrayList<>(documents)), HttpStatus.OK);
+    }
+
+    /*
+curl -X POST -H "Content-Type: application/x-ndjson" --data-binary @sample.ndjson localhost:8080/elastic/sample/import
+==> {"id":"v01","label":"person","properties":[]}
+    {"id":"e01","label":"knows","sid":"v01","tid":"v02","properties":[]}
+    */
+    @PostMapping("/{datasource}/import")
+    public ResponseEntity importGraph(@PathVariable String datasource, InputStream body) throws Exception {
+        return new ResponseEntity(base.importGraph(datasource, body), HttpStatus.OK);
+    }
+
+    /*
+curl -X POST "localhost:8080/elastic/sample/export?slices=4"
+curl -X GET "localhost:8080/elastic/export/{jobId}"
+curl -X GET "localhost:8080/elastic/export/{jobId}/download" > sample.ndjson
+    */
+    @PostMapping("/{datasource}/export")
+    public ResponseEntity exportGraph(
+            @PathVariable String datasource,
+            @RequestParam(value = "slices", required = false) Integer slices
+    ) throws Exception {
+        int n = slices != null ? slices : properties.getExport().getSlices();
+        return new ResponseEntity(base.exportGraph(datasource, n).toJson(), HttpStatus.ACCEPTED);
+    }
+    @GetMapping("/export/{id}")
+    public ResponseEntity exportProgress(@PathVariable String id) throws Exception {
+        Optional<ElasticExportJob> job = base.exportJob(id);
+        if( !job.isPresent() ) return new ResponseEntity(HttpStatus.NOT_FOUND);
+        return new ResponseEntity(job.get().toJson(), HttpStatus.OK);
+    }
+    @GetMapping(value = "/export/{id}/download", produces = "application/x-ndjson")
+    public ResponseEntity exportDownload(@PathVariable String id) throws Exception {
+        Optional<ElasticExportJob> job = base.exportJob(id);
+        if( !job.isPresent() ) return new ResponseEntity(HttpStatus.NOT_FOUND);
+        if( job.get().getState() != ElasticExportJob.State.DONE )
+            return new ResponseEntity(job.get().toJson(), HttpStatus.CONFLICT);
+        return new ResponseEntity(new FileSystemResource(job.get().getFile()), HttpStatus.OK);
+    }
+
+    /*
+curl -X POST "localhost:8080/elastic/sample/adjacency"
+curl -X GET "localhost:8080/elastic/sample/adjacency"
+curl -X DELETE "localhost:8080/elastic/sample/adjacency"
+    */
+    @PostMapping("/{datasource}/adjacency")
+    public ResponseEntity loadAdjacency(@PathVariable String datasource) throws Exception {
+        return new ResponseEntity(base.loadAdjacency(datasource), HttpStatus.ACCEPTED);
+    }
+    @GetMapping("/{datasource}/adjacency")
+    public ResponseEntity adjacencyStats(@PathVariable String datasource) throws Exception {
+        Optional<String> stats = base.adjacencyStats(datasource);
+        if( !stats.isPresent() ) return new ResponseEntity(HttpStatus.NOT_FOUND);
+        return new ResponseEntity(stats.get(), HttpStatus.OK);
+    }
+    @DeleteMapping("/{datasource}/adjacency")
+    public ResponseEntity dropAdjacency(@PathVariable String datasource) throws Exception {
+        return new ResponseEntity(base.dropAdjacency(datasource), HttpStatus.OK);
+    }
+
+    /*
+curl -X GET "localhost:8080/elastic/sample/expand?ids=v01,v02&direction=OUT&labels=knows&depth=2&maxVertices=1000"
+==> labels : edge labels, limits : default and upper bound by elasticgraph.expand.*
+    */
+    @GetMapping("/{datasource}/expand")
+    public ResponseEntity expand(
+            @PathVariable String datasource,
+            @RequestParam(value = "ids") List<String> ids,
+            @RequestParam(value = "direction", required = false, defaultValue = "BOTH") BaseGraphAPI.Direction direction,
+            @RequestParam(value = "labels", required = false) List<String> labelParams,
+            @RequestParam(value = "depth", required = false) Integer depth,
+            @RequestParam(value = "maxVertices", required = false) Integer maxVertices,
+            @RequestParam(value = "maxEdges", required = false) Integer maxEdges
+    ) throws Exception {
+        ElasticGraphProperties.Expand config = properties.getExpand();
+        String[] labels = labelParams==null ? new String[0] : labelParams.stream().toArray(String[]::new);
+        return new ResponseEntity(base.expand(datasource, ids.stream().toArray(String[]::new), direction, labels
+                , depth != null ? depth : config.getMaxDepth()
+                , maxVertices != null ? maxVertices : config.getMaxVertices()
+                , maxEdges != null ? maxEdges : config.getMaxEdges()), HttpStatus.OK);
+    }
+
+    /*
+curl -X GET "localhost:8080/elastic/sample/path?from=v01&to=v05&direction=OUT&labels=knows&maxDepth=4"
+==> labels : edge labels, maxDepth : default and upper bound by elasticgraph.path.max-depth
+    */
+    @GetMapping("/{datasource}/path")
+    public ResponseEntity shortestPath(
+            @PathVariable String datasource,
+            @RequestParam(value = "from") String fromId,
+            @RequestParam(value = "to") String toId,
+            @RequestParam(value = "direction", required = false, defaultValue = "BOTH") BaseGraphAPI.Direction direction,
+            @RequestParam(value = "labels", required = false) List<String> labelParams,
+            @RequestParam(value = "maxDepth", required = false) Integer maxDepth
+    ) throws Exception {
+        String[] labels = labelParams==null ? new String[0] : labelParams.stream().toArray(String[]::new);
+        return new ResponseEntity(base.shortestPath(datasource, fromId, toId, direction, labels
+                , maxDepth != null ? maxDepth : properties.getPath().getMaxDepth()), HttpStatus.OK);
+    }
+
+    /*
+curl -X GET "localhost:8080/elastic/sample/degree?ids=v01,v02&labels=knows"
+curl -X GET "localhost:8080/elastic/sample/degree/hubs?direction=IN&n=10"
+curl -X GET "localhost:8080/elastic/sample/degree/histogram?direction=BOTH"
+==> labels : edge labels, hubs : "_all" and per edge label, cached by elasticgraph.degree.ttl-seconds
+    */
+    @GetMapping("/{datasource}/degree")
+    public ResponseEntity degrees(
+            @PathVariable String datasource,
+            @RequestParam(value = "ids") List<String> ids,
+            @RequestParam(value = "labels", required = false) List<String> labelParams
+    ) throws Exception {
+        String[] labels = labelParams==null ? new String[0] : labelParams.stream().toArray(String[]::new);
+        return new ResponseEntity(base.degrees(datasource, ids.stream().toArray(String[]::new), labels), HttpStatus.OK);
+    }
+    @GetMapping("/{datasource}/degree/hubs")
+    public ResponseEntity hubs(
+            @PathVariable String datasource,
+            @RequestParam(value = "direction", required = false, defaultValue = "BOTH") BaseGraphAPI.Direction direction,
+            @RequestParam(value = "labels", required = false) List<String> labelParams,
+            @RequestParam(value = "n", required = false, defaultValue = "10") int n
+    ) throws Exception {
+        String[] labels = labelParams==null ? new String[0] : labelParams.stream().toArray(String[]::new);
+        return new ResponseEntity(base.hubs(datasource, direction, labels, n), HttpStatus.OK);
+    }
+    @GetMapping("/{datasource}/degree/histogram")
+    public ResponseEntity degreeHistogram(
+            @PathVariable String datasource,
+            @RequestParam(value = "direction", required = false, defaultValue = "BOTH") BaseGraphAPI.Direction direction,
+            @RequestParam(value = "labels", required = false) List<String> labelParams
+    ) throws Exception {
+        String[] labels = labelParams==null ? new String[0] : labelParams.stream().toArray(String[]::new);
+        return new ResponseEntity(base.degreeHistogram(datasource, direction, labels), HttpStatus.OK);
+    }
+
+    /*
+curl -X POST -H "Content-Type: application/json; charset=utf-8" -d '[{"id":"labels", "type":"labels"}, {"id":"persons", "type":"count", "label":"person"}, {"id":"java", "type":"hasContainers", "kvPairs":{"technology":"java"}}, {"id":"v01", "type":"neighbors", "vid":"v01"}, {"id":"v02e", "type":"edges", "vid":"v02", "direction":"OUT", "labels":["knows"]}]' localhost:8080/elastic/sample/batch
+==> results by id (error of one query does not fail others), types : see ElasticBatchQuery
+    */
+    @PostMapping("/{datasource}/batch")
+    public ResponseEntity batch(
+            @PathVariable String datasource,
+            @RequestBody List<ElasticBatchQuery> queries
+    ) throws Exception {
+        return new ResponseEntity(base.batch(datasource, queries), HttpStatus.OK);
+    }
+
      /*
 curl -X DELETE "localhost:8080/elastic/v/v04"
 ==> 자동으로 연결된 간선들[e03]도 제거 되어야 함 (cascade)
@@ -109,9 +307,25 @@ curl -X DELETE "localhost:8080/elastic/v/v04"
         return new ResponseEntity(true, HttpStatus.OK);
     }
 
+    /*
+curl -X DELETE "localhost:8080/elastic/sample"
+curl -X GET "localhost:8080/elastic/tasks/{taskId}"
+curl -X DELETE "localhost:8080/elastic/tasks/{taskId}"
+    */
     @DeleteMapping("/{datasource}")
     public ResponseEntity remove(@PathVariable String datasource) throws Exception {
-        return new ResponseEntity(base.remove(datasource), HttpStatus.OK);
+        return new ResponseEntity(base.remove(datasource), HttpStatus.ACCEPTED);
+    }
+
+    @GetMapping("/tasks/{taskId}")
+    public ResponseEntity taskProgress(@PathVariable String taskId) throws Exception {
+        Optional<String> task = base.task(taskId);
+        if( !task.isPresent() ) return new ResponseEntity(HttpStatus.NOT_FOUND);
+        return new ResponseEntity(task.get(), HttpStatus.OK);
+    }
+    @DeleteMapping("/tasks/{taskId}")
+    public ResponseEntity cancelTask(@PathVariable String taskId) throws Exception {
+        return new ResponseEntity(base.cancelTask(taskId), HttpStatus.OK);
     }
 
     ///////////////////////////////////////////////////////////////
@@ -137,15 +351,80 @@ curl -X GET "localhost:8080/elastic/e/e01"
 
     /*
 curl -X GET "localhost:8080/elastic/sample/v"
-curl -X GET "localhost:8080/elastic/sample/e"
+curl -X GET "localhost:8080/elastic/sample/e?projection=id"
+curl -X GET "localhost:8080/elastic/sample/v?keys=technology"
+==> projection : full(default), id, label / keys : only these properties (id, label too)
     */
     @GetMapping("/{datasource}/v")
-    public Collection<BaseVertex> findV_All(@PathVariable String datasource) throws Exception {
-        return base.vertices(datasource);
+    public Collection<BaseVertex> findV_All(
+            @PathVariable String datasource,
+            @RequestParam(value = "projection", required = false) String projection,
+            @RequestParam(value = "keys", required = false) List<String> keys
+    ) throws Exception {
+        return base.vertices(datasource, BaseProjection.of(projection, keys));
     }
     @GetMapping("/{datasource}/e")
-    public Collection<BaseEdge> findE_All(@PathVariable String datasource) throws Exception {
-        return base.edges(datasource);
+    public Collection<BaseEdge> findE_All(
+            @PathVariable String datasource,
+            @RequestParam(value = "projection", required = false) String projection,
+            @RequestParam(value = "keys", required = false) List<String> keys
+    ) throws Exception {
+        return base.edges(datasource, BaseProjection.of(projection, keys));
+    }
+
+    /*
+curl -X GET "localhost:8080/elastic/sample/v/v01/neighbors?direction=BOTH&projection=label"
+curl -X GET "localhost:8080/elastic/sample/v/v02/edges?direction=OUT&labels=knows&projection=id"
+==> labels : vertex labels (neighbors), edge labels (edges)
+    */
+    @GetMapping("/{datasource}/v/{id}/neighbors")
+    public Collection<BaseVertex> findV_Neighbors(
+            @PathVariable String datasource, @PathVariable String id,
+            @RequestParam(value = "direction", required = false, defaultValue = "BOTH") BaseGraphAPI.Direction direction,
+            @RequestParam(value = "labels", required = false) List<String> labelParams,
+            @RequestParam(value = "projection", required = false) String projection,
+            @RequestParam(value = "keys", required = false) List<String> keys
+    ) throws Exception {
+        String[] labels = labelParams==null ? new String[0] : labelParams.stream().toArray(String[]::new);
+        return base.findNeighborVertices(datasource, id, direction, labels, BaseProjection.of(projection, keys));
+    }
+    @GetMapping("/{datasource}/v/{id}/edges")
+    public Collection<BaseEdge> findV_Edges(
+            @PathVariable String datasource, @PathVariable String id,
+            @RequestParam(value = "direction", required = false, defaultValue = "BOTH") BaseGraphAPI.Direction direction,
+            @RequestParam(value = "labels", required = false) List<String> labelParams,
+            @RequestParam(value = "projection", required = false) String projection,
+            @RequestParam(value = "keys", required = false) List<String> keys
+    ) throws Exception {
+        String[] labels = labelParams==null ? new String[0] : labelParams.stream().toArray(String[]::new);
+        return base.findEdgesOfVertex(datasource, id, direction, labels, BaseProjection.of(projection, keys));
+    }
+
+    /*
+curl -X GET "localhost:8080/elastic/sample/v/stream" > sample_v.ndjson
+curl -X GET "localhost:8080/elastic/sample/e/stream" > sample_e.ndjson
+    */
+    @GetMapping(value = "/{datasource}/v/stream", produces = "application/x-ndjson")
+    public StreamingResponseBody streamV_All(@PathVariable String datasource) throws Exception {
+        return out -> writeNdjson(base.streamVertices(datasource), out);
+    }
+    @GetMapping(value = "/{datasource}/e/stream", produces = "application/x-ndjson")
+    public StreamingResponseBody streamE_All(@PathVariable String datasource) throws Exception {
+        return out -> writeNdjson(base.streamEdges(datasource), out);
+    }
+
+    // one element per line, flushed by servlet buffer (whole result is never held)
+    //   ==> one generator for all lines, servlet stream is left open (closed by container)
+    private <T> void writeNdjson(Stream<T> stream, OutputStream out) throws IOException {
+        try( Stream<T> elements = stream;
+             JsonGenerator generator = mapper.getFactory().createGenerator(out).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET) ){
+            Iterator<T> iterator = elements.iterator();
+            while( iterator.hasNext() ){
+                generator.writeObject(iterator.next());
+                generator.writeRaw('\n');
+            }
+            generator.flush();
+        }
     }
 
     ///////////////////////////////////////////////////////////////
@@ -157,18 +436,22 @@ curl -X GET "localhost:8080/elastic/sample/e/label?q=person"
     @GetMapping(value = "/{datasource}/v/labels")
     public Collection<BaseVertex> findV_Label(
             @PathVariable String datasource,
-            @RequestParam(value = "q") List<String> labels
+            @RequestParam(value = "q") List<String> labels,
+            @RequestParam(value = "projection", required = false) String projection,
+            @RequestParam(value = "keys", required = false) List<String> keys
     ) throws Exception {
         String[] array = new String[labels.size()];
-        return base.findVertices(datasource, labels.toArray(array));
+        return base.findVertices(datasource, labels.toArray(array), BaseProjection.of(projection, keys));
     }
     @GetMapping(value = "/{datasource}/e/labels")
     public Collection<BaseEdge> findE_Label(
             @PathVariable String datasource,
-            @RequestParam(value = "q") List<String> labels
+            @RequestParam(value = "q") List<String> labels,
+            @RequestParam(value = "projection", required = false) String projection,
+            @RequestParam(value = "keys", required = false) List<String> keys
     ) throws Exception {
         String[] array = new String[labels.size()];
-        return base.findEdges(datasource, labels.toArray(array));
+        return base.findEdges(datasource, labels.toArray(array), BaseProjection.of(projection, keys));
     }
 
 
@@ -0,0 +1,95 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.model;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class ElasticPropertyListTest {
+
+    private static ElasticProperty property(String key, String value) {
+        ElasticProperty property = new ElasticProperty();
+        property.setKey(key);
+        property.setType(String.class.getName());
+        property.setValue(value);
+        return property;
+    }
+
+    @Test
+    public void findsByKey() {
+        ElasticProperty name = property("name", "marko");
+        ElasticProperty age = property("age", "29");
+        ElasticPropertyList list = new ElasticPropertyList(Arrays.asList(name, age));
+
+        assertSame(name, list.find("name"));
+        assertSame(age, list.find("age"));
+        assertNull(list.find("unknown"));
+        assertNull(list.find(null));
+    }
+
+    @Test
+    public void keepsInsertionOrder() {
+        ElasticPropertyList list = new ElasticPropertyList();
+        list.add(property("c", "1"));
+        list.add(property("a", "2"));
+        list.add(0, property("b", "3"));
+
+        assertEquals(3, list.size());
+        assertEquals("b", list.get(0).getKey());
+        assertEquals("c", list.get(1).getKey());
+        assertEquals("a", list.get(2).getKey());
+    }
+
+    @Test
+    public void firstPropertyWinsForDuplicatedKeys() {
+        ElasticProperty first = property("name", "marko");
+        ElasticPropertyList list = new ElasticPropertyList(Arrays.asList(first, property("name", "josh")));
+
+        assertSame(first, list.find("name"));
+        list.remove(0);
+        assertEquals("josh", list.find("name").getValue());
+    }
+
+    @Test
+    public void indexFollowsChanges() {
+        ElasticPropertyList list = new ElasticPropertyList();
+        assertNull(list.find("name"));          // empty index is built
+
+        ElasticProperty name = property("name", "marko");
+        list.add(name);
+        assertSame(name, list.find("name"));
+
+        ElasticProperty age = property("age", "29");
+        list.set(0, age);
+        assertNull(list.find("name"));
+        assertSame(age, list.find("age"));
+
+        list.removeIf(p -> "age".equals(p.getKey()));
+        assertNull(list.find("age"));
+
+        list.addAll(Arrays.asList(name, age));
+        assertSame(name, list.find("name"));
+        list.clear();
+        assertNull(list.find("name"));
+    }
+
+    @Test
+    public void iteratorFailsFastOnStructuralChange() {
+        ElasticPropertyList list = new ElasticPropertyList(Arrays.asList(property("a", "1"), property("b", "2")));
+        Iterator<ElasticProperty> it = list.iterator();
+        it.next();
+        list.add(property("c", "3"));
+        try{
+            it.next();
+            fail("ConcurrentModificationException expected");
+        }
+        catch (ConcurrentModificationException e){ }
+    }
+
+}
@@ -0,0 +1,226 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.repository;
+
+import com.example.aws.elasticsearch.demo.basegraph.BaseGraphAPI.Direction;
+import com.example.aws.elasticsearch.demo.elasticgraph.model.ElasticEdge;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ElasticAdjacencyIndexTest {
+
+    private static ElasticEdge edge(String id, String label, String sid, String tid) {
+        ElasticEdge edge = new ElasticEdge();
+        edge.setId(id);
+        edge.setLabel(label);
+        edge.setSid(sid);
+        edge.setTid(tid);
+        return edge;
+    }
+
+    private static ElasticAdjacencyIndex loaded(ElasticEdge... edges) {
+        ElasticAdjacencyIndex index = new ElasticAdjacencyIndex("test");
+        index.load(Arrays.asList(edges).iterator());
+        return index;
+    }
+
+    private static Set<String> edgeIds(ElasticAdjacencyIndex index, String vid, Direction direction, String... labels) {
+        return new HashSet<>(index.edgeIds(vid, direction, labels));
+    }
+
+    private static Set<String> set(String... ids) {
+        return new HashSet<>(Arrays.asList(ids));
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    @Test
+    public void notReadyUntilLoaded() {
+        ElasticAdjacencyIndex index = new ElasticAdjacencyIndex("test");
+        assertFalse(index.isReady());
+        index.load(Collections.<ElasticEdge>emptyIterator());
+        assertTrue(index.isReady());
+    }
+
+    @Test
+    public void groupsEdgesByDirection() {
+        ElasticAdjacencyIndex index = loaded(
+                edge("e1", "knows", "a", "b"),
+                edge("e2", "knows", "a", "c"),
+                edge("e3", "likes", "c", "a"),
+                edge("e4", "knows", "b", "c"));
+
+        assertEquals(set("e1", "e2"), edgeIds(index, "a", Direction.OUT));
+        assertEquals(set("e3"), edgeIds(index, "a", Direction.IN));
+        assertEquals(set("e1", "e2", "e3"), edgeIds(index, "a", Direction.BOTH));
+        assertEquals(set("e2", "e4"), edgeIds(index, "c", Direction.IN));
+        assertEquals(set("b", "c"), index.neighborIds("a", Direction.OUT, null));
+        assertEquals(set("c"), index.neighborIds("a", Direction.IN, null));
+        assertTrue(index.edgeIds("x", Direction.BOTH, null).isEmpty());
+    }
+
+    @Test
+    public void givesOtherEndOfEdges() {
+        ElasticAdjacencyIndex index = loaded(
+                edge("e1", "knows", "a", "b"),
+                edge("e2", "knows", "c", "a"));
+        index.upsert(edge("e3", "knows", "a", "d"));
+
+        Map<String, String> ends = new HashMap<>();
+        index.forEachEdge("a", Direction.BOTH, null, ends::put);
+        Map<String, String> expected = new HashMap<>();
+        expected.put("e1", "b");
+        expected.put("e2", "c");
+        expected.put("e3", "d");
+        assertEquals(expected, ends);
+    }
+
+    @Test
+    public void firstEdgesBySize() {
+        ElasticAdjacencyIndex index = loaded(
+                edge("e1", "knows", "a", "b"),
+                edge("e2", "knows", "a", "c"),
+                edge("e3", "knows", "d", "a"));
+        index.upsert(edge("e4", "knows", "a", "e"));
+
+        assertEquals(2, index.edgeIds("a", Direction.BOTH, null, 2).size());
+        assertEquals(3, index.edgeIds("a", Direction.BOTH, null, 3).size());
+        assertEquals(4, index.edgeIds("a", Direction.BOTH, null, 10).size());
+        assertEquals(1, index.neighborIds("a", Direction.OUT, null, 1).size());
+        assertTrue(index.edgeIds("a", Direction.BOTH, null, 0).isEmpty());
+    }
+
+    @Test
+    public void filtersByLabels() {
+        ElasticAdjacencyIndex index = loaded(
+                edge("e1", "knows", "a", "b"),
+                edge("e2", "likes", "a", "c"));
+        index.upsert(edge("e3", "likes", "a", "d"));
+
+        assertEquals(set("e2", "e3"), edgeIds(index, "a", Direction.OUT, "likes"));
+        assertEquals(set("e1", "e2", "e3"), edgeIds(index, "a", Direction.OUT, "knows", "likes"));
+        assertTrue(edgeIds(index, "a", Direction.OUT, "unknown").isEmpty());
+    }
+
+    @Test
+    public void nullLabelIsEmptyInBaseAndOverlay() {
+        ElasticAdjacencyIndex index = loaded(edge("e1", null, "a", "b"));
+        index.upsert(edge("e2", null, "a", "c"));
+
+        assertEquals(set("e1", "e2"), edgeIds(index, "a", Direction.OUT, ""));
+        assertTrue(edgeIds(index, "a", Direction.OUT, "knows").isEmpty());
+
+        for( int i = 3; i < 12000; i += 1 ) index.upsert(edge("e" + i, "knows", "x", "v" + i));    // compaction
+        assertEquals(set("e1", "e2"), edgeIds(index, "a", Direction.OUT, ""));
+    }
+
+    @Test
+    public void selfLoopIsVisitedOnce() {
+        ElasticAdjacencyIndex index = loaded(edge("e1", "self", "a", "a"));
+        index.upsert(edge("e2", "self", "b", "b"));
+
+        assertEquals(Collections.singletonList("e1"), index.edgeIds("a", Direction.BOTH, null));
+        assertEquals(Collections.singletonList("e1"), index.edgeIds("a", Direction.OUT, null));
+        assertEquals(Collections.singletonList("e1"), index.edgeIds("a", Direction.IN, null));
+        assertEquals(Collections.singletonList("e2"), index.edgeIds("b", Direction.BOTH, null));
+    }
+
+    @Test
+    public void overlayWinsOverBase() {
+        ElasticAdjacencyIndex index = loaded(
+                edge("e1", "knows", "a", "b"),
+                edge("e2", "knows", "a", "c"));
+
+        index.upsert(edge("e1", "knows", "a", "d"));       // moved : base copy is hidden
+        index.upsert(edge("e3", "knows", "d", "a"));
+        index.remove("e2");
+
+        assertEquals(set("e1"), edgeIds(index, "a", Direction.OUT));
+        assertEquals(set("d"), index.neighborIds("a", Direction.OUT, null));
+        assertEquals(set("e3"), edgeIds(index, "a", Direction.IN));
+        assertTrue(index.edgeIds("b", Direction.BOTH, null).isEmpty());
+        assertTrue(index.edgeIds("c", Direction.BOTH, null).isEmpty());
+
+        index.remove("e3");
+        assertTrue(index.edgeIds("a", Direction.IN, null).isEmpty());
+        assertTrue(index.edgeIds("d", Direction.OUT, null).isEmpty());
+    }
+
+    @Test
+    public void partialUpdateKeepsEdge() {
+        ElasticAdjacencyIndex index = loaded(edge("e1", "knows", "a", "b"));
+        index.upsert(edge("e2", "knows", "b", "c"));
+
+        // properties only : no sid, tid
+        index.upsert(edge("e1", null, null, null));
+        index.upsert(edge("e2", "knows", "b", null));
+
+        assertEquals(set("e1"), edgeIds(index, "a", Direction.OUT));
+        assertEquals(set("e1", "e2"), edgeIds(index, "b", Direction.BOTH));
+    }
+
+    @Test
+    public void compactsLargeOverlay() {
+        ElasticAdjacencyIndex index = loaded(
+                edge("e0", "knows", "hub", "v0"),
+                edge("e1", "knows", "hub", "v1"));
+        index.remove("e1");
+
+        int n = 12000;      // over COMPACT_MIN : merged into base once
+        for( int i = 2; i < n; i += 1 ) index.upsert(edge("e" + i, i % 2 == 0 ? "knows" : "likes", "hub", "v" + i));
+        index.upsert(edge("e0", "knows", "v0", "hub"));      // after merge : in overlay again
+
+        List<String> out = index.edgeIds("hub", Direction.OUT, null);
+        assertEquals(n - 2, out.size());
+        assertEquals(n - 2, new HashSet<>(out).size());
+        assertFalse(out.contains("e0"));
+        assertFalse(out.contains("e1"));
+        assertEquals(set("e0"), edgeIds(index, "hub", Direction.IN));
+        assertEquals((n - 2) / 2, index.edgeIds("hub", Direction.OUT, new String[]{ "likes" }).size());
+        assertTrue(index.stats().contains("\"edges\":" + (n - 1)));
+    }
+
+    @Test
+    public void writesWhileLoadingWinOverLoadedCopies() {
+        ElasticAdjacencyIndex index = new ElasticAdjacencyIndex("test");
+        List<ElasticEdge> stored = Arrays.asList(
+                edge("e1", "knows", "a", "b"),
+                edge("e2", "knows", "a", "c"),
+                edge("e3", "knows", "a", "d"));
+
+        // writes arrive between pages of scan : loaded copies of e1, e2 are stale
+        Iterator<ElasticEdge> scan = new Iterator<ElasticEdge>() {
+            private final Iterator<ElasticEdge> it = stored.iterator();
+            private int n = 0;
+
+            @Override
+            public boolean hasNext() { return it.hasNext(); }
+
+            @Override
+            public ElasticEdge next() {
+                if( n++ == 1 ){
+                    index.upsert(edge("e1", "knows", "a", "x"));
+                    index.remove("e2");
+                    index.upsert(edge("e4", "knows", "a", "y"));
+                }
+                return it.next();
+            }
+        };
+        index.load(scan);
+
+        assertTrue(index.isReady());
+        assertEquals(set("e1", "e3", "e4"), edgeIds(index, "a", Direction.OUT));
+        assertEquals(set("x", "d", "y"), index.neighborIds("a", Direction.OUT, null));
+        assertTrue(index.edgeIds("b", Direction.BOTH, null).isEmpty());
+        assertTrue(index.edgeIds("c", Direction.BOTH, null).isEmpty());
+
+        // next load : overlay still wins, removals while loading are not kept
+        index.load(Arrays.asList(edge("e1", "knows", "a", "b"), edge("e2", "knows", "a", "c")).iterator());
+        assertEquals(set("e1", "e2", "e4"), edgeIds(index, "a", Direction.OUT));
+        assertEquals(set("x", "c", "y"), index.neighborIds("a", Direction.OUT, null));
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.repository;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ElasticExportJobTest {
+
+    @Test
+    public void runningJobNeverExpires() {
+        ElasticExportJob job = new ElasticExportJob("sample", 2, 10, null);
+        assertFalse(job.isExpired(Long.MAX_VALUE, 0));
+    }
+
+    @Test
+    public void finishedJobExpiresAfterTtl() {
+        ElasticExportJob job = new ElasticExportJob("sample", 2, 10, null);
+        job.done();
+        long now = System.currentTimeMillis();
+        assertFalse(job.isExpired(now, 60000));
+        assertTrue(job.isExpired(now + 60000, 60000));
+
+        ElasticExportJob failed = new ElasticExportJob("sample", 2, 10, null);
+        failed.failed(new RuntimeException("scroll"));
+        assertTrue(failed.isExpired(System.currentTimeMillis() + 1, 0));
+    }
+
+    @Test
+    public void deletesOnlyFilesOfJob() throws Exception {
+        Path dir = Files.createTempDirectory("elasticgraph-export");
+        ElasticExportJob job = new ElasticExportJob("sample", 1, 0, dir);
+        ElasticExportJob other = new ElasticExportJob("sample", 1, 0, dir);
+        Files.write(job.getFile(), new byte[]{ 1 });
+        Files.write(job.getPartFile("elasticvertex", 0), new byte[]{ 1 });
+        Files.write(other.getFile(), new byte[]{ 1 });
+
+        job.deleteFiles();
+        assertFalse(Files.exists(job.getFile()));
+        assertFalse(Files.exists(job.getPartFile("elasticvertex", 0)));
+        assertTrue(Files.exists(other.getFile()));
+
+        other.deleteFiles();
+        Files.delete(dir);
+    }
+
+}
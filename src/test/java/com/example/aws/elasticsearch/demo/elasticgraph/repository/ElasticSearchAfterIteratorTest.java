@@ -0,0 +1,87 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.repository;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ElasticSearchAfterIteratorTest {
+
+    // documents 0 .. total-1 sorted by value, sizes of requested pages
+    private static final class Numbers implements ElasticSearchAfterIterator.Pages<Integer> {
+        final int total;
+        final List<Integer> sizes = new ArrayList<>();
+
+        Numbers(int total) {
+            this.total = total;
+        }
+
+        @Override
+        public CompletableFuture<ElasticSearchReader.Hits<Integer>> fetch(Object[] searchAfter, int size) {
+            sizes.add(size);
+            int from = searchAfter == null ? 0 : (Integer) searchAfter[0] + 1;
+            ElasticSearchReader.Hits<Integer> hits = new ElasticSearchReader.Hits<>();
+            for( int i = from; i < Math.min(from + size, total); i += 1 ) hits.documents.add(i);
+            if( !hits.documents.isEmpty() )
+                hits.lastSortValues = new Object[]{ hits.documents.get(hits.documents.size() - 1) };
+            return CompletableFuture.completedFuture(hits);
+        }
+    }
+
+    private static List<Integer> drain(Iterator<Integer> it) {
+        List<Integer> list = new ArrayList<>();
+        while( it.hasNext() ) list.add(it.next());
+        return list;
+    }
+
+    ///////////////////////////////////////////////////////////////
+
+    @Test
+    public void nothingIsRequestedBeforeFirstPull() {
+        Numbers pages = new Numbers(25);
+        Iterator<Integer> it = new ElasticSearchAfterIterator<>(pages, 10, -1);
+        assertTrue(pages.sizes.isEmpty());
+
+        assertTrue(it.hasNext());
+        assertEquals(Arrays.asList(10, 10), pages.sizes);     // first page and prefetch
+    }
+
+    @Test
+    public void readsAllPages() {
+        Numbers pages = new Numbers(25);
+        List<Integer> all = drain(new ElasticSearchAfterIterator<>(pages, 10, -1));
+        assertEquals(25, all.size());
+        assertEquals(Integer.valueOf(24), all.get(24));
+        assertEquals(Arrays.asList(10, 10, 10), pages.sizes);
+    }
+
+    @Test
+    public void limitCutsPagesWithoutPrefetch() {
+        Numbers pages = new Numbers(100);
+        List<Integer> all = drain(new ElasticSearchAfterIterator<>(pages, 10, 15));
+        assertEquals(15, all.size());
+        assertEquals(Arrays.asList(10, 5), pages.sizes);
+
+        Numbers none = new Numbers(100);
+        assertFalse(new ElasticSearchAfterIterator<>(none, 10, 0).hasNext());
+        assertTrue(none.sizes.isEmpty());
+    }
+
+    @Test
+    public void wantedPagesFollowSkippedDocuments() {
+        Numbers pages = new Numbers(100);
+        List<Integer> taken = new ArrayList<>();
+        Iterator<Integer> it = new ElasticSearchAfterIterator<>(pages, 10, () -> 5 - taken.size());
+        while( taken.size() < 5 && it.hasNext() ){
+            Integer n = it.next();
+            if( n % 2 == 0 ) taken.add(n);         // odd numbers are skipped
+        }
+        assertEquals(Arrays.asList(0, 2, 4, 6, 8), taken);
+        assertEquals(Arrays.asList(5, 2, 1, 1), pages.sizes);
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncPermitsTest {
+
+    @Test
+    public void sendsUpToPermitsAtOnce() throws Exception {
+        AsyncPermits permits = new AsyncPermits(2);
+        List<CompletableFuture<Integer>> sent = new ArrayList<>();
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for( int i = 0; i < 5; i += 1 ){
+            results.add(permits.submit(() -> {
+                CompletableFuture<Integer> future = new CompletableFuture<>();
+                sent.add(future);
+                return future;
+            }));
+        }
+        assertEquals(2, sent.size());
+        assertEquals(2, permits.running());
+        assertEquals(3, permits.waiting());
+
+        // each completion sends next waiting request (in order)
+        sent.get(0).complete(0);
+        assertEquals(3, sent.size());
+        assertEquals(Integer.valueOf(0), results.get(0).get());
+        assertFalse(results.get(1).isDone());
+
+        for( int i = 1; i < 5; i += 1 ) sent.get(i).complete(i);
+        for( int i = 0; i < 5; i += 1 ) assertEquals(Integer.valueOf(i), results.get(i).get());
+        assertEquals(0, permits.running());
+        assertEquals(0, permits.waiting());
+    }
+
+    @Test
+    public void failuresReleasePermit() throws Exception {
+        AsyncPermits permits = new AsyncPermits(1);
+        CompletableFuture<String> failed = permits.submit(() -> { throw new IllegalStateException("not sent"); });
+        CompletableFuture<String> next = permits.submit(() -> CompletableFuture.completedFuture("sent"));
+
+        assertTrue(failed.isCompletedExceptionally());
+        try{
+            failed.get();
+            fail("ExecutionException expected");
+        }
+        catch (ExecutionException e){
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals("sent", next.get());
+        assertEquals(0, permits.running());
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.util;
+
+import com.example.aws.elasticsearch.demo.basegraph.BaseGraphAPI.Direction;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BidirectionalSearchTest {
+
+    // edges as { id, sid, tid }
+    private static BidirectionalSearch search(String[][] edges, String fromId, String toId, Direction direction
+            , int maxVertices, int maxRounds) {
+        BidirectionalSearch search = new BidirectionalSearch(fromId, toId, direction, maxVertices);
+        for( int round = 0; round < maxRounds && search.hasNext(); round += 1 ){
+            List<String> frontier = search.beginRound();
+            Direction side = search.direction();
+            for( String[] edge : edges ){
+                if( side != Direction.IN && frontier.contains(edge[1]) ) search.reach(edge[1], edge[0], edge[2]);
+                if( side != Direction.OUT && frontier.contains(edge[2]) ) search.reach(edge[2], edge[0], edge[1]);
+            }
+            search.endRound();
+        }
+        return search;
+    }
+
+    private static final String[][] CHAIN = new String[][]{
+            { "e1", "a", "b" }, { "e2", "b", "c" }, { "e3", "c", "d" }, { "e4", "d", "e" } };
+
+    @Test
+    public void rebuildsPathFromBothSides() {
+        BidirectionalSearch search = search(CHAIN, "a", "e", Direction.OUT, 100, 10);
+        assertTrue(search.isFound());
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e"), search.vertexIds());
+        assertEquals(Arrays.asList("e1", "e2", "e3", "e4"), search.edgeIds());
+    }
+
+    @Test
+    public void followsDirection() {
+        assertFalse(search(CHAIN, "e", "a", Direction.OUT, 100, 10).isFound());
+
+        BidirectionalSearch in = search(CHAIN, "e", "a", Direction.IN, 100, 10);
+        assertEquals(Arrays.asList("e", "d", "c", "b", "a"), in.vertexIds());
+        assertEquals(Arrays.asList("e4", "e3", "e2", "e1"), in.edgeIds());
+
+        BidirectionalSearch both = search(CHAIN, "e", "a", Direction.BOTH, 100, 10);
+        assertEquals(Arrays.asList("e", "d", "c", "b", "a"), both.vertexIds());
+    }
+
+    @Test
+    public void shortestOfAlternatives() {
+        String[][] edges = new String[][]{
+                { "long1", "a", "x" }, { "long2", "x", "y" }, { "long3", "y", "d" },
+                { "short1", "a", "b" }, { "short2", "b", "d" } };
+        BidirectionalSearch search = search(edges, "a", "d", Direction.OUT, 100, 10);
+        assertEquals(Arrays.asList("a", "b", "d"), search.vertexIds());
+        assertEquals(Arrays.asList("short1", "short2"), search.edgeIds());
+    }
+
+    @Test
+    public void sameSourceAndTarget() {
+        BidirectionalSearch search = new BidirectionalSearch("a", "a", Direction.OUT, 100);
+        assertTrue(search.isFound());
+        assertFalse(search.hasNext());
+        assertEquals(Collections.singletonList("a"), search.vertexIds());
+        assertTrue(search.edgeIds().isEmpty());
+    }
+
+    @Test
+    public void notFoundWithinRounds() {
+        BidirectionalSearch search = search(CHAIN, "a", "e", Direction.OUT, 100, 2);
+        assertFalse(search.isFound());
+        assertTrue(search.vertexIds().isEmpty());
+        assertTrue(search.edgeIds().isEmpty());
+    }
+
+    @Test
+    public void truncatedByMaxVertices() {
+        String[][] star = new String[][]{
+                { "e1", "a", "b" }, { "e2", "a", "c" }, { "e3", "a", "d" }, { "e4", "d", "z" } };
+        BidirectionalSearch search = search(star, "a", "z", Direction.OUT, 2, 10);
+        assertFalse(search.isFound());
+        assertTrue(search.isTruncated());
+    }
+
+}
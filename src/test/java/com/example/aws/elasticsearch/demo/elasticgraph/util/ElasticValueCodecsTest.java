@@ -0,0 +1,52 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.util;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ElasticValueCodecsTest {
+
+    @Test
+    public void decodesCommonTypes() {
+        assertEquals("marko", ElasticValueCodecs.decode(String.class.getName(), "marko"));
+        assertEquals(29, ElasticValueCodecs.decode(Integer.class.getName(), "29"));
+        assertEquals(29L, ElasticValueCodecs.decode(Long.class.getName(), " 29 "));
+        assertEquals((short) 7, ElasticValueCodecs.decode(Short.class.getName(), "7"));
+        assertEquals((byte) 7, ElasticValueCodecs.decode(Byte.class.getName(), "7"));
+        assertEquals(0.5f, ElasticValueCodecs.decode(Float.class.getName(), "0.5"));
+        assertEquals(0.5d, ElasticValueCodecs.decode(Double.class.getName(), "0.5"));
+        assertEquals(new BigInteger("12345678901234567890"), ElasticValueCodecs.decode(BigInteger.class.getName(), "12345678901234567890"));
+        assertEquals(new BigDecimal("1.50"), ElasticValueCodecs.decode(BigDecimal.class.getName(), "1.50"));
+    }
+
+    @Test
+    public void decodesBooleanLiterals() {
+        String type = Boolean.class.getName();
+        assertEquals(Boolean.TRUE, ElasticValueCodecs.decode(type, "true"));
+        assertEquals(Boolean.TRUE, ElasticValueCodecs.decode(type, "TRUE"));
+        assertEquals(Boolean.FALSE, ElasticValueCodecs.decode(type, "False"));
+        assertNull(ElasticValueCodecs.decode(type, "yes"));
+    }
+
+    @Test
+    public void decodesOtherTypesByObjectMapper() {
+        String uuid = "123e4567-e89b-12d3-a456-426655440000";
+        assertEquals(UUID.fromString(uuid), ElasticValueCodecs.decode(UUID.class.getName(), uuid));
+        // resolved codec is reused
+        assertEquals(UUID.fromString(uuid), ElasticValueCodecs.decode(UUID.class.getName(), uuid));
+    }
+
+    @Test
+    public void nullForUnknownTypeOrBadValue() {
+        assertNull(ElasticValueCodecs.decode(null, "1"));
+        assertNull(ElasticValueCodecs.decode("com.example.NoSuchType", "1"));
+        assertNull(ElasticValueCodecs.decode(Integer.class.getName(), "one"));
+        assertNull(ElasticValueCodecs.decode(Long.class.getName(), null));
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.example.aws.elasticsearch.demo.elasticgraph.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IdOrdinalMapTest {
+
+    @Test
+    public void ordinalsAreDenseInInsertionOrder() {
+        IdOrdinalMap map = new IdOrdinalMap();
+        assertEquals(0, map.add("a"));
+        assertEquals(1, map.add("b"));
+        assertEquals(0, map.add("a"));      // existing id : same ordinal
+        assertEquals(2, map.size());
+        assertEquals("a", map.id(0));
+        assertEquals("b", map.id(1));
+        assertEquals(1, map.get("b"));
+        assertEquals(-1, map.get("c"));
+    }
+
+    @Test
+    public void growsPastInitialCapacity() {
+        IdOrdinalMap map = new IdOrdinalMap(1);
+        int n = 100000;
+        for( int i = 0; i < n; i += 1 ) assertEquals(i, map.add("v_" + i));
+        assertEquals(n, map.size());
+        for( int i = 0; i < n; i += 1 ){
+            assertEquals(i, map.get("v_" + i));
+            assertEquals("v_" + i, map.id(i));
+        }
+        assertEquals(-1, map.get("v_" + n));
+        assertTrue(map.bytes() > 0);
+    }
+
+    @Test
+    public void collidingHashCodes() {
+        // "Aa" and "BB" have the same String.hashCode
+        IdOrdinalMap map = new IdOrdinalMap();
+        assertEquals(0, map.add("Aa"));
+        assertEquals(1, map.add("BB"));
+        assertEquals(0, map.get("Aa"));
+        assertEquals(1, map.get("BB"));
+        assertEquals(2, map.size());
+    }
+
+}